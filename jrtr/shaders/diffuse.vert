@@ -25,8 +25,9 @@ void main()
 	// and pass color to fragment shader
 	// Note: here we assume "lightDirection" is specified in camera coordinates,
 	// so we transform the normal to camera coordinates, and we don't transform
-	// the light direction, i.e., it stays in camera coordinates
-	ndotl = max(dot(modelview * vec4(normal,0), lightDirection[0]),0);
+	// the light direction, i.e., it stays in camera coordinates. The
+	// modelview matrix may scale, so normalize the transformed normal
+	ndotl = max(dot(normalize(modelview * vec4(normal,0)), lightDirection[0]),0);
 
 	// Pass texture coordiantes to fragment shader, OpenGL automatically
 	// interpolates them to each pixel  (in a perspectively correct manner) 
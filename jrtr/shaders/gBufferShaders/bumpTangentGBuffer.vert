@@ -0,0 +1,28 @@
+#version 330
+uniform mat4 projection; 
+uniform mat4 modelview;
+
+in vec4 position;
+in vec3 normal;
+in vec3 color;
+in vec2 texcoord;
+in vec4 tangent;
+
+// Output variables
+out vec4 positionOut;
+out vec4 colorOut;
+out vec2 texcoordOut;
+out vec4 normalOut;
+out vec4 tangentOut;
+
+void main(){
+	positionOut = modelview * position;
+	normalOut = normalize(modelview * vec4(normal, 0.0));
+	// Normalized like the normal, so both have the same length under a
+	// scaled modelview. The sign of the bitangent is in w, see
+	// jrtr.TangentGenerator
+	tangentOut = vec4(normalize((modelview * vec4(tangent.xyz, 0.0)).xyz), tangent.w);
+	colorOut = vec4(color, 1.0);
+	texcoordOut =  texcoord;
+	gl_Position = projection * positionOut;
+}
\ No newline at end of file
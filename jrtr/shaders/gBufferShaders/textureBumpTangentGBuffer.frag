@@ -0,0 +1,26 @@
+#version 330
+uniform mat4 projection; 
+uniform mat4 modelview;
+uniform sampler2D myTexture;
+uniform sampler2D bumpMap;
+
+in vec4 positionOut;
+in vec4 colorOut;
+smooth in vec4 normalOut;
+in vec2 texcoordOut;
+in vec4 tangentOut;
+
+layout(location = 0) out vec4 normalColor;
+layout(location = 1) out vec4 colorColor;
+layout(location = 2) out vec4 texcoordColor;
+
+void main(){
+   	vec3 bumpNormal = (texture2D(bumpMap, texcoordOut).rgb * 2.0) - 1.0;
+	// Tangent frame of the vertices, interpolated but not normalized, as
+	// the normal maps are baked with MikkTSpace
+	vec3 bitangent = tangentOut.w * cross(normalOut.xyz, tangentOut.xyz);
+	vec3 n = bumpNormal.x * tangentOut.xyz + bumpNormal.y * bitangent + bumpNormal.z * normalOut.xyz;
+	normalColor = vec4((normalize(n) + 1.0)*.5, 1.0);
+	colorColor = colorOut*texture2D(myTexture, texcoordOut);
+	texcoordColor = vec4(texcoordOut,0.0,0.0);
+}
\ No newline at end of file
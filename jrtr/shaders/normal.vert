@@ -19,7 +19,7 @@ void main()
 {
 	// Make sure the 4th component of the normal vector is 0,
 	// transform normal to camera space, and pass to fragment shader
-	frag_normal = modelview * vec4(normal, 0);
+	frag_normal = normalize(modelview * vec4(normal, 0));
 	
 	// Note: gl_Position is a default output variable containing
 	// the transformed vertex position
@@ -0,0 +1,221 @@
+package jrtr;
+
+import static org.lwjgl.assimp.Assimp.*;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import org.lwjgl.assimp.AIFace;
+import org.lwjgl.assimp.AIMesh;
+import org.lwjgl.assimp.AIScene;
+import org.lwjgl.assimp.AIVector3D;
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * Reads meshes with the Assimp library, which supports many file formats
+ * besides .obj, including files with polygons that are not triangles. Assimp
+ * triangulates the faces, welds identical vertices and reorders the
+ * triangles for the post-transform vertex cache. The vertex attributes are
+ * then copied in bulk from Assimp's native memory into the arrays, or direct
+ * buffers, of the vertex data.
+ * <p>
+ * All meshes of a file are merged into one vertex data object. The node
+ * transformations of the scene are ignored, as are points and lines.
+ */
+public class AssimpReader {
+
+	private static final int FLAGS = aiProcess_Triangulate | aiProcess_JoinIdenticalVertices
+			| aiProcess_ImproveCacheLocality | aiProcess_SortByPType;
+
+	/**
+	 * Read a mesh file and return vertex data.
+	 *
+	 * @param fileName
+	 *            the file to read, in any format supported by Assimp
+	 * @param scale
+	 *            scales the object to fit into a cube of the given size, like
+	 *            {@link ObjReader#read(String, float, RenderContext)}
+	 * @return vertex data containing the loaded mesh
+	 * @throws IOException
+	 */
+	public static VertexData read(String fileName, float scale, RenderContext renderContext) throws IOException {
+		return read(fileName, scale, renderContext, false);
+	}
+
+	/**
+	 * Read a mesh file like {@link #read(String, float, RenderContext)},
+	 * optionally into direct buffers. Direct buffers are filled from
+	 * Assimp's arrays with plain memory copies, and are passed to OpenGL
+	 * without further copies. They need to be released with
+	 * {@link VertexData#free()}.
+	 *
+	 * @param direct
+	 *            whether to store the vertex data in direct buffers
+	 */
+	public static VertexData read(String fileName, float scale, RenderContext renderContext, boolean direct)
+			throws IOException {
+		AIScene scene = aiImportFile(fileName, FLAGS);
+		if (scene == null)
+			throw new IOException("Can't load file " + fileName + " " + aiGetErrorString());
+
+		try {
+			// Count vertices and triangles of all triangle meshes
+			AIMesh[] meshes = new AIMesh[scene.mNumMeshes()];
+			int nVertices = 0, nTriangles = 0;
+			boolean hasNormals = false, hasTexCoords = false;
+			for (int m = 0; m < meshes.length; m++) {
+				AIMesh mesh = AIMesh.create(scene.mMeshes().get(m));
+				if ((mesh.mPrimitiveTypes() & aiPrimitiveType_TRIANGLE) == 0)
+					continue;
+				meshes[m] = mesh;
+				nVertices += mesh.mNumVertices();
+				nTriangles += mesh.mNumFaces();
+				hasNormals |= mesh.mNormals() != null;
+				hasTexCoords |= mesh.mTextureCoords(0) != null;
+			}
+			if (nTriangles == 0)
+				throw new IOException("No triangles in file " + fileName);
+
+			// Add the (still empty) elements right away, so that free()
+			// releases them if reading fails
+			VertexData vertexData = renderContext.makeVertexData(nVertices);
+			FloatBuffer positions = addElement(vertexData, VertexData.Semantic.POSITION, 3, direct);
+			FloatBuffer normals = hasNormals ? addElement(vertexData, VertexData.Semantic.NORMAL, 3, direct) : null;
+			FloatBuffer texCoords = hasTexCoords ? addElement(vertexData, VertexData.Semantic.TEXCOORD, 2, direct)
+					: null;
+			IntBuffer indices;
+			if (direct) {
+				indices = VertexData.allocateInts(3 * nTriangles);
+				vertexData.addIndices(indices);
+			} else {
+				indices = IntBuffer.allocate(3 * nTriangles);
+				vertexData.addIndices(indices.array());
+			}
+			try {
+				copy(meshes, positions, normals, texCoords, indices, fileName);
+			} catch (IOException e) {
+				vertexData.free();
+				throw e;
+			}
+			normalize(positions, scale);
+			return vertexData;
+		} finally {
+			aiReleaseImport(scene);
+		}
+	}
+
+	/**
+	 * Copy the vertex attributes and indices of all meshes.
+	 */
+	private static void copy(AIMesh[] meshes, FloatBuffer positions, FloatBuffer normals, FloatBuffer texCoords,
+			IntBuffer indices, String fileName) throws IOException {
+		int vertexOffset = 0, indexOffset = 0;
+		for (AIMesh mesh : meshes) {
+			if (mesh == null)
+				continue;
+			int n = mesh.mNumVertices();
+
+			// Positions and normals are arrays of packed float triples
+			positions.position(3 * vertexOffset);
+			positions.put(floats(mesh.mVertices(), n));
+			if (mesh.mNormals() != null) {
+				normals.position(3 * vertexOffset);
+				normals.put(floats(mesh.mNormals(), n));
+			} else if (normals != null) {
+				// Direct buffers are not initialized
+				for (int i = 3 * vertexOffset; i < 3 * (vertexOffset + n); i++)
+					normals.put(i, 0);
+			}
+
+			// Texture coordinates have three components, drop the third
+			AIVector3D.Buffer t = mesh.mTextureCoords(0);
+			if (t != null) {
+				FloatBuffer src = floats(t, n);
+				for (int i = 0; i < n; i++) {
+					texCoords.put(2 * (vertexOffset + i), src.get(3 * i));
+					texCoords.put(2 * (vertexOffset + i) + 1, src.get(3 * i + 1));
+				}
+			} else if (texCoords != null) {
+				for (int i = 2 * vertexOffset; i < 2 * (vertexOffset + n); i++)
+					texCoords.put(i, 0);
+			}
+
+			// Faces store a pointer to their indices each
+			AIFace.Buffer faces = mesh.mFaces();
+			for (int f = 0; f < mesh.mNumFaces(); f++) {
+				IntBuffer face = faces.get(f).mIndices();
+				if (face.remaining() != 3)
+					throw new IOException("Face with " + face.remaining() + " vertices in file " + fileName);
+				indices.put(indexOffset++, vertexOffset + face.get(0));
+				indices.put(indexOffset++, vertexOffset + face.get(1));
+				indices.put(indexOffset++, vertexOffset + face.get(2));
+			}
+			vertexOffset += n;
+		}
+	}
+
+	/**
+	 * Allocate an element of the vertex data, stored in a direct buffer or
+	 * in an array, and return a buffer to fill it.
+	 */
+	private static FloatBuffer addElement(VertexData vertexData, VertexData.Semantic s, int i, boolean direct) {
+		int n = vertexData.getNumberOfVertices() * i;
+		if (direct) {
+			FloatBuffer f = VertexData.allocateFloats(n);
+			vertexData.addElement(f, s, i);
+			return f;
+		}
+		float[] f = new float[n];
+		vertexData.addElement(f, s, i);
+		return FloatBuffer.wrap(f);
+	}
+
+	/**
+	 * A view of the native memory of n vectors as a buffer of 3n floats.
+	 */
+	private static FloatBuffer floats(AIVector3D.Buffer vectors, int n) {
+		return MemoryUtil.memFloatBuffer(vectors.address(), 3 * n);
+	}
+
+	/**
+	 * Center the positions and scale them to fit into a cube of the given
+	 * size, the same way as {@link ObjReader} does.
+	 */
+	private static void normalize(FloatBuffer positions, float scale) {
+		float xMin, xMax, yMin, yMax, zMin, zMax;
+		xMin = Float.MAX_VALUE;
+		xMax = Float.MIN_VALUE;
+		yMin = Float.MAX_VALUE;
+		yMax = Float.MIN_VALUE;
+		zMin = Float.MAX_VALUE;
+		zMax = Float.MIN_VALUE;
+		int n = positions.capacity();
+		for (int i = 0; i < n; i += 3) {
+			float x = positions.get(i), y = positions.get(i + 1), z = positions.get(i + 2);
+			if (x < xMin) xMin = x;
+			if (x > xMax) xMax = x;
+			if (y < yMin) yMin = y;
+			if (y > yMax) yMax = y;
+			if (z < zMin) zMin = z;
+			if (z > zMax) zMax = z;
+		}
+
+		float xTrans = -(xMax + xMin) / 2;
+		float yTrans = -(yMax + yMin) / 2;
+		float zTrans = -(zMax + zMin) / 2;
+		float xScale = 2 / (xMax - xMin);
+		float yScale = 2 / (yMax - yMin);
+		float zScale = 2 / (zMax - zMin);
+		float s = yScale;
+		if (xScale < yScale) s = xScale;
+		if (zScale < s) s = zScale;
+		s *= scale;
+
+		for (int i = 0; i < n; i += 3) {
+			positions.put(i, s * (positions.get(i) + xTrans));
+			positions.put(i + 1, s * (positions.get(i + 1) + yTrans));
+			positions.put(i + 2, s * (positions.get(i + 2) + zTrans));
+		}
+	}
+}
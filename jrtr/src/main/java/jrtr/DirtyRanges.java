@@ -0,0 +1,94 @@
+package jrtr;
+
+/**
+ * A small set of ranges [first, end) of items that changed since they were
+ * last uploaded to graphics memory, see {@link VertexData#markDirty}.
+ * Overlapping and adjacent ranges are merged. If there are more than a few
+ * ranges, they are merged into one that covers all of them, since many
+ * small uploads are slower than one larger upload.
+ */
+public class DirtyRanges {
+
+	private static final int MAX_RANGES = 8;
+
+	private final int[] firsts = new int[MAX_RANGES];
+	private final int[] ends = new int[MAX_RANGES];
+	private int n;
+
+	/**
+	 * Add the range [first, first+count).
+	 */
+	public void add(int first, int count) {
+		if (count <= 0)
+			return;
+		int end = first + count;
+
+		// Merge with the ranges that overlap or touch the new one
+		int kept = 0;
+		for (int i = 0; i < n; i++) {
+			if (ends[i] >= first && firsts[i] <= end) {
+				first = Math.min(first, firsts[i]);
+				end = Math.max(end, ends[i]);
+			} else {
+				firsts[kept] = firsts[i];
+				ends[kept] = ends[i];
+				kept++;
+			}
+		}
+		n = kept;
+
+		if (n == MAX_RANGES) {
+			for (int i = 0; i < n; i++) {
+				first = Math.min(first, firsts[i]);
+				end = Math.max(end, ends[i]);
+			}
+			n = 0;
+		}
+		firsts[n] = first;
+		ends[n] = end;
+		n++;
+	}
+
+	public boolean isEmpty() {
+		return n == 0;
+	}
+
+	/**
+	 * Returns the number of ranges.
+	 */
+	public int size() {
+		return n;
+	}
+
+	public int getFirst(int i) {
+		return firsts[i];
+	}
+
+	public int getEnd(int i) {
+		return ends[i];
+	}
+
+	/**
+	 * Returns the smallest first item of all ranges.
+	 */
+	public int getMin() {
+		int min = Integer.MAX_VALUE;
+		for (int i = 0; i < n; i++)
+			min = Math.min(min, firsts[i]);
+		return min;
+	}
+
+	/**
+	 * Returns the largest end of all ranges.
+	 */
+	public int getMax() {
+		int max = Integer.MIN_VALUE;
+		for (int i = 0; i < n; i++)
+			max = Math.max(max, ends[i]);
+		return max;
+	}
+
+	public void clear() {
+		n = 0;
+	}
+}
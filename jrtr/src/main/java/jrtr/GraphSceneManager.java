@@ -1,7 +1,11 @@
 package jrtr;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
 import javax.vecmath.*;
 
 public class GraphSceneManager implements SceneManagerInterface {
@@ -12,28 +16,160 @@ public class GraphSceneManager implements SceneManagerInterface {
 	private Frustum frustum;
 	
 	/**
-	 * Implement the iterative graph traversal here. 
+	 * Traverses the graph depth first without recursion. The groups on the
+	 * path from the root, the next child of each, and the accumulated
+	 * transformations are kept on explicit stacks, which grow when the graph
+	 * is deeper than ever before and are reused afterwards. {@link #next()}
+	 * returns the same {@link RenderItem} every time, with the transformation
+	 * in a matrix that is also reused, so the item is only valid until the
+	 * next call. Together with the children of {@link TransformGroup} being
+	 * indexed, a traversal does not allocate.
 	 */
 	private class GraphSceneManagerItr implements SceneManagerIterator {
 
-		// Dummy implementation.
-		public GraphSceneManagerItr(GraphSceneManager sceneManager)
+		private TransformGroup[] groups;
+		private int[] nextChild;
+		private Iterator<SceneNode>[] childIterators;
+		private Matrix4f[] matrices;
+		private int depth;
+		private boolean rootVisited;
+		private ShapeNode pending;
+		private Matrix4f pendingMatrix;
+		private RenderItem item;
+		private Matrix4f t;
+
+		@SuppressWarnings("unchecked")
+		public GraphSceneManagerItr()
 		{
-			
+			groups = new TransformGroup[16];
+			nextChild = new int[16];
+			childIterators = (Iterator<SceneNode>[]) new Iterator<?>[16];
+			matrices = new Matrix4f[17];
+			for(int i=0; i<matrices.length; i++)
+				matrices[i] = new Matrix4f();
+			matrices[0].setIdentity();
+			item = new RenderItem(null, null);
+			t = new Matrix4f();
 		}
-		
-		// Dummy implementation.		
+
+		/**
+		 * Start a new traversal from the root.
+		 */
+		void reset()
+		{
+			// Drop references to the groups of an earlier traversal that
+			// was not finished
+			for(int i=0; i<depth; i++)
+			{
+				groups[i] = null;
+				childIterators[i] = null;
+			}
+			depth = 0;
+			rootVisited = false;
+			pending = null;
+			advance();
+		}
+
 		public boolean hasNext()
 		{
-			return false;
+			return pending != null;
 		}
 
-		// Dummy implementation.
 		public RenderItem next()
 		{
-			return null;
+			if(pending == null)
+				throw new NoSuchElementException();
+			Shape shape = pending.getShape();
+			t.mul(pendingMatrix, shape.getTransformation());
+			if(shape instanceof LodShape)
+				((LodShape) shape).selectLevel(camera, frustum, t);
+			item.set(shape, t);
+			advance();
+			return item;
+		}
+
+		/**
+		 * Find the next shape node, or set it to null at the end of the graph.
+		 */
+		private void advance()
+		{
+			pending = null;
+			if(!rootVisited)
+			{
+				rootVisited = true;
+				if(visit(root))
+					return;
+			}
+			while(depth > 0)
+			{
+				TransformGroup group = groups[depth-1];
+				SceneNode child = null;
+				Iterator<SceneNode> itr = childIterators[depth-1];
+				if(itr == null)
+				{
+					List<SceneNode> children = (List<SceneNode>) group.children;
+					if(nextChild[depth-1] < children.size())
+						child = children.get(nextChild[depth-1]++);
+				}
+				else if(itr.hasNext())
+					child = itr.next();
+
+				if(child == null)
+				{
+					// All children visited, go back up
+					depth--;
+					groups[depth] = null;
+					childIterators[depth] = null;
+				}
+				else if(visit(child))
+					return;
+			}
+		}
+
+		/**
+		 * Descend into a group, or make a shape node the next one returned.
+		 *
+		 * @return true if the node is a shape node
+		 */
+		private boolean visit(SceneNode node)
+		{
+			if(node instanceof ShapeNode)
+			{
+				pending = (ShapeNode) node;
+				pendingMatrix = matrices[depth];
+				return true;
+			}
+			if(node instanceof TransformGroup)
+			{
+				TransformGroup group = (TransformGroup) node;
+				if(depth == groups.length)
+					grow();
+				groups[depth] = group;
+				nextChild[depth] = 0;
+				// Children that cannot be indexed efficiently are visited
+				// with an iterator, which allocates
+				childIterators[depth] = group.children instanceof List && group.children instanceof RandomAccess ?
+						null : group.children.iterator();
+				matrices[depth+1].mul(matrices[depth], group.getTransformation());
+				depth++;
+			}
+			return false;
+		}
+
+		private void grow()
+		{
+			int n = 2*groups.length;
+			groups = Arrays.copyOf(groups, n);
+			nextChild = Arrays.copyOf(nextChild, n);
+			childIterators = Arrays.copyOf(childIterators, n);
+			int old = matrices.length;
+			matrices = Arrays.copyOf(matrices, n+1);
+			for(int i=old; i<matrices.length; i++)
+				matrices[i] = new Matrix4f();
 		}
 	}
+
+	private GraphSceneManagerItr itr;
 	
 	public GraphSceneManager(SceneNode root)
 	{
@@ -53,8 +189,16 @@ public class GraphSceneManager implements SceneManagerInterface {
 		return frustum;
 	}
 
+	/**
+	 * Returns an iterator over the shapes of the graph. The scene manager
+	 * reuses a single iterator, which this call restarts, so only one
+	 * traversal may be in progress at a time.
+	 */
 	public SceneManagerIterator iterator() {
-		return new GraphSceneManagerItr(this);
+		if(itr == null)
+			itr = new GraphSceneManagerItr();
+		itr.reset();
+		return itr;
 	}
 	
 	public void addLight(Light light)
@@ -0,0 +1,1124 @@
+package jrtr;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * A triangle mesh in a half-edge structure that is stored in arrays of
+ * primitives instead of objects, for meshes with millions of triangles. It
+ * needs about a tenth of the memory of the winged edge structure of
+ * {@link MeshData}, and building it allocates only a few arrays.
+ * <p>
+ * Each triangle f has the three half-edges 3f, 3f+1 and 3f+2, in
+ * counterclockwise order, so the face and the next half-edge of a half-edge
+ * follow from its number and are not stored. For each half-edge the mesh
+ * stores its origin vertex, which makes the array of origins an index
+ * buffer, and its twin, the half-edge of the neighboring triangle in the
+ * opposite direction, or -1 on a border. For each vertex it stores one
+ * outgoing half-edge, a border half-edge if the vertex is on a border.
+ * Vertex attributes are stored in flat float arrays, three or two floats
+ * per vertex.
+ * <p>
+ * All adjacency queries take constant time. The half-edges around a vertex
+ * are visited without allocating, with
+ * <pre>
+ * int start = mesh.outgoing(v), h = start;
+ * do {
+ *     // mesh.target(h) is a neighbor of v, mesh.face(h) a face of v
+ *     h = mesh.nextOutgoing(h);
+ * } while (h &gt;= 0 &amp;&amp; h != start);
+ * </pre>
+ * Edges with more than two triangles, or with two triangles of inconsistent
+ * orientation, are treated like border edges.
+ * <p>
+ * The mesh can be edited locally, by moving vertices and by splitting,
+ * collapsing and flipping edges. Each edit takes time proportional to the
+ * number of neighbors of the vertices involved, and the arrays grow by half
+ * when they are full. The vertices and triangles stay numbered from zero
+ * without gaps: removed ones are replaced by the last one. The edits record
+ * the ranges of vertices and triangles they change, so that only these
+ * need to be copied to a vertex data, see {@link MeshData#updateVertexData()}.
+ * Edits require that the vertices involved have a single fan of triangles.
+ */
+public class HalfEdgeMesh {
+
+	/**
+	 * Buckets of the half-edges with at most this many half-edges are paired
+	 * by comparing all of them, larger ones are sorted first.
+	 */
+	private static final int SMALL_BUCKET = 32;
+
+	private static final int BLOCK_SIZE = 1 << 16;
+
+	/**
+	 * Where the two halves of a half-edge 3f+k are among the twelve
+	 * half-edges of the four triangles that face f is subdivided into
+	 */
+	private static final int[] FIRST_HALF = { 0, 4, 8 };
+	private static final int[] SECOND_HALF = { 3, 7, 2 };
+
+	private int nVertices;
+	private int nFaces;
+
+	/**
+	 * The origin vertex and the twin of each half-edge
+	 */
+	private int[] vertex;
+	private int[] twin;
+
+	/**
+	 * An outgoing half-edge of each vertex, or -1 if the vertex is not used
+	 * by any triangle
+	 */
+	private int[] outgoing;
+
+	private float[] positions;
+	private float[] normals;
+	private float[] colors;
+	private float[] texCoords;
+
+	/**
+	 * Tangents with the handedness of the bitangent in the fourth component,
+	 * see {@link TangentGenerator}, or null
+	 */
+	private float[] tangents;
+
+	/**
+	 * The vertices and triangles that changed since {@link #clearChanges()}
+	 */
+	private final DirtyRanges changedVertices = new DirtyRanges();
+	private final DirtyRanges changedFaces = new DirtyRanges();
+
+	/**
+	 * Marks vertices with the current stamp, to compare the neighbors of two
+	 * vertices without allocating
+	 */
+	private int[] mark;
+	private int stamp;
+
+	/**
+	 * Builds the half-edge mesh of indexed triangles. Copies the positions,
+	 * normals, colors, texture coordinates and tangents of the vertex data,
+	 * the other elements are not used. The time is linear in the size of the mesh for
+	 * meshes whose vertices have a bounded number of neighbors, and the twins
+	 * are paired in parallel.
+	 *
+	 * @param data
+	 *            the vertex data, with triangles and a position element
+	 */
+	public HalfEdgeMesh(VertexData data) {
+		nVertices = data.getNumberOfVertices();
+		IntBuffer indexBuffer = data.getIndexBuffer();
+		vertex = new int[indexBuffer.remaining()];
+		indexBuffer.get(vertex);
+		nFaces = vertex.length / 3;
+
+		for (VertexData.VertexElement e : data.getElements()) {
+			if (e.getSemantic() == VertexData.Semantic.POSITION)
+				positions = copy(e, 3);
+			else if (e.getSemantic() == VertexData.Semantic.NORMAL)
+				normals = copy(e, 3);
+			else if (e.getSemantic() == VertexData.Semantic.COLOR)
+				colors = copy(e, 3);
+			else if (e.getSemantic() == VertexData.Semantic.TEXCOORD)
+				texCoords = copy(e, 2);
+			else if (e.getSemantic() == VertexData.Semantic.TANGENT && e.getNumberOfComponents() == 4)
+				tangents = copy(e, 4);
+		}
+		if (positions == null)
+			throw new IllegalArgumentException("Vertex data has no positions");
+
+		twin = new int[vertex.length];
+		linkTwins();
+		outgoing = new int[nVertices];
+		linkOutgoing();
+	}
+
+	/**
+	 * Makes a mesh from its arrays, which are not copied.
+	 */
+	private HalfEdgeMesh(int nVertices, int nFaces, int[] vertex, int[] twin, int[] outgoing, float[] positions,
+			float[] normals, float[] colors, float[] texCoords) {
+		this.nVertices = nVertices;
+		this.nFaces = nFaces;
+		this.vertex = vertex;
+		this.twin = twin;
+		this.outgoing = outgoing;
+		this.positions = positions;
+		this.normals = normals;
+		this.colors = colors;
+		this.texCoords = texCoords;
+	}
+
+	/**
+	 * Copy the first components of a vertex element into an array with
+	 * the given number of floats per vertex.
+	 */
+	private float[] copy(VertexData.VertexElement e, int dim) {
+		float[] f = new float[dim * nVertices];
+		FloatBuffer buffer = e.getBuffer();
+		int n = Math.min(dim, e.getNumberOfComponents());
+		for (int v = 0; v < nVertices; v++)
+			for (int c = 0; c < n; c++)
+				f[dim * v + c] = buffer.get(v * e.getNumberOfComponents() + c);
+		return f;
+	}
+
+	/**
+	 * Find the twin of each half-edge. The half-edges are sorted into one
+	 * bucket per vertex by the smaller vertex of their edge, so the two
+	 * half-edges of an edge are in the same bucket, and the buckets are
+	 * paired in parallel.
+	 */
+	private void linkTwins() {
+		int n = 3 * nFaces;
+		int[] start = new int[nVertices + 1];
+		for (int h = 0; h < n; h++)
+			start[Math.min(vertex[h], vertex[next(h)]) + 1]++;
+		for (int v = 0; v < nVertices; v++)
+			start[v + 1] += start[v];
+		int[] fill = Arrays.copyOf(start, nVertices);
+		int[] sorted = new int[n];
+		for (int h = 0; h < n; h++)
+			sorted[fill[Math.min(vertex[h], vertex[next(h)])]++] = h;
+		fill = null;
+
+		Arrays.fill(twin, 0, n, -1);
+		IntStream.range(0, nVertices).parallel().forEach(v -> {
+			int first = start[v], end = start[v + 1];
+			if (end - first <= SMALL_BUCKET) {
+				for (int i = first; i < end; i++)
+					pair(sorted, i, first, end);
+			} else {
+				// Sort the bucket by the other vertex of the edge
+				long[] keys = new long[end - first];
+				for (int i = first; i < end; i++) {
+					int h = sorted[i];
+					keys[i - first] = (long) Math.max(vertex[h], vertex[next(h)]) << 32 | h;
+				}
+				Arrays.sort(keys);
+				for (int i = first; i < end; i++)
+					sorted[i] = (int) keys[i - first];
+				for (int i = first, j; i < end; i = j) {
+					long other = keys[i - first] >>> 32;
+					for (j = i + 1; j < end && keys[j - first] >>> 32 == other; j++)
+						;
+					for (int k = i; k < j; k++)
+						pair(sorted, k, i, j);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Make the half-edge sorted[i] and the other half-edge of its edge in
+	 * sorted[first, end) twins, if the edge has exactly two half-edges in
+	 * opposite directions.
+	 */
+	private void pair(int[] sorted, int i, int first, int end) {
+		int h = sorted[i], a = vertex[h], b = vertex[next(h)];
+		int other = -1, count = 0;
+		for (int j = first; j < end; j++) {
+			int g = sorted[j];
+			int c = vertex[g], d = vertex[next(g)];
+			if (c == a && d == b || c == b && d == a) {
+				count++;
+				if (c == b)
+					other = g;
+			}
+		}
+		if (count == 2 && other >= 0)
+			twin[h] = other;
+	}
+
+	/**
+	 * Choose the outgoing half-edge of each vertex, a border half-edge if
+	 * there is one, so that the walk around the vertex starts at the border.
+	 */
+	private void linkOutgoing() {
+		Arrays.fill(outgoing, 0, nVertices, -1);
+		for (int h = 0; h < 3 * nFaces; h++) {
+			int v = vertex[h];
+			if (outgoing[v] < 0 || twin[h] < 0)
+				outgoing[v] = h;
+		}
+	}
+
+	public int getNumberOfVertices() {
+		return nVertices;
+	}
+
+	public int getNumberOfFaces() {
+		return nFaces;
+	}
+
+	public int getNumberOfHalfEdges() {
+		return 3 * nFaces;
+	}
+
+	/**
+	 * Returns the next half-edge in the triangle of a half-edge.
+	 */
+	public static int next(int h) {
+		return h - h % 3 + (h + 1) % 3;
+	}
+
+	/**
+	 * Returns the previous half-edge in the triangle of a half-edge.
+	 */
+	public static int prev(int h) {
+		return h - h % 3 + (h + 2) % 3;
+	}
+
+	/**
+	 * Returns the triangle of a half-edge.
+	 */
+	public static int face(int h) {
+		return h / 3;
+	}
+
+	/**
+	 * Returns the first half-edge of a triangle.
+	 */
+	public static int halfEdge(int f) {
+		return 3 * f;
+	}
+
+	/**
+	 * Returns the half-edge in the opposite direction, or -1 if the
+	 * half-edge is on a border.
+	 */
+	public int twin(int h) {
+		return twin[h];
+	}
+
+	/**
+	 * Returns the vertex a half-edge starts at.
+	 */
+	public int origin(int h) {
+		return vertex[h];
+	}
+
+	/**
+	 * Returns the vertex a half-edge points to.
+	 */
+	public int target(int h) {
+		return vertex[next(h)];
+	}
+
+	/**
+	 * Returns an outgoing half-edge of a vertex, or -1 if no triangle uses
+	 * the vertex. For vertices on a border this is the half-edge on the
+	 * border.
+	 */
+	public int outgoing(int v) {
+		return outgoing[v];
+	}
+
+	/**
+	 * Returns the next outgoing half-edge of the origin of a half-edge,
+	 * turning clockwise, or -1 if the walk reaches a border.
+	 */
+	public int nextOutgoing(int h) {
+		return twin[prev(h)];
+	}
+
+	public boolean isBorder(int h) {
+		return twin[h] < 0;
+	}
+
+	public boolean isBorderVertex(int v) {
+		return outgoing[v] >= 0 && twin[outgoing[v]] < 0;
+	}
+
+	/**
+	 * Returns the number of neighbors of a vertex.
+	 */
+	public int valence(int v) {
+		int start = outgoing[v], h = start, n = 0;
+		if (start < 0)
+			return 0;
+		do {
+			n++;
+			h = nextOutgoing(h);
+		} while (h >= 0 && h != start);
+		// On a border the last neighbor is only reached by the previous
+		// half-edge of the last triangle
+		return h < 0 ? n + 1 : n;
+	}
+
+	/**
+	 * Writes the neighbors of a vertex into an array, in clockwise order.
+	 *
+	 * @param neighbors
+	 *            the array, at least as long as the valence of the vertex
+	 * @return the number of neighbors
+	 */
+	public int neighbors(int v, int[] neighbors) {
+		int start = outgoing[v], h = start, n = 0;
+		if (start < 0)
+			return 0;
+		int last;
+		do {
+			neighbors[n++] = target(h);
+			last = h;
+			h = nextOutgoing(h);
+		} while (h >= 0 && h != start);
+		if (h < 0)
+			neighbors[n++] = origin(prev(last));
+		return n;
+	}
+
+	/**
+	 * Returns the origin vertices of all half-edges, three per triangle.
+	 * This is the index array of the triangles. The array may be longer than
+	 * {@link #getNumberOfHalfEdges()}.
+	 */
+	public int[] getIndices() {
+		return vertex;
+	}
+
+	/**
+	 * Returns the positions, three floats per vertex.
+	 */
+	public float[] getPositions() {
+		return positions;
+	}
+
+	/**
+	 * Returns the normals, three floats per vertex, or null.
+	 */
+	public float[] getNormals() {
+		return normals;
+	}
+
+	/**
+	 * Returns the colors, three floats per vertex, or null.
+	 */
+	public float[] getColors() {
+		return colors;
+	}
+
+	/**
+	 * Returns the texture coordinates, two floats per vertex, or null.
+	 */
+	public float[] getTexCoords() {
+		return texCoords;
+	}
+
+	/**
+	 * Returns the tangents, four floats per vertex, or null.
+	 */
+	public float[] getTangents() {
+		return tangents;
+	}
+
+	/**
+	 * Set the tangents, four floats per vertex, for example after
+	 * {@link TangentGenerator} computed them for the vertex data of the
+	 * mesh. The edits then move and interpolate them with the vertices.
+	 *
+	 * @param tangents
+	 *            the tangents, at least for the vertices of the mesh, or
+	 *            null
+	 */
+	public void setTangents(FloatBuffer tangents) {
+		if (tangents == null) {
+			this.tangents = null;
+			return;
+		}
+		this.tangents = new float[4 * outgoing.length];
+		tangents.get(this.tangents, 0, Math.min(this.tangents.length, tangents.remaining()));
+	}
+
+	/**
+	 * Returns the number of bytes of the arrays of the mesh.
+	 */
+	public long getMemoryBytes() {
+		long bytes = 4L * (vertex.length + twin.length + outgoing.length + positions.length);
+		for (float[] f : new float[][] { normals, colors, texCoords, tangents })
+			if (f != null)
+				bytes += 4L * f.length;
+		return bytes;
+	}
+
+	/**
+	 * Returns the number of vertices the arrays have room for.
+	 */
+	public int getVertexCapacity() {
+		return outgoing.length;
+	}
+
+	/**
+	 * Returns the number of triangles the arrays have room for.
+	 */
+	public int getFaceCapacity() {
+		return vertex.length / 3;
+	}
+
+	/**
+	 * Make room for at least the given numbers of vertices and triangles.
+	 * The arrays grow by at least half of their size.
+	 */
+	public void reserve(int vertices, int faces) {
+		if (vertices > outgoing.length) {
+			int n = Math.max(vertices, outgoing.length + outgoing.length / 2);
+			outgoing = Arrays.copyOf(outgoing, n);
+			positions = Arrays.copyOf(positions, 3 * n);
+			if (normals != null)
+				normals = Arrays.copyOf(normals, 3 * n);
+			if (colors != null)
+				colors = Arrays.copyOf(colors, 3 * n);
+			if (texCoords != null)
+				texCoords = Arrays.copyOf(texCoords, 2 * n);
+			if (tangents != null)
+				tangents = Arrays.copyOf(tangents, 4 * n);
+			if (mark != null)
+				mark = Arrays.copyOf(mark, n);
+		}
+		if (3 * faces > vertex.length) {
+			int n = 3 * Math.max(faces, vertex.length / 3 + vertex.length / 6);
+			vertex = Arrays.copyOf(vertex, n);
+			twin = Arrays.copyOf(twin, n);
+		}
+	}
+
+	/**
+	 * Returns the half-edge from one vertex to another, or -1 if there is
+	 * none.
+	 */
+	public int findHalfEdge(int from, int to) {
+		int start = outgoing[from], h = start;
+		if (start < 0)
+			return -1;
+		do {
+			if (target(h) == to)
+				return h;
+			h = nextOutgoing(h);
+		} while (h >= 0 && h != start);
+		return -1;
+	}
+
+	/**
+	 * Move a vertex.
+	 */
+	public void moveVertex(int v, float x, float y, float z) {
+		positions[3 * v] = x;
+		positions[3 * v + 1] = y;
+		positions[3 * v + 2] = z;
+		changedVertices.add(v, 1);
+	}
+
+	/**
+	 * Split the edge of a half-edge at its midpoint, and each triangle of
+	 * the edge into two. The new vertex gets the average of the attributes
+	 * of the vertices of the edge, and the new triangles are added after the
+	 * old ones.
+	 *
+	 * @return the new vertex
+	 */
+	public int splitEdge(int h) {
+		int t = twin[h];
+		reserve(nVertices + 1, nFaces + (t < 0 ? 1 : 2));
+		int hn = next(h), hp = prev(h);
+		int a = vertex[h], b = vertex[hn], c = vertex[hp];
+		int m = nVertices++;
+		interpolate(a, b, m);
+
+		// The triangle of h becomes (a, m, c), the new one is (m, b, c)
+		int f = 3 * nFaces++;
+		int twinHn = twin[hn];
+		vertex[hn] = m;
+		setTriangle(vertex, f, m, b, c);
+		link(hn, f + 2);
+		link(f + 1, twinHn);
+		if (outgoing[b] == hn)
+			outgoing[b] = f + 1;
+		outgoing[m] = f;
+		changedFaces.add(face(h), 1);
+		changedFaces.add(face(f), 1);
+
+		if (t < 0) {
+			twin[f] = -1;
+		} else {
+			// The triangle of t becomes (b, m, d), the new one is (m, a, d)
+			int tn = next(t), d = vertex[prev(t)];
+			int g = 3 * nFaces++;
+			int twinTn = twin[tn];
+			vertex[tn] = m;
+			setTriangle(vertex, g, m, a, d);
+			link(tn, g + 2);
+			link(g + 1, twinTn);
+			link(h, g);
+			link(f, t);
+			if (outgoing[a] == tn)
+				outgoing[a] = g + 1;
+			changedFaces.add(face(t), 1);
+			changedFaces.add(face(g), 1);
+		}
+		changedVertices.add(m, 1);
+		return m;
+	}
+
+	/**
+	 * Flip the edge of a half-edge, so that it connects the two vertices
+	 * opposite to it in its two triangles instead. Border edges, and edges
+	 * whose opposite vertices are already connected, are not flipped.
+	 *
+	 * @return whether the edge was flipped
+	 */
+	public boolean flipEdge(int h) {
+		int t = twin[h];
+		if (t < 0)
+			return false;
+		int hn = next(h), hp = prev(h), tn = next(t), tp = prev(t);
+		int a = vertex[h], b = vertex[t], c = vertex[hp], d = vertex[tp];
+		if (c == d || findHalfEdge(c, d) >= 0 || findHalfEdge(d, c) >= 0)
+			return false;
+
+		// The triangles become (c, a, d) and (d, b, c), the half-edges of
+		// the quad keep their twins
+		int f = 3 * face(h), g = 3 * face(t);
+		int twinHp = twin[hp], twinTn = twin[tn], twinTp = twin[tp], twinHn = twin[hn];
+		setTriangle(vertex, f, c, a, d);
+		setTriangle(vertex, g, d, b, c);
+		link(f, twinHp);
+		link(f + 1, twinTn);
+		link(g, twinTp);
+		link(g + 1, twinHn);
+		link(f + 2, g + 2);
+		setOutgoing(a, f + 1);
+		setOutgoing(b, g + 1);
+		setOutgoing(c, f);
+		setOutgoing(d, g);
+		changedFaces.add(face(f), 1);
+		changedFaces.add(face(g), 1);
+		return true;
+	}
+
+	/**
+	 * Collapse the edge of a half-edge into its origin, which moves to the
+	 * given position and gets the average of the other attributes of the
+	 * two vertices. The target and the triangles of the edge are removed,
+	 * and replaced by the last vertex and triangles. Edges whose collapse
+	 * would make the mesh non-manifold are not collapsed: the two vertices
+	 * must have no common neighbors other than the vertices opposite to the
+	 * edge, and an inner edge must not connect two border vertices.
+	 *
+	 * @return the number of the remaining vertex, which changes if it was
+	 *         the last one, or -1 if the edge was not collapsed
+	 */
+	public int collapseEdge(int h, float x, float y, float z) {
+		if (!canCollapse(h))
+			return -1;
+		int t = twin[h], hn = next(h), hp = prev(h);
+		int a = vertex[h], b = vertex[hn], c = vertex[hp];
+		int f = face(h), g = t < 0 ? -1 : face(t);
+		int d = t < 0 ? -1 : vertex[prev(t)];
+
+		// Half-edges of a, c and d that are not removed
+		int outA = outgoingOutside(a, f, g);
+		if (outA < 0)
+			outA = outgoingOutside(b, f, g);
+		int outC = outgoingOutside(c, f, g);
+		int outD = d < 0 ? -1 : outgoingOutside(d, f, g);
+
+		// The half-edges of b start at a, then the neighbors across the
+		// removed triangles become twins
+		int start = outgoing[b], e = start;
+		do {
+			vertex[e] = a;
+			changedFaces.add(face(e), 1);
+			e = nextOutgoing(e);
+		} while (e >= 0 && e != start);
+		link(twin[hn], twin[hp]);
+		if (t >= 0)
+			link(twin[next(t)], twin[prev(t)]);
+
+		interpolate(a, b, a);
+		positions[3 * a] = x;
+		positions[3 * a + 1] = y;
+		positions[3 * a + 2] = z;
+		changedVertices.add(a, 1);
+		setOutgoing(a, outA);
+		setOutgoing(c, outC);
+		if (d >= 0)
+			setOutgoing(d, outD);
+		outgoing[b] = -1;
+
+		if (g > f) {
+			removeFace(g);
+			removeFace(f);
+		} else {
+			removeFace(f);
+			if (g >= 0)
+				removeFace(g);
+		}
+		int last = nVertices - 1;
+		removeVertex(b);
+		return a == last ? b : a;
+	}
+
+	/**
+	 * Returns whether collapsing the edge of a half-edge keeps the mesh
+	 * manifold, see {@link #collapseEdge(int, float, float, float)}.
+	 */
+	public boolean canCollapse(int h) {
+		int t = twin[h];
+		int a = vertex[h], b = target(h), c = vertex[prev(h)];
+		int d = t < 0 ? -1 : vertex[prev(t)];
+		if (nFaces <= 4 || t >= 0 && isBorderVertex(a) && isBorderVertex(b))
+			return false;
+
+		if (mark == null)
+			mark = new int[outgoing.length];
+		if (++stamp == 0) {
+			Arrays.fill(mark, 0);
+			stamp = 1;
+		}
+		int start = outgoing[a], e = start, last = start;
+		do {
+			mark[target(e)] = stamp;
+			last = e;
+			e = nextOutgoing(e);
+		} while (e >= 0 && e != start);
+		if (e < 0)
+			mark[vertex[prev(last)]] = stamp;
+
+		// Every common neighbor must be opposite to the edge
+		start = outgoing[b];
+		e = start;
+		do {
+			int n = target(e);
+			if (mark[n] == stamp && n != c && n != d)
+				return false;
+			last = e;
+			e = nextOutgoing(e);
+		} while (e >= 0 && e != start);
+		if (e < 0) {
+			int n = vertex[prev(last)];
+			if (mark[n] == stamp && n != c && n != d)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the vertices that changed since {@link #clearChanges()}. The
+	 * ranges may reach beyond the current number of vertices, if vertices
+	 * were removed.
+	 */
+	public DirtyRanges getChangedVertices() {
+		return changedVertices;
+	}
+
+	/**
+	 * Returns the triangles that changed since {@link #clearChanges()}. The
+	 * ranges may reach beyond the current number of triangles, if triangles
+	 * were removed.
+	 */
+	public DirtyRanges getChangedFaces() {
+		return changedFaces;
+	}
+
+	public void clearChanges() {
+		changedVertices.clear();
+		changedFaces.clear();
+	}
+
+	/**
+	 * Make two half-edges twins, either of which may be -1.
+	 */
+	private void link(int h, int t) {
+		if (h >= 0)
+			twin[h] = t;
+		if (t >= 0)
+			twin[t] = h;
+	}
+
+	/**
+	 * Set the outgoing half-edge of a vertex, turning back from the given
+	 * one to the border, if the vertex is on one.
+	 */
+	private void setOutgoing(int v, int h) {
+		if (h >= 0) {
+			int start = h;
+			while (twin[h] >= 0 && next(twin[h]) != start)
+				h = next(twin[h]);
+		}
+		outgoing[v] = h;
+	}
+
+	/**
+	 * Returns an outgoing half-edge of a vertex that is not in the two given
+	 * triangles, or -1 if there is none.
+	 */
+	private int outgoingOutside(int v, int f, int g) {
+		int start = outgoing[v], h = start;
+		do {
+			if (face(h) != f && face(h) != g)
+				return h;
+			h = nextOutgoing(h);
+		} while (h >= 0 && h != start);
+		return -1;
+	}
+
+	/**
+	 * Set the attributes of vertex m to the average of those of a and b,
+	 * the normals and tangents normalized. The tangent keeps the handedness
+	 * of a.
+	 */
+	private void interpolate(int a, int b, int m) {
+		for (int c = 0; c < 3; c++)
+			positions[3 * m + c] = 0.5f * (positions[3 * a + c] + positions[3 * b + c]);
+		if (normals != null) {
+			for (int c = 0; c < 3; c++)
+				normals[3 * m + c] = normals[3 * a + c] + normals[3 * b + c];
+			normalize(normals, 3 * m);
+		}
+		if (colors != null)
+			for (int c = 0; c < 3; c++)
+				colors[3 * m + c] = 0.5f * (colors[3 * a + c] + colors[3 * b + c]);
+		if (texCoords != null)
+			for (int c = 0; c < 2; c++)
+				texCoords[2 * m + c] = 0.5f * (texCoords[2 * a + c] + texCoords[2 * b + c]);
+		if (tangents != null) {
+			for (int c = 0; c < 3; c++)
+				tangents[4 * m + c] = tangents[4 * a + c] + tangents[4 * b + c];
+			tangents[4 * m + 3] = tangents[4 * a + 3];
+			normalize(tangents, 4 * m);
+		}
+	}
+
+	/**
+	 * Remove a triangle that no half-edge refers to anymore, and move the
+	 * last triangle into its place.
+	 */
+	private void removeFace(int f) {
+		int last = --nFaces;
+		changedFaces.add(last, 1);
+		if (f == last)
+			return;
+		for (int k = 0; k < 3; k++) {
+			int from = 3 * last + k, to = 3 * f + k;
+			vertex[to] = vertex[from];
+			link(to, twin[from]);
+			if (outgoing[vertex[from]] == from)
+				outgoing[vertex[from]] = to;
+		}
+		changedFaces.add(f, 1);
+	}
+
+	/**
+	 * Remove a vertex that no triangle uses anymore, and move the last
+	 * vertex into its place.
+	 */
+	private void removeVertex(int v) {
+		int last = --nVertices;
+		changedVertices.add(last, 1);
+		if (v == last)
+			return;
+		int start = outgoing[last], h = start;
+		if (start >= 0) {
+			do {
+				vertex[h] = v;
+				changedFaces.add(face(h), 1);
+				h = nextOutgoing(h);
+			} while (h >= 0 && h != start);
+		}
+		outgoing[v] = start;
+		System.arraycopy(positions, 3 * last, positions, 3 * v, 3);
+		if (normals != null)
+			System.arraycopy(normals, 3 * last, normals, 3 * v, 3);
+		if (colors != null)
+			System.arraycopy(colors, 3 * last, colors, 3 * v, 3);
+		if (texCoords != null)
+			System.arraycopy(texCoords, 2 * last, texCoords, 2 * v, 2);
+		if (tangents != null)
+			System.arraycopy(tangents, 4 * last, tangents, 4 * v, 4);
+		changedVertices.add(v, 1);
+	}
+
+	/**
+	 * Reorder the triangles and vertices for the vertex cache of the GPU
+	 * with {@link MeshOptimizer}. The twins are found again.
+	 */
+	public void optimize() {
+		int[] indices = Arrays.copyOf(vertex, 3 * nFaces);
+		int[] reordered = MeshOptimizer.reorderTriangles(indices, nVertices);
+		int[] remap = MeshOptimizer.remapVertices(reordered, nVertices);
+		System.arraycopy(reordered, 0, vertex, 0, reordered.length);
+		positions = permute(positions, 3, remap);
+		normals = permute(normals, 3, remap);
+		colors = permute(colors, 3, remap);
+		texCoords = permute(texCoords, 2, remap);
+		tangents = permute(tangents, 4, remap);
+		linkTwins();
+		linkOutgoing();
+		clearChanges();
+	}
+
+	private float[] permute(float[] f, int dim, int[] remap) {
+		if (f == null)
+			return null;
+		float[] p = new float[f.length];
+		for (int v = 0; v < nVertices; v++)
+			System.arraycopy(f, dim * v, p, dim * remap[v], dim);
+		return p;
+	}
+
+	/**
+	 * Returns the mesh subdivided once with the Loop scheme. Each triangle is
+	 * split into four at new vertices on its edges, and the old vertices are
+	 * moved, using the masks of Charles Loop, "Smooth Subdivision Surfaces
+	 * Based on Triangles" (1987), and on borders the masks of the cubic
+	 * B-spline. The old vertices keep their numbers and the vertex of each
+	 * edge follows them. Colors and normals are subdivided like the
+	 * positions, the normals are normalized again. Texture coordinates are
+	 * interpolated linearly, so that they do not smear across seams.
+	 * Tangents are not subdivided, the new mesh has none.
+	 * <p>
+	 * The connectivity of the new mesh is computed directly from the old
+	 * one: the four triangles of triangle f are 4f to 4f+3, and the twins of
+	 * their half-edges follow from the twins of the half-edges of f. All
+	 * steps run in parallel.
+	 */
+	public HalfEdgeMesh subdivide() {
+		int nHalfEdges = 3 * nFaces;
+
+		// Number the edges, each edge is counted at its half-edge with the
+		// smaller number, or at its border half-edge
+		int nBlocks = (nHalfEdges + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		int[] blockStart = new int[nBlocks + 1];
+		IntStream.range(0, nBlocks).parallel().forEach(b -> {
+			int n = 0;
+			for (int h = b * BLOCK_SIZE; h < Math.min((b + 1) * BLOCK_SIZE, nHalfEdges); h++)
+				if (twin[h] < 0 || h < twin[h])
+					n++;
+			blockStart[b + 1] = n;
+		});
+		for (int b = 0; b < nBlocks; b++)
+			blockStart[b + 1] += blockStart[b];
+		int nEdges = blockStart[nBlocks];
+		int[] edge = new int[nHalfEdges];
+		int[] edgeHalfEdge = new int[nEdges];
+		IntStream.range(0, nBlocks).parallel().forEach(b -> {
+			int e = blockStart[b];
+			for (int h = b * BLOCK_SIZE; h < Math.min((b + 1) * BLOCK_SIZE, nHalfEdges); h++) {
+				if (twin[h] < 0 || h < twin[h]) {
+					edgeHalfEdge[e] = h;
+					edge[h] = e++;
+				}
+			}
+		});
+		IntStream.range(0, nHalfEdges).parallel().forEach(h -> {
+			if (twin[h] >= 0 && h > twin[h])
+				edge[h] = edge[twin[h]];
+		});
+
+		// The vertex attributes, first of the old vertices, then of the
+		// vertices on the edges
+		int nNewVertices = nVertices + nEdges;
+		float[] newPositions = new float[3 * nNewVertices];
+		float[] newNormals = normals == null ? null : new float[3 * nNewVertices];
+		float[] newColors = colors == null ? null : new float[3 * nNewVertices];
+		float[] newTexCoords = texCoords == null ? null : new float[2 * nNewVertices];
+		IntStream.range(0, nVertices).parallel().forEach(v -> {
+			smoothVertex(v, positions, newPositions);
+			if (normals != null)
+				smoothVertex(v, normals, newNormals);
+			if (colors != null)
+				smoothVertex(v, colors, newColors);
+			if (texCoords != null)
+				System.arraycopy(texCoords, 2 * v, newTexCoords, 2 * v, 2);
+		});
+		IntStream.range(0, nEdges).parallel().forEach(e -> {
+			int h = edgeHalfEdge[e], v = nVertices + e;
+			splitEdge(h, v, positions, newPositions);
+			if (normals != null)
+				splitEdge(h, v, normals, newNormals);
+			if (colors != null)
+				splitEdge(h, v, colors, newColors);
+			if (texCoords != null) {
+				int a = 2 * origin(h), b = 2 * target(h);
+				for (int c = 0; c < 2; c++)
+					newTexCoords[2 * v + c] = 0.5f * (texCoords[a + c] + texCoords[b + c]);
+			}
+		});
+		if (newNormals != null)
+			IntStream.range(0, nNewVertices).parallel().forEach(v -> normalize(newNormals, 3 * v));
+
+		// The four triangles of each triangle: one at each corner, and one
+		// in the middle with the vertices of the edges
+		int[] newVertex = new int[4 * nHalfEdges];
+		int[] newTwin = new int[4 * nHalfEdges];
+		IntStream.range(0, nFaces).parallel().forEach(f -> {
+			int h = 3 * f, n = 12 * f;
+			int a = vertex[h], b = vertex[h + 1], c = vertex[h + 2];
+			int ab = nVertices + edge[h], bc = nVertices + edge[h + 1], ca = nVertices + edge[h + 2];
+			setTriangle(newVertex, n, a, ab, ca);
+			setTriangle(newVertex, n + 3, ab, b, bc);
+			setTriangle(newVertex, n + 6, ca, bc, c);
+			setTriangle(newVertex, n + 9, ab, bc, ca);
+			newTwin[n + 1] = n + 11;
+			newTwin[n + 11] = n + 1;
+			newTwin[n + 5] = n + 9;
+			newTwin[n + 9] = n + 5;
+			newTwin[n + 6] = n + 10;
+			newTwin[n + 10] = n + 6;
+			for (int k = 0; k < 3; k++) {
+				int t = twin[h + k];
+				if (t < 0) {
+					newTwin[firstHalf(h + k)] = -1;
+					newTwin[secondHalf(h + k)] = -1;
+				} else {
+					newTwin[firstHalf(h + k)] = secondHalf(t);
+					newTwin[secondHalf(h + k)] = firstHalf(t);
+				}
+			}
+		});
+
+		// The old vertices start at the first half of their old outgoing
+		// half-edge, the new ones at the second half of their edge, which
+		// keeps the border half-edges
+		int[] newOutgoing = new int[nNewVertices];
+		IntStream.range(0, nVertices).parallel()
+				.forEach(v -> newOutgoing[v] = outgoing[v] < 0 ? -1 : firstHalf(outgoing[v]));
+		IntStream.range(0, nEdges).parallel()
+				.forEach(e -> newOutgoing[nVertices + e] = secondHalf(edgeHalfEdge[e]));
+
+		return new HalfEdgeMesh(nNewVertices, 4 * nFaces, newVertex, newTwin, newOutgoing, newPositions, newNormals,
+				newColors, newTexCoords);
+	}
+
+	/**
+	 * Returns the half-edge from the origin of a half-edge to its middle in
+	 * the subdivided mesh.
+	 */
+	private static int firstHalf(int h) {
+		return 12 * (h / 3) + FIRST_HALF[h % 3];
+	}
+
+	/**
+	 * Returns the half-edge from the middle of a half-edge to its target in
+	 * the subdivided mesh.
+	 */
+	private static int secondHalf(int h) {
+		return 12 * (h / 3) + SECOND_HALF[h % 3];
+	}
+
+	private static void setTriangle(int[] vertex, int h, int a, int b, int c) {
+		vertex[h] = a;
+		vertex[h + 1] = b;
+		vertex[h + 2] = c;
+	}
+
+	/**
+	 * Move an old vertex with the Loop mask: the vertex weighted by 1 - n
+	 * beta and its n neighbors by beta, or on a border the vertex by 3/4 and
+	 * its two neighbors on the border by 1/8.
+	 */
+	private void smoothVertex(int v, float[] from, float[] to) {
+		int start = outgoing[v], h = start, n = 0, last = start;
+		float x = 0, y = 0, z = 0;
+		if (start >= 0) {
+			do {
+				int w = 3 * target(h);
+				x += from[w];
+				y += from[w + 1];
+				z += from[w + 2];
+				n++;
+				last = h;
+				h = nextOutgoing(h);
+			} while (h >= 0 && h != start);
+		}
+
+		int i = 3 * v;
+		if (start < 0) {
+			to[i] = from[i];
+			to[i + 1] = from[i + 1];
+			to[i + 2] = from[i + 2];
+		} else if (h < 0) {
+			int a = 3 * target(start), b = 3 * origin(prev(last));
+			to[i] = 0.75f * from[i] + 0.125f * (from[a] + from[b]);
+			to[i + 1] = 0.75f * from[i + 1] + 0.125f * (from[a + 1] + from[b + 1]);
+			to[i + 2] = 0.75f * from[i + 2] + 0.125f * (from[a + 2] + from[b + 2]);
+		} else {
+			double c = 0.375 + 0.25 * Math.cos(2 * Math.PI / n);
+			float beta = (float) ((0.625 - c * c) / n);
+			float self = 1 - n * beta;
+			to[i] = self * from[i] + beta * x;
+			to[i + 1] = self * from[i + 1] + beta * y;
+			to[i + 2] = self * from[i + 2] + beta * z;
+		}
+	}
+
+	/**
+	 * Compute the vertex on the edge of a half-edge with the Loop mask: 3/8
+	 * of each vertex of the edge and 1/8 of each opposite vertex, or on a
+	 * border the midpoint.
+	 */
+	private void splitEdge(int h, int v, float[] from, float[] to) {
+		int a = 3 * origin(h), b = 3 * target(h), i = 3 * v;
+		int t = twin[h];
+		if (t < 0) {
+			for (int c = 0; c < 3; c++)
+				to[i + c] = 0.5f * (from[a + c] + from[b + c]);
+		} else {
+			int l = 3 * origin(prev(h)), r = 3 * origin(prev(t));
+			for (int c = 0; c < 3; c++)
+				to[i + c] = 0.375f * (from[a + c] + from[b + c]) + 0.125f * (from[l + c] + from[r + c]);
+		}
+	}
+
+	private static void normalize(float[] f, int i) {
+		float l = (float) Math.sqrt(f[i] * f[i] + f[i + 1] * f[i + 1] + f[i + 2] * f[i + 2]);
+		if (l > 0) {
+			f[i] /= l;
+			f[i + 1] /= l;
+			f[i + 2] /= l;
+		}
+	}
+
+	/**
+	 * Makes a vertex data with the triangles and vertex attributes of the
+	 * mesh. The arrays are copied, so the mesh can change afterwards.
+	 */
+	public VertexData toVertexData(RenderContext renderContext) {
+		return toVertexData(renderContext, nVertices, nFaces);
+	}
+
+	/**
+	 * Makes a vertex data with room for more vertices and triangles than the
+	 * mesh has, so that edits can be copied into it. The extra vertices are
+	 * zero and the extra triangles degenerate, with all indices zero.
+	 */
+	public VertexData toVertexData(RenderContext renderContext, int vertexCapacity, int faceCapacity) {
+		VertexData data = renderContext.makeVertexData(vertexCapacity);
+		if (colors != null)
+			data.addElement(copy(colors, 3, vertexCapacity), VertexData.Semantic.COLOR, 3);
+		if (normals != null)
+			data.addElement(copy(normals, 3, vertexCapacity), VertexData.Semantic.NORMAL, 3);
+		if (texCoords != null)
+			data.addElement(copy(texCoords, 2, vertexCapacity), VertexData.Semantic.TEXCOORD, 2);
+		if (tangents != null)
+			data.addElement(copy(tangents, 4, vertexCapacity), VertexData.Semantic.TANGENT, 4);
+		data.addElement(copy(positions, 3, vertexCapacity), VertexData.Semantic.POSITION, 3);
+		int[] indices = new int[3 * faceCapacity];
+		System.arraycopy(vertex, 0, indices, 0, 3 * nFaces);
+		data.addIndices(indices);
+		return data;
+	}
+
+	/**
+	 * Copy the attributes of the vertices into an array for the given
+	 * number of vertices.
+	 */
+	private float[] copy(float[] f, int dim, int capacity) {
+		float[] c = new float[dim * capacity];
+		System.arraycopy(f, 0, c, 0, dim * nVertices);
+		return c;
+	}
+}
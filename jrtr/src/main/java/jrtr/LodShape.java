@@ -0,0 +1,197 @@
+package jrtr;
+import java.nio.FloatBuffer;
+import javax.vecmath.*;
+
+/**
+ * A shape with several levels of detail, each a {@link VertexData} with
+ * fewer triangles than the one before, usually made by
+ * {@link MeshSimplifier#makeLodShape}. Each level has a geometric error in
+ * object coordinates, how far its surface may be from the full mesh.
+ * <p>
+ * Before the shape is drawn, the scene manager calls
+ * {@link #selectLevel(Camera, Frustum, Matrix4f)}, which projects the
+ * bounding sphere of the shape onto the screen and selects the coarsest
+ * level whose error covers at most a given fraction of the height of the
+ * screen. {@link #getVertexData()} then returns the selected level, so the
+ * renderer draws it like any other shape. A shape that is drawn several
+ * times in a frame selects its level again each time.
+ */
+public class LodShape extends Shape {
+
+	private VertexData[] levels;
+	private float[] errors;
+	private Point3f center;
+	private float radius;
+	private float tolerance;
+	private int level;
+
+	// Avoids allocating in selectLevel
+	private Matrix4f modelview = new Matrix4f();
+	private Point3f c = new Point3f();
+
+	/**
+	 * Make a shape from levels of detail.
+	 *
+	 * @param levels the vertex data of the levels, the full mesh first
+	 * @param errors the geometric error of each level in object coordinates,
+	 * 		0 for the first one
+	 */
+	public LodShape(VertexData[] levels, float[] errors)
+	{
+		super(levels[0]);
+		this.levels = levels;
+		this.errors = errors;
+		tolerance = 0.001f;
+
+		// Bounding sphere around the center of the bounding box of the
+		// full mesh
+		float[] min = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+		float[] max = { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+		float[] p = positions(levels[0]);
+		for(int i = 0; i < p.length; i++)
+		{
+			min[i % 3] = Math.min(min[i % 3], p[i]);
+			max[i % 3] = Math.max(max[i % 3], p[i]);
+		}
+		center = new Point3f(0.5f*(min[0] + max[0]), 0.5f*(min[1] + max[1]), 0.5f*(min[2] + max[2]));
+		float r2 = 0;
+		for(int i = 0; i < p.length; i += 3)
+		{
+			float dx = p[i] - center.x, dy = p[i+1] - center.y, dz = p[i+2] - center.z;
+			r2 = Math.max(r2, dx*dx + dy*dy + dz*dz);
+		}
+		radius = (float)Math.sqrt(r2);
+	}
+
+	/**
+	 * Returns the vertex data of the selected level.
+	 */
+	public VertexData getVertexData()
+	{
+		return levels[level];
+	}
+
+	public int getNumberOfLevels()
+	{
+		return levels.length;
+	}
+
+	public VertexData getLevel(int i)
+	{
+		return levels[i];
+	}
+
+	public float getError(int i)
+	{
+		return errors[i];
+	}
+
+	/**
+	 * Returns the selected level.
+	 */
+	public int getSelectedLevel()
+	{
+		return level;
+	}
+
+	public void setSelectedLevel(int level)
+	{
+		this.level = level;
+	}
+
+	/**
+	 * Set how large the error of the selected level may appear on the
+	 * screen, as a fraction of the height of the screen. The default of
+	 * 0.001 is about a pixel for a screen of 1000 pixels.
+	 */
+	public void setTolerance(float tolerance)
+	{
+		this.tolerance = tolerance;
+	}
+
+	public float getTolerance()
+	{
+		return tolerance;
+	}
+
+	/**
+	 * Returns the center of the bounding sphere in object coordinates.
+	 */
+	public Point3f getCenter()
+	{
+		return center;
+	}
+
+	public float getRadius()
+	{
+		return radius;
+	}
+
+	/**
+	 * Returns the diameter of the bounding sphere on the screen, as a
+	 * fraction of the height of the screen, or infinity if the camera is
+	 * inside the sphere.
+	 *
+	 * @param t the transformation of the shape to world coordinates
+	 */
+	public float getScreenSize(Camera camera, Frustum frustum, Matrix4f t)
+	{
+		modelview.mul(camera.getCameraMatrix(), t);
+		modelview.transform(center, c);
+
+		// Largest scale of the transformation
+		float scale = 0;
+		for(int j = 0; j < 3; j++)
+		{
+			float x = modelview.getElement(0, j), y = modelview.getElement(1, j), z = modelview.getElement(2, j);
+			scale = Math.max(scale, x*x + y*y + z*z);
+		}
+		float r = radius * (float)Math.sqrt(scale);
+
+		// The w the projection divides by, the distance for a perspective
+		// projection and 1 for an orthographic one
+		Matrix4f p = frustum.getProjectionMatrix();
+		float w = p.m32 * c.z + p.m33;
+		if(w <= r * Math.abs(p.m32))
+			return Float.POSITIVE_INFINITY;
+		return r * p.m11 / w;
+	}
+
+	/**
+	 * Select the coarsest level whose error, projected onto the screen,
+	 * is at most the tolerance.
+	 *
+	 * @param t the transformation of the shape to world coordinates
+	 * @return the selected level
+	 */
+	public int selectLevel(Camera camera, Frustum frustum, Matrix4f t)
+	{
+		// The error is to the diameter what its projection is to the screen
+		// size
+		float screenSize = getScreenSize(camera, frustum, t);
+		level = 0;
+		if(radius > 0)
+		{
+			while(level + 1 < levels.length && errors[level+1] / (2*radius) * screenSize <= tolerance)
+				level++;
+		}
+		return level;
+	}
+
+	private static float[] positions(VertexData vertexData)
+	{
+		for(VertexData.VertexElement e : vertexData.getElements())
+		{
+			if(e.getSemantic() == VertexData.Semantic.POSITION)
+			{
+				if(e.getData() != null)
+					return e.getData();
+				FloatBuffer b = e.getBuffer();
+				float[] f = new float[b.remaining()];
+				b.get(f);
+				return f;
+			}
+		}
+		return new float[0];
+	}
+}
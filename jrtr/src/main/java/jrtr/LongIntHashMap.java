@@ -0,0 +1,79 @@
+package jrtr;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from long keys to non-negative int values, for example from
+ * the two vertices of an edge to the number of the edge. Uses open
+ * addressing with linear probing on primitive arrays, so adding an entry
+ * does not allocate. The capacity is fixed.
+ */
+class LongIntHashMap {
+
+	private final long[] keys;
+	private final int[] values;
+	private final int mask;
+	private int size;
+
+	/**
+	 * @param capacity
+	 * 			the maximum number of entries
+	 */
+	LongIntHashMap(int capacity) {
+		int n = Integer.highestOneBit(Math.max(2 * capacity, 16) - 1) << 1;
+		keys = new long[n];
+		values = new int[n];
+		Arrays.fill(values, -1);
+		mask = n - 1;
+	}
+
+	/**
+	 * Returns the value of a key, or -1 if there is none.
+	 */
+	int get(long key) {
+		int slot = slot(key);
+		while (values[slot] != -1) {
+			if (keys[slot] == key)
+				return values[slot];
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the value of a key. If there is none, stores and returns the
+	 * given value.
+	 */
+	int putIfAbsent(long key, int value) {
+		int slot = slot(key);
+		while (values[slot] != -1) {
+			if (keys[slot] == key)
+				return values[slot];
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		size++;
+		return value;
+	}
+
+	/**
+	 * Returns the number of entries.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the key of an undirected edge between two vertices, the same
+	 * for both orientations.
+	 */
+	static long edgeKey(int v1, int v2) {
+		return v1 < v2 ? (long) v1 << 32 | v2 : (long) v2 << 32 | v1;
+	}
+
+	private int slot(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ h >>> 32) & mask;
+	}
+}
@@ -0,0 +1,293 @@
+package jrtr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Caches meshes loaded from .obj files in a compact binary format, so that
+ * the text of an .obj file only needs to be parsed once. The cache files are
+ * named after a hash of the contents of the .obj file (and the scale it was
+ * loaded with), hence they stay valid when .obj files are moved and are
+ * ignored when they are edited.
+ * <p>
+ * A mesh file consists of a header followed by one stream per vertex element
+ * and an index stream, all in little endian byte order:
+ * <pre>
+ * "JRTRMESH"                     magic (8 bytes)
+ * int version, int nVertices, int nElements, int nIndices
+ * nElements x (int semantic, int nComponents)
+ * nElements x float[nVertices * nComponents]
+ * int[nIndices]
+ * </pre>
+ * The semantic is the ordinal of {@link VertexData.Semantic}.
+ */
+public class MeshCache {
+
+	private static final byte[] MAGIC = { 'J', 'R', 'T', 'R', 'M', 'E', 'S', 'H' };
+	private static final int VERSION = 1;
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private Path directory;
+
+	/**
+	 * Make a cache that stores its files in the given directory. The
+	 * directory is created when the first file is written.
+	 */
+	public MeshCache(String directory) {
+		this.directory = Paths.get(directory);
+	}
+
+	/**
+	 * Read an .obj file like {@link ObjReader#readIndexed(String, float, RenderContext)}.
+	 * If the cache contains the mesh, it is loaded from the cache without
+	 * parsing the .obj file. Otherwise the .obj file is parsed, the mesh is
+	 * reordered for the vertex cache by {@link MeshOptimizer}, and written to
+	 * the cache, so the cost of the reordering is paid only once. A cache
+	 * file that cannot be loaded, for example because it is truncated or was
+	 * written by an older version, is replaced the same way.
+	 *
+	 * @param fileName
+	 *            the .obj file to read
+	 * @param scale
+	 *            scales the object to fit into a cube of the given size
+	 * @return vertex data containing the loaded mesh
+	 * @throws IOException
+	 */
+	public VertexData read(String fileName, float scale, RenderContext renderContext) throws IOException {
+		return read(fileName, scale, renderContext, false);
+	}
+
+	/**
+	 * Read an .obj file like {@link #read(String, float, RenderContext)}, and
+	 * optionally generate tangents, see
+	 * {@link ObjReader#readIndexed(String, float, RenderContext, boolean)}.
+	 * The tangents are stored in the cache with the mesh, in a file of its
+	 * own.
+	 *
+	 * @param tangents
+	 *            whether to generate tangents
+	 */
+	public VertexData read(String fileName, float scale, RenderContext renderContext, boolean tangents)
+			throws IOException {
+		Path cacheFile = directory.resolve(String.format("%016x-%08x%s.mesh",
+				hash(Paths.get(fileName)), Float.floatToIntBits(scale), tangents ? "-t" : ""));
+		if (Files.isRegularFile(cacheFile)) {
+			try {
+				return load(cacheFile.toString(), renderContext);
+			} catch (IOException e) {
+				// Fall through and replace the invalid file
+			}
+		}
+
+		VertexData vertexData = ObjReader.readIndexed(fileName, scale, renderContext, tangents);
+		MeshOptimizer.optimize(vertexData);
+		Files.createDirectories(directory);
+		write(vertexData, cacheFile.toString());
+		return vertexData;
+	}
+
+	/**
+	 * Write vertex data to a mesh file. The file is written under a
+	 * temporary name and then renamed, so readers never see a partial file.
+	 * The streams are written through a small buffer rather than a mapping,
+	 * since a mapped file cannot be renamed or replaced on some platforms
+	 * until the mapping is garbage collected.
+	 */
+	public static void write(VertexData vertexData, String fileName) throws IOException {
+		int n = vertexData.getNumberOfVertices();
+		int nIndices = vertexData.getNumberOfIndices();
+		int nElements = vertexData.getElements().size();
+
+		ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 16 + 8 * nElements).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(MAGIC);
+		header.putInt(VERSION).putInt(n).putInt(nElements).putInt(nIndices);
+		for (VertexData.VertexElement e : vertexData.getElements())
+			header.putInt(e.getSemantic().ordinal()).putInt(e.getNumberOfComponents());
+		header.flip();
+
+		Path path = Paths.get(fileName);
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			writeFully(channel, header);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			for (VertexData.VertexElement e : vertexData.getElements()) {
+				FloatBuffer data = e.getBuffer();
+				while (data.hasRemaining()) {
+					buffer.clear();
+					FloatBuffer floats = buffer.asFloatBuffer();
+					int k = Math.min(floats.remaining(), data.remaining());
+					FloatBuffer chunk = data.duplicate();
+					chunk.limit(chunk.position() + k);
+					floats.put(chunk);
+					data.position(data.position() + k);
+					buffer.limit(4 * k);
+					writeFully(channel, buffer);
+				}
+			}
+			if (nIndices > 0) {
+				IntBuffer indices = vertexData.getIndexBuffer();
+				while (indices.hasRemaining()) {
+					buffer.clear();
+					IntBuffer ints = buffer.asIntBuffer();
+					int k = Math.min(ints.remaining(), indices.remaining());
+					IntBuffer chunk = indices.duplicate();
+					chunk.limit(chunk.position() + k);
+					ints.put(chunk);
+					indices.position(indices.position() + k);
+					buffer.limit(4 * k);
+					writeFully(channel, buffer);
+				}
+			}
+			channel.force(false);
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Load vertex data from a mesh file written by {@link #write}. The
+	 * streams are read through a small buffer and copied into the vertex
+	 * data arrays in bulk.
+	 */
+	public static VertexData load(String fileName, RenderContext renderContext) throws IOException {
+		return load(fileName, renderContext, false);
+	}
+
+	/**
+	 * Load vertex data from a mesh file like {@link #load(String, RenderContext)},
+	 * optionally into direct buffers. Direct buffers are passed to OpenGL
+	 * without further copies. They need to be released with
+	 * {@link VertexData#free()}.
+	 *
+	 * @param direct
+	 *            whether to store the vertex data in direct buffers
+	 */
+	public static VertexData load(String fileName, RenderContext renderContext, boolean direct)
+			throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 16).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, header);
+			header.flip();
+
+			byte[] magic = new byte[MAGIC.length];
+			header.get(magic);
+			for (int k = 0; k < MAGIC.length; k++)
+				if (magic[k] != MAGIC[k])
+					throw new IOException("Not a mesh file");
+			if (header.getInt() != VERSION)
+				throw new IOException("Unsupported version");
+			int n = header.getInt();
+			int nElements = header.getInt();
+			int nIndices = header.getInt();
+			if (n < 0 || nElements < 0 || nIndices < 0 || 8L * nElements > channel.size())
+				throw new IOException("Invalid header");
+
+			ByteBuffer table = ByteBuffer.allocate(8 * nElements).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, table);
+			table.flip();
+			VertexData.Semantic[] semantics = new VertexData.Semantic[nElements];
+			int[] nComponents = new int[nElements];
+			long size = MAGIC.length + 16 + 8L * nElements + 4L * nIndices;
+			for (int k = 0; k < nElements; k++) {
+				int semantic = table.getInt();
+				if (semantic < 0 || semantic >= VertexData.Semantic.values().length)
+					throw new IOException("Unknown semantic " + semantic);
+				semantics[k] = VertexData.Semantic.values()[semantic];
+				nComponents[k] = table.getInt();
+				if (nComponents[k] < 1 || nComponents[k] > 4)
+					throw new IOException("Invalid number of components " + nComponents[k]);
+				if (4L * n * nComponents[k] > Integer.MAX_VALUE)
+					throw new IOException("Vertex stream too large");
+				size += 4L * n * nComponents[k];
+			}
+			if (size != channel.size())
+				throw new IOException("File size does not match its header");
+
+			// Read the streams in the order of the file
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			FloatBuffer[] streams = new FloatBuffer[nElements];
+			for (int k = 0; k < nElements; k++) {
+				streams[k] = direct ? VertexData.allocateFloats(n * nComponents[k])
+						: FloatBuffer.allocate(n * nComponents[k]);
+				while (streams[k].hasRemaining()) {
+					buffer.clear();
+					buffer.limit(Math.min(buffer.capacity(), 4 * streams[k].remaining()));
+					readFully(channel, buffer);
+					buffer.flip();
+					streams[k].put(buffer.asFloatBuffer());
+				}
+				streams[k].flip();
+			}
+			IntBuffer indices = direct ? VertexData.allocateInts(nIndices) : IntBuffer.allocate(nIndices);
+			while (indices.hasRemaining()) {
+				buffer.clear();
+				buffer.limit(Math.min(buffer.capacity(), 4 * indices.remaining()));
+				readFully(channel, buffer);
+				buffer.flip();
+				indices.put(buffer.asIntBuffer());
+			}
+			indices.flip();
+
+			// Add the elements in reverse, since addElement puts all but the
+			// positions at the front of the list
+			VertexData vertexData = renderContext.makeVertexData(n);
+			for (int k = nElements - 1; k >= 0; k--) {
+				if (direct)
+					vertexData.addElement(streams[k], semantics[k], nComponents[k]);
+				else
+					vertexData.addElement(streams[k].array(), semantics[k], nComponents[k]);
+			}
+			if (direct)
+				vertexData.addIndices(indices);
+			else
+				vertexData.addIndices(indices.array());
+			return vertexData;
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			if (channel.read(buffer) < 0)
+				throw new IOException("File is too short");
+	}
+
+	/**
+	 * Compute a 64 bit hash of the contents of a file.
+	 */
+	private static long hash(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			long h = 0x9E3779B97F4A7C15L ^ size;
+			for (long position = 0; position < size; position += Integer.MAX_VALUE) {
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position,
+						Math.min(Integer.MAX_VALUE, size - position));
+				buffer.order(ByteOrder.LITTLE_ENDIAN);
+				while (buffer.remaining() >= 8)
+					h = mix(h ^ buffer.getLong());
+				while (buffer.hasRemaining())
+					h = mix(h ^ buffer.get());
+			}
+			return mix(h);
+		}
+	}
+
+	private static long mix(long h) {
+		h *= 0xBF58476D1CE4E5B9L;
+		return h ^ (h >>> 31);
+	}
+}
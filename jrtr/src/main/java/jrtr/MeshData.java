@@ -1,10 +1,13 @@
 package jrtr;
 
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.stream.IntStream;
 
 import javax.vecmath.Vector2f;
 import javax.vecmath.Vector3f;
@@ -12,39 +15,87 @@ import javax.vecmath.Vector3f;
 /**
  * This class represents a geometric object that is stored in a mesh structure.
  * Each vertix knows its adjacent vertices, edges and faces
+ * <p>
+ * The structure is built in time linear in the size of the mesh, by finding
+ * the edges with a hash map from their vertices. It can optionally be built
+ * in parallel.
+ * <p>
+ * For large meshes the structure can instead be a {@link HalfEdgeMesh}, which
+ * stores the same adjacency in arrays of primitives and needs about a tenth
+ * of the memory, see {@link Structure}.
  * 
  * @author CGG\indermuehle
  * 
  */
 public class MeshData {
 
-
+	/**
+	 * The ways the mesh structure can be stored.
+	 */
+	public enum Structure {
+		/**
+		 * Objects for the vertices, edges and faces, with references to
+		 * their neighbors
+		 */
+		WINGED_EDGE,
+		/**
+		 * A {@link HalfEdgeMesh} of int and float arrays
+		 */
+		HALF_EDGE
+	}
 	
 	private VertexData vertexData;
 	private RenderContext renderContext;
 	private List<Vertex> vertexTable;
 	protected List<Edge> edgeTable;
 	private List<Face> faceTable;
+	private HalfEdgeMesh halfEdgeMesh;
+
+	/**
+	 * Whether the vertex data the mesh was built from had tangents, they are
+	 * then generated again for the vertex data of the mesh, see
+	 * {@link TangentGenerator}
+	 */
+	private boolean tangents;
+
+	private static final int BUCKETS = 64;
+	private static final int BLOCK_SIZE = 1 << 16;
 
 	public MeshData(VertexData data, RenderContext r) {
+		this(data, r, false);
+	}
+
+	/**
+	 * Constructs a winged edge structure from a vertex data, see
+	 * {@link #createMesh(VertexData, boolean)}.
+	 * 
+	 * @param parallel
+	 *            whether to build the structure in parallel
+	 */
+	public MeshData(VertexData data, RenderContext r, boolean parallel) {
 		renderContext = r;
-		this.createMesh(data);
+		this.createMesh(data, parallel);
 	}
 
 	/**
-	 * Helper-Function for the Loop subdivision. 
-	 * Should be always called after a subdivision so that the Winged Edge Structure and the VertexData are updated!
-	 * @param vertexList List of all vertices, does not need to have edges, the edges are assigned later to vertices
-	 * @param i Index-List, defines how the vertices are combined into a triangle mesh
+	 * Constructs a mesh structure from a vertex data, either a winged edge
+	 * structure, see {@link #createMesh(VertexData)}, or a
+	 * {@link HalfEdgeMesh}. The half-edge mesh also accepts meshes with
+	 * borders.
+	 * 
+	 * @param structure
+	 *            how to store the structure
 	 */
-	private void createMesh(List<Vertex> vertexList, int[] i) {
-		// used by loop subdivision
-		for (Vertex v : vertexList)
-			v.edge = null;
-		vertexTable = vertexList;
-		edgeTable = new ArrayList<Edge>(i.length / 2);
-		faceTable = new ArrayList<Face>();
-		this.createMeshStructure(i, i.length / 3);
+	public MeshData(VertexData data, RenderContext r, Structure structure) {
+		renderContext = r;
+		if (structure == Structure.HALF_EDGE) {
+			halfEdgeMesh = new HalfEdgeMesh(data);
+			for (VertexData.VertexElement e : data.getElements())
+				if (e.getSemantic() == VertexData.Semantic.TANGENT)
+					tangents = true;
+			this.createVertexData();
+		} else
+			this.createMesh(data, false);
 	}
 
 	/**
@@ -55,9 +106,24 @@ public class MeshData {
 	 * @param data the VertexData
 	 */
 	public void createMesh(VertexData data) {
+		createMesh(data, false);
+	}
+
+	/**
+	 * Constructs a winged edge structure from a vertex data, like
+	 * {@link #createMesh(VertexData)}. The parallel build gives the same
+	 * faces and edges, but the edges are in a different order in the edge
+	 * table.
+	 * @param data the VertexData
+	 * @param parallel whether to build the structure in parallel
+	 */
+	public void createMesh(VertexData data, boolean parallel) {
 		
-		int nedges = data.getIndices().length / 2;
-		int nfaces = data.getIndices().length / 3;
+		IntBuffer indexBuffer = data.getIndexBuffer();
+		int[] indices = new int[indexBuffer.remaining()];
+		indexBuffer.get(indices);
+		int nedges = indices.length / 2;
+		int nfaces = indices.length / 3;
 		
 		// initializes the tables for vertices, edges and faces, creates a
 		// Vertex object for each vertex and adds it to vertexTable
@@ -72,13 +138,15 @@ public class MeshData {
 		while(itr.hasNext()){
 			VertexData.VertexElement e = itr.next();
 			if(e.getSemantic() == VertexData.Semantic.POSITION)
-				v = e.getData();
+				v = toArray(e);
 			if(e.getSemantic() == VertexData.Semantic.COLOR)
-				c = e.getData();
+				c = toArray(e);
 			if(e.getSemantic() == VertexData.Semantic.NORMAL)
-				n = e.getData();
+				n = toArray(e);
 			if(e.getSemantic() == VertexData.Semantic.TEXCOORD)
-				t = e.getData();
+				t = toArray(e);
+			if(e.getSemantic() == VertexData.Semantic.TANGENT)
+				tangents = true;
 		}	
 		  
 		for (int k = 0; k < data.getNumberOfVertices(); k++) {
@@ -89,55 +157,198 @@ public class MeshData {
 				vert.normal = new Vector3f(n[3 * k], n[3 * k + 1], n[3 * k + 2]);
 			if (t != null)
 				vert.texCoord = new Vector2f(t[2 * k], t[2 * k + 1]);
+			vert.index = k;
 			vertexTable.add(vert);
 		}
 		
-		this.createMeshStructure(data.getIndices(), nfaces);
+		if (parallel)
+			this.createMeshStructureParallel(indices, nfaces);
+		else
+			this.createMeshStructure(indices, nfaces);
+	}
+
+	private static float[] toArray(VertexData.VertexElement e) {
+		if (e.getData() != null)
+			return e.getData();
+		FloatBuffer buffer = e.getBuffer();
+		float[] f = new float[buffer.remaining()];
+		buffer.get(f);
+		return f;
 	}
 
 	private void createMeshStructure(int[] i, int p) {
+		// Maps the two vertices of each edge to its index in edgeTable, so
+		// that the edges of a face are found in constant time
+		LongIntHashMap edgeMap = new LongIntHashMap(3 * p);
+		Edge[] list = new Edge[3];
 		int offset = 0;
 		// loop for each face
 		for (int k = 0; k < p; k++) {
 			// list containing all edges of the face. If an edge doesn't already
 			// exist in edgeTable, a new one is created. The edges describe the
 			// face in counterclockwise order
-			List<Edge> list = new ArrayList<MeshData.Edge>();
 			for (int j = 0; j < 3; j++) {
-				Edge e = findEdge(i[offset + j], i[offset + (j + 1) % 3]);
-				if (e == null) {
-					e = new Edge(i[offset + j], i[offset + (j + 1) % 3]);
-				}
-				list.add(e);
+				int start = i[offset + j], end = i[offset + (j + 1) % 3];
+				int e = edgeMap.putIfAbsent(LongIntHashMap.edgeKey(start, end), edgeTable.size());
+				if (e == edgeTable.size())
+					edgeTable.add(new Edge(start, end));
+				list[j] = edgeTable.get(e);
 			}
 			offset += 3;
 
-			Face f = new Face(list.get(0));
-			for (int j = 0; j < list.size(); j++) {
+			Face f = new Face(list[0]);
+			for (int j = 0; j < 3; j++) {
 				// adds the face to each of the edges
-				if (j == 0)
-					list.get(j).addFace(f, list.get(list.size() - 1), list.get(j + 1));
-				else
-					list.get(j).addFace(f, list.get(j - 1), list.get((j + 1) % list.size()));
+				list[j].addFace(f, list[(j + 2) % 3], list[(j + 1) % 3]);
 				// if one of the vertices doesn't have an edge, it will be
 				// defined here
-				if (vertexTable.get(list.get(j).v1).edge == null)
-					vertexTable.get(list.get(j).v1).edge = list.get(j);
-			}
-			for (Edge e : list) {
-				if (!edgeTable.contains(e))
-					edgeTable.add(e);
+				if (vertexTable.get(list[j].v1).edge == null)
+					vertexTable.get(list[j].v1).edge = list[j];
 			}
 			faceTable.add(f);
 		}
 		this.createVertexData();
 	}
 
+	/**
+	 * Builds the same structure as {@link #createMeshStructure(int[], int)}
+	 * in parallel. The face corners are sorted into buckets by the hash of
+	 * their edge, and each bucket finds its edges with a hash map of its
+	 * own. Each edge gets the first face that uses it as the first face, and
+	 * the last one as the second face, like in the sequential build.
+	 */
+	private void createMeshStructureParallel(int[] i, int p) {
+		int nCorners = 3 * p;
+
+		// The key of the edge from each corner to the next one of its face
+		long[] keys = new long[nCorners];
+		IntStream.range(0, nCorners).parallel()
+				.forEach(c -> keys[c] = LongIntHashMap.edgeKey(i[c], i[next(c)]));
+
+		// Sort the corners by bucket, keeping their order within a bucket
+		int nBlocks = (nCorners + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		int[] counts = new int[nBlocks * BUCKETS];
+		IntStream.range(0, nBlocks).parallel().forEach(b -> {
+			for (int c = b * BLOCK_SIZE; c < Math.min((b + 1) * BLOCK_SIZE, nCorners); c++)
+				counts[b * BUCKETS + bucket(keys[c])]++;
+		});
+		int[] bucketStart = new int[BUCKETS + 1];
+		int position = 0;
+		for (int k = 0; k < BUCKETS; k++) {
+			bucketStart[k] = position;
+			for (int b = 0; b < nBlocks; b++) {
+				int count = counts[b * BUCKETS + k];
+				counts[b * BUCKETS + k] = position;
+				position += count;
+			}
+		}
+		bucketStart[BUCKETS] = position;
+		int[] sorted = new int[nCorners];
+		IntStream.range(0, nBlocks).parallel().forEach(b -> {
+			for (int c = b * BLOCK_SIZE; c < Math.min((b + 1) * BLOCK_SIZE, nCorners); c++)
+				sorted[counts[b * BUCKETS + bucket(keys[c])]++] = c;
+		});
+
+		// Number the edges of each bucket, and remember the corners of the
+		// first and the last face of each edge
+		int[] edgeOfCorner = new int[nCorners];
+		int[][] firstCorner = new int[BUCKETS][];
+		int[][] lastCorner = new int[BUCKETS][];
+		IntStream.range(0, BUCKETS).parallel().forEach(k -> {
+			int start = bucketStart[k], size = bucketStart[k + 1] - start;
+			LongIntHashMap edgeMap = new LongIntHashMap(size);
+			int[] first = new int[size], last = new int[size];
+			for (int s = start; s < start + size; s++) {
+				int c = sorted[s], n = edgeMap.size();
+				int e = edgeMap.putIfAbsent(keys[c], n);
+				// Corners are stored plus one, zero means none
+				if (e == n)
+					first[e] = c + 1;
+				else
+					last[e] = c + 1;
+				edgeOfCorner[c] = e;
+			}
+			firstCorner[k] = Arrays.copyOf(first, edgeMap.size());
+			lastCorner[k] = Arrays.copyOf(last, edgeMap.size());
+		});
+		int[] edgeStart = new int[BUCKETS + 1];
+		for (int k = 0; k < BUCKETS; k++)
+			edgeStart[k + 1] = edgeStart[k] + firstCorner[k].length;
+
+		// Make the edges, with the orientation of their first corner, and
+		// the faces
+		Edge[] edges = new Edge[edgeStart[BUCKETS]];
+		IntStream.range(0, BUCKETS).parallel().forEach(k -> {
+			for (int s = bucketStart[k]; s < bucketStart[k + 1]; s++)
+				edgeOfCorner[sorted[s]] += edgeStart[k];
+			for (int e = 0; e < firstCorner[k].length; e++) {
+				int c = firstCorner[k][e] - 1;
+				edges[edgeStart[k] + e] = new Edge(i[c], i[next(c)]);
+			}
+		});
+		Face[] faces = new Face[p];
+		IntStream.range(0, p).parallel().forEach(f -> faces[f] = new Face(edges[edgeOfCorner[3 * f]]));
+
+		// Add the faces to the edges, each edge is handled by one bucket
+		IntStream.range(0, BUCKETS).parallel().forEach(k -> {
+			for (int e = 0; e < firstCorner[k].length; e++) {
+				Edge edge = edges[edgeStart[k] + e];
+				addFace(edge, firstCorner[k][e] - 1, faces, edges, edgeOfCorner);
+				if (lastCorner[k][e] != 0)
+					addFace(edge, lastCorner[k][e] - 1, faces, edges, edgeOfCorner);
+			}
+		});
+
+		// The first edge in face order whose first vertex is a vertex
+		for (int c = 0; c < nCorners; c++) {
+			Edge e = edges[edgeOfCorner[c]];
+			if (vertexTable.get(e.v1).edge == null)
+				vertexTable.get(e.v1).edge = e;
+		}
+
+		edgeTable = new ArrayList<Edge>(Arrays.asList(edges));
+		faceTable = new ArrayList<Face>(Arrays.asList(faces));
+		this.createVertexData();
+	}
+
+	/**
+	 * Add the face of a corner to an edge, with the edges of the previous
+	 * and the next corner of the face.
+	 */
+	private static void addFace(Edge edge, int c, Face[] faces, Edge[] edges, int[] edgeOfCorner) {
+		int f = c / 3;
+		edge.addFace(faces[f], edges[edgeOfCorner[3 * f + (c + 2) % 3]], edges[edgeOfCorner[next(c)]]);
+	}
+
+	/**
+	 * Returns the next corner of the face of a corner.
+	 */
+	private static int next(int c) {
+		return c - c % 3 + (c + 1) % 3;
+	}
+
+	private static int bucket(long key) {
+		return (int) ((key * 0xC2B2AE3D27D4EB4FL) >>> 58);
+	}
+
 	/**
 	 * Converts the mesh structure into a vertexData and stores it as
 	 * this.vertexData
 	 */
 	private void createVertexData() {
+		if (halfEdgeMesh != null) {
+			// Reorder the mesh itself, so that the vertex data has the same
+			// numbers and edits can be copied into it, see
+			// updateVertexData()
+			halfEdgeMesh.optimize();
+			vertexData = halfEdgeMesh.toVertexData(renderContext,
+					Math.max(halfEdgeMesh.getVertexCapacity(), spare(halfEdgeMesh.getNumberOfVertices())),
+					Math.max(halfEdgeMesh.getFaceCapacity(), spare(halfEdgeMesh.getNumberOfFaces())));
+			if (tangents)
+				generateTangents();
+			return;
+		}
+
 		float[] pos = new float[3 * vertexTable.size()];
 		float[] col = new float[3 * vertexTable.size()];
 		float[] nrm = new float[3 * vertexTable.size()];
@@ -169,18 +380,20 @@ public class MeshData {
 		data.addElement(nrm, VertexData.Semantic.NORMAL, 3);
 		data.addElement(tex, VertexData.Semantic.TEXCOORD, 2);
 		
-		List<Integer> index = new ArrayList<Integer>();
+		// All faces are triangles
+		int i[] = new int[3 * faceTable.size()];
 		p = 0;
 		for (Face f : faceTable) {
-			List<Integer> verts = this.findVertices(f);
-			index.addAll(verts);
-			p++;
-		}
-		int i[] = new int[index.size()];
-		for (int k = 0; k < index.size(); k++) {
-			i[k] = index.get(k);
+			for (int v : this.findVertices(f))
+				i[p++] = v;
 		}
-		data.addIndices(i);
+		
+		// The faces are in the order of the face table, reorder them for
+		// the vertex cache of the GPU. The vertices are not renumbered, they
+		// keep the numbers of the vertex table, like getFaceNormals().
+		data.addIndices(MeshOptimizer.reorderTriangles(i, vertexTable.size()));
+		if (tangents)
+			TangentGenerator.generate(data);
 		this.vertexData = data;
 
 	//	vertexData.addElement(getFaceNormals(), VertexData.Semantic.NORMAL, 3); 
@@ -196,69 +409,200 @@ public class MeshData {
 	 * @return array containing face normals
 	 */
 	public float[] getFaceNormals() {
-		HashMap<Vertex, ArrayList<Vector3f>> vertexFaceNormals = new HashMap<Vertex, ArrayList<Vector3f>>();
-		for (Face f : faceTable) {
-			Vector3f v = new Vector3f();
-			List<Integer> verts = findVertices(f);
-			for (int i = 0; i < verts.size(); i++) {
-				Vector3f v1 = new Vector3f(vertexTable.get(verts.get(i)).position);
-				v1.sub(vertexTable.get(verts.get((i + verts.size() - 1) % verts.size())).position);
-				Vector3f v2 = new Vector3f(vertexTable.get(verts.get(i)).position);
-				v2.sub(vertexTable.get(verts.get((i + 1) % verts.size())).position);
-				v1.cross(v2, v1);
-				v.add(v1);
-			}
-			v.scale(1 / (float)verts.size());
-			v.normalize();
-			
-			for(Integer faceVertex : verts){
-				if(vertexFaceNormals.get(vertexTable.get(faceVertex))!=null){
-					vertexFaceNormals.get(vertexTable.get(faceVertex)).add(v);
-				}else{
-					vertexFaceNormals.put(vertexTable.get(faceVertex), new ArrayList<Vector3f>());
-					vertexFaceNormals.get(vertexTable.get(faceVertex)).add(v);
-				}
-			}
-		}
-		float[] vertexFaceNormalArray = new float[vertexTable.size()*3];
-		int iCount = 0;
-		for(Vertex vertex:vertexTable){
-			ArrayList<Vector3f> vecs = vertexFaceNormals.get(vertex);
-			Vector3f vertexNormal = new Vector3f(0,0,0);
-			for(Vector3f vec:vecs)
-				vertexNormal.add(vec);
-			vertexNormal.scale(1/(float)vecs.size());
-			vertexNormal.normalize();
-			vertexFaceNormalArray[iCount++] = vertexNormal.x;
-			vertexFaceNormalArray[iCount++] = vertexNormal.y;
-			vertexFaceNormalArray[iCount++] = vertexNormal.z;
+		if (halfEdgeMesh != null)
+			return getFaceNormals(halfEdgeMesh.getPositions(), halfEdgeMesh.getIndices(),
+					halfEdgeMesh.getNumberOfFaces(), halfEdgeMesh.getNumberOfVertices());
+
+		float[] positions = new float[3 * vertexTable.size()];
+		for (Vertex v : vertexTable) {
+			positions[3 * v.index] = v.position.x;
+			positions[3 * v.index + 1] = v.position.y;
+			positions[3 * v.index + 2] = v.position.z;
 		}
-		return vertexFaceNormalArray;
+		int[] indices = new int[3 * faceTable.size()];
+		int p = 0;
+		for (Face f : faceTable)
+			for (int v : this.findVertices(f))
+				indices[p++] = v;
+		return getFaceNormals(positions, indices, faceTable.size(), vertexTable.size());
+	}
+
+	/**
+	 * Computes the normals at the vertices of a flat array of triangles with
+	 * {@link NormalGenerator}, see {@link #getFaceNormals()}. The arrays may
+	 * be longer than the given numbers of faces and vertices.
+	 */
+	private float[] getFaceNormals(float[] p, int[] index, int nFaces, int nVertices) {
+		VertexData data = renderContext.makeVertexData(nVertices);
+		data.addElement(Arrays.copyOf(p, 3 * nVertices), VertexData.Semantic.POSITION, 3);
+		data.addIndices(Arrays.copyOf(index, 3 * nFaces));
+		NormalGenerator.generate(data, NormalGenerator.Weighting.ANGLE);
+		for (VertexData.VertexElement e : data.getElements())
+			if (e.getSemantic() == VertexData.Semantic.NORMAL)
+				return e.getData();
+		return new float[3 * nVertices];
 	}
 
 	public VertexData getVertexData() {
 		return this.vertexData;
 	}
 
-	
+	// -------------- Local edits of the half-edge structure --------------
+
+	/**
+	 * Move a vertex. Like the other edits, this needs the
+	 * {@link Structure#HALF_EDGE} structure, and changes the vertex data
+	 * only in {@link #updateVertexData()}. The vertices and triangles of the
+	 * vertex data have the same numbers as in the {@link HalfEdgeMesh}.
+	 */
+	public void moveVertex(int v, float x, float y, float z) {
+		editableMesh().moveVertex(v, x, y, z);
+	}
+
+	/**
+	 * Split the edge between two vertices at its midpoint, see
+	 * {@link HalfEdgeMesh#splitEdge(int)}.
+	 * 
+	 * @return the new vertex
+	 */
+	public int splitEdge(int v1, int v2) {
+		return editableMesh().splitEdge(halfEdge(v1, v2));
+	}
+
+	/**
+	 * Collapse the edge between two vertices into its midpoint, see
+	 * {@link HalfEdgeMesh#collapseEdge(int, float, float, float)}. The last
+	 * vertex gets the number of the removed one.
+	 * 
+	 * @return the number of the remaining vertex, or -1 if the edge could
+	 *         not be collapsed
+	 */
+	public int collapseEdge(int v1, int v2) {
+		HalfEdgeMesh mesh = editableMesh();
+		float[] p = mesh.getPositions();
+		return mesh.collapseEdge(halfEdge(v1, v2), 0.5f * (p[3 * v1] + p[3 * v2]),
+				0.5f * (p[3 * v1 + 1] + p[3 * v2 + 1]), 0.5f * (p[3 * v1 + 2] + p[3 * v2 + 2]));
+	}
+
 	/**
-	 * Finds the edge that conntects the given vertices. If no such edge exists,
-	 * null is returned
+	 * Flip the edge between two vertices, see
+	 * {@link HalfEdgeMesh#flipEdge(int)}.
 	 * 
-	 * @param i1
-	 *            the index in vertexTable of the first vertex
-	 * @param i2
-	 *            the index in vertexTable of the second vertex
-	 * @return the edge that conntects the two vertices or null
+	 * @return whether the edge was flipped
 	 */
-	private Edge findEdge(int i1, int i2) {
-		for (Edge e : edgeTable) {
-			if (e.connects(i1, i2))
-				return e;
+	public boolean flipEdge(int v1, int v2) {
+		return editableMesh().flipEdge(halfEdge(v1, v2));
+	}
+
+	/**
+	 * Copy the vertices and triangles that changed since the last update
+	 * from the half-edge mesh into the vertex data, and mark them as changed
+	 * so that the render context uploads only them. Triangles after the last
+	 * one are degenerate. If the mesh outgrew the vertex data, a new vertex
+	 * data is made, with room to grow. The edits move and interpolate the
+	 * tangents with the vertices, and they are generated again for a new
+	 * vertex data.
+	 * 
+	 * @return whether {@link #getVertexData()} returns a new vertex data,
+	 *         which then has to be drawn instead of the old one
+	 */
+	public boolean updateVertexData() {
+		HalfEdgeMesh mesh = editableMesh();
+		DirtyRanges vertices = mesh.getChangedVertices();
+		DirtyRanges faces = mesh.getChangedFaces();
+		if (vertices.isEmpty() && faces.isEmpty())
+			return false;
+		if (Math.max(mesh.getNumberOfVertices(), vertices.getMax()) > vertexData.getNumberOfVertices()
+				|| 3 * Math.max(mesh.getNumberOfFaces(), faces.getMax()) > vertexData.getNumberOfIndices()) {
+			vertexData = mesh.toVertexData(renderContext, mesh.getVertexCapacity(), mesh.getFaceCapacity());
+			if (tangents)
+				generateTangents();
+			mesh.clearChanges();
+			return true;
+		}
+
+		for (VertexData.VertexElement e : vertexData.getElements()) {
+			float[] f = null;
+			if (e.getSemantic() == VertexData.Semantic.POSITION)
+				f = mesh.getPositions();
+			else if (e.getSemantic() == VertexData.Semantic.NORMAL)
+				f = mesh.getNormals();
+			else if (e.getSemantic() == VertexData.Semantic.COLOR)
+				f = mesh.getColors();
+			else if (e.getSemantic() == VertexData.Semantic.TEXCOORD)
+				f = mesh.getTexCoords();
+			else if (e.getSemantic() == VertexData.Semantic.TANGENT)
+				f = mesh.getTangents();
+			if (f == null)
+				continue;
+			int dim = e.getNumberOfComponents();
+			FloatBuffer buffer = e.getBuffer();
+			for (int r = 0; r < vertices.size(); r++) {
+				int first = vertices.getFirst(r), end = vertices.getEnd(r);
+				buffer.position(dim * first);
+				buffer.put(f, dim * first, dim * (end - first));
+			}
 		}
-		return null;
+		for (int r = 0; r < vertices.size(); r++)
+			vertexData.markDirty(vertices.getFirst(r), vertices.getEnd(r) - vertices.getFirst(r));
+
+		IntBuffer indices = vertexData.getIndexBuffer();
+		int[] meshIndices = mesh.getIndices();
+		for (int r = 0; r < faces.size(); r++) {
+			int first = faces.getFirst(r), end = faces.getEnd(r);
+			for (int i = 3 * first; i < 3 * end; i++)
+				indices.put(i, i < 3 * mesh.getNumberOfFaces() ? meshIndices[i] : 0);
+			vertexData.markIndicesDirty(3 * first, 3 * (end - first));
+		}
+		mesh.clearChanges();
+		return false;
+	}
+
+	/**
+	 * Generate the tangents of the vertex data of the half-edge mesh, and
+	 * give them to the mesh, so that the edits update them.
+	 */
+	private void generateTangents() {
+		TangentGenerator.generate(vertexData);
+		for (VertexData.VertexElement e : vertexData.getElements())
+			if (e.getSemantic() == VertexData.Semantic.TANGENT)
+				halfEdgeMesh.setTangents(e.getBuffer());
+	}
+
+	private HalfEdgeMesh editableMesh() {
+		if (halfEdgeMesh == null)
+			throw new UnsupportedOperationException("Edits need the HALF_EDGE structure");
+		return halfEdgeMesh;
+	}
+
+	/**
+	 * Returns a half-edge of the edge between two vertices.
+	 */
+	private int halfEdge(int v1, int v2) {
+		int h = halfEdgeMesh.findHalfEdge(v1, v2);
+		if (h < 0)
+			h = halfEdgeMesh.findHalfEdge(v2, v1);
+		if (h < 0)
+			throw new IllegalArgumentException("There is no edge between vertices " + v1 + " and " + v2);
+		return h;
+	}
+
+	/**
+	 * Returns a size with room for edits.
+	 */
+	private static int spare(int n) {
+		return n + n / 8 + 16;
 	}
 
+	/**
+	 * Returns the half-edge mesh, or null if the structure is a winged edge
+	 * structure.
+	 */
+	public HalfEdgeMesh getHalfEdgeMesh() {
+		return halfEdgeMesh;
+	}
+
+	
 	/**
 	 * Finds all edges connecting the given vertex with other vertices
 	 * 
@@ -294,7 +638,7 @@ public class MeshData {
 	private List<Vertex> findVertices(Vertex v) {
 		List<Edge> edges = findEdges(v);
 		List<Vertex> list = new ArrayList<Vertex>(edges.size());
-		int i = vertexTable.indexOf(v);
+		int i = v.index;
 		for (Edge e : edges) {
 			if (e.v1 == i)
 				list.add(vertexTable.get(e.v2));
@@ -366,11 +710,46 @@ public class MeshData {
 	 * consists of triangles
 	 */
 	public void loop() {
-		//TODO: this is the part you should implement :-)
+		loop(1);
+	}
 
+	/**
+	 * Make a shape with levels of detail of the mesh, simplified with
+	 * {@link MeshSimplifier#makeLodShape}. The mesh itself is not changed.
+	 *
+	 * @param levels
+	 *            the number of levels, including the mesh itself
+	 * @param ratio
+	 *            the fraction of the triangles of a level that the next one
+	 *            keeps
+	 */
+	public LodShape makeLodShape(int levels, float ratio) {
+		return MeshSimplifier.makeLodShape(vertexData, renderContext, levels, ratio);
 	}
-	
-	
+
+	/**
+	 * Subdivide several times with the Loop-algorithm, see
+	 * {@link HalfEdgeMesh#subdivide()}. The levels are computed on a
+	 * half-edge mesh, each from the previous one without building its
+	 * structure again. A winged edge structure is built once from the last
+	 * level.
+	 * 
+	 * @param levels
+	 *            the number of subdivisions, each one multiplies the number
+	 *            of triangles by four
+	 */
+	public void loop(int levels) {
+		HalfEdgeMesh mesh = halfEdgeMesh != null ? halfEdgeMesh : new HalfEdgeMesh(vertexData);
+		for (int level = 1; level <= levels; level++)
+			mesh = mesh.subdivide();
+
+		if (halfEdgeMesh != null) {
+			halfEdgeMesh = mesh;
+			this.createVertexData();
+		} else
+			this.createMesh(mesh.toVertexData(renderContext));
+	}
+
 	// -------------- Classes for Edges, Vertices and Faces --------------
 	protected class Edge {
 		protected int v1, v2;
@@ -453,7 +832,7 @@ public class MeshData {
 		}
 
 		public List<Edge> getEdges(Vertex v) {
-			int i = vertexTable.indexOf(v);
+			int i = v.index;
 			List<Edge> e = new ArrayList<MeshData.Edge>(2);
 			for (Edge g : edges) {
 				if (g != null && (g.v1 == i || g.v2 == i))
@@ -487,6 +866,8 @@ public class MeshData {
 		protected Vector3f normal;
 		protected Vector2f texCoord;
 		protected Edge edge;
+		// the index of the vertex in vertexTable
+		protected int index;
 
 		public Vertex(Vector3f position) {
 			this.position = position;
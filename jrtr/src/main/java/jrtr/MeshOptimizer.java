@@ -0,0 +1,262 @@
+package jrtr;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Reorders indexed triangle meshes for the GPU. The triangles are reordered
+ * so that consecutive triangles share vertices, which the post-transform
+ * vertex cache of the GPU then transforms only once, using the algorithm of
+ * Tom Forsyth, "Linear-Speed Vertex Cache Optimisation" (2006). The vertices
+ * are then renumbered in the order in which the triangles first use them, so
+ * that the vertex fetches read memory mostly sequentially.
+ * <p>
+ * The quality is measured by the average cache miss ratio (ACMR), the number
+ * of transformed vertices per triangle, and the average transform to vertex
+ * ratio (ATVR), the number of transformed vertices per vertex. The ACMR is
+ * at least 0.5 for large closed meshes and at most 3, the ATVR is at least
+ * 1. Both are computed by simulating a FIFO cache of {@link #CACHE_SIZE}
+ * vertices.
+ */
+public class MeshOptimizer {
+
+	/**
+	 * The size of the simulated FIFO vertex cache for ACMR and ATVR.
+	 */
+	public static final int CACHE_SIZE = 16;
+
+	/**
+	 * The size of the LRU cache modeled by the reordering, and the scoring
+	 * parameters as proposed by Forsyth.
+	 */
+	private static final int LRU_SIZE = 32;
+	private static final float CACHE_DECAY_POWER = 1.5f;
+	private static final float LAST_TRIANGLE_SCORE = 0.75f;
+	private static final float VALENCE_BOOST_SCALE = 2.0f;
+	private static final float VALENCE_BOOST_POWER = 0.5f;
+	private static final int MAX_VALENCE = 64;
+
+	private static final float[] CACHE_SCORE = new float[LRU_SIZE];
+	private static final float[] VALENCE_SCORE = new float[MAX_VALENCE + 1];
+
+	static {
+		for (int i = 0; i < LRU_SIZE; i++) {
+			if (i < 3)
+				CACHE_SCORE[i] = LAST_TRIANGLE_SCORE;
+			else
+				CACHE_SCORE[i] = (float) Math.pow(1 - (i - 3) / (float) (LRU_SIZE - 3), CACHE_DECAY_POWER);
+		}
+		for (int i = 1; i <= MAX_VALENCE; i++)
+			VALENCE_SCORE[i] = VALENCE_BOOST_SCALE * (float) Math.pow(i, -VALENCE_BOOST_POWER);
+	}
+
+	/**
+	 * Reorder the triangles and vertices of vertex data in place. All vertex
+	 * elements are permuted, in arrays and in direct buffers, and marked as
+	 * changed. Use {@link #acmr(int[])} and {@link #atvr(int[], int)} on the
+	 * indices before and after to measure the improvement.
+	 */
+	public static void optimize(VertexData vertexData) {
+		int nVertices = vertexData.getNumberOfVertices();
+		IntBuffer indexBuffer = vertexData.getIndexBuffer();
+		if (indexBuffer == null || nVertices == 0)
+			return;
+		int[] indices = new int[indexBuffer.remaining()];
+		indexBuffer.get(indices);
+
+		int[] reordered = reorderTriangles(indices, nVertices);
+		int[] remap = remapVertices(reordered, nVertices);
+		for (VertexData.VertexElement e : vertexData.getElements())
+			permute(e, remap);
+		indexBuffer.clear();
+		indexBuffer.put(reordered);
+		vertexData.markDirty(0, nVertices);
+		vertexData.markIndicesDirty(0, reordered.length);
+	}
+
+	/**
+	 * Returns the indices with the triangles reordered for the vertex cache.
+	 * The triangles keep their orientation.
+	 */
+	public static int[] reorderTriangles(int[] indices, int nVertices) {
+		int nTriangles = indices.length / 3;
+
+		// The triangles of each vertex that are not emitted yet, in
+		// triangles[offsets[v], offsets[v]+valence[v])
+		int[] valence = new int[nVertices];
+		for (int i = 0; i < 3 * nTriangles; i++)
+			valence[indices[i]]++;
+		int[] offsets = new int[nVertices + 1];
+		for (int v = 0; v < nVertices; v++)
+			offsets[v + 1] = offsets[v] + valence[v];
+		int[] triangles = new int[offsets[nVertices]];
+		int[] fill = Arrays.copyOf(offsets, nVertices);
+		for (int i = 0; i < 3 * nTriangles; i++)
+			triangles[fill[indices[i]]++] = i / 3;
+
+		float[] vertexScore = new float[nVertices];
+		for (int v = 0; v < nVertices; v++)
+			vertexScore[v] = score(-1, valence[v]);
+		float[] triangleScore = new float[nTriangles];
+		for (int t = 0; t < nTriangles; t++)
+			triangleScore[t] = vertexScore[indices[3 * t]] + vertexScore[indices[3 * t + 1]]
+					+ vertexScore[indices[3 * t + 2]];
+		boolean[] emitted = new boolean[nTriangles];
+
+		int[] cache = new int[LRU_SIZE + 3], newCache = new int[LRU_SIZE + 3];
+		int cacheSize = 0;
+		int[] result = new int[3 * nTriangles];
+		int next = 0, cursor = 0;
+		int best = -1;
+		for (int n = 0; n < nTriangles; n++) {
+			// Without a candidate from the cache, continue with the next
+			// triangle in the input order
+			if (best < 0) {
+				while (emitted[cursor])
+					cursor++;
+				best = cursor;
+			}
+
+			// Emit the triangle and remove it from its vertices
+			emitted[best] = true;
+			for (int k = 0; k < 3; k++) {
+				int v = indices[3 * best + k];
+				result[next++] = v;
+				int end = offsets[v] + --valence[v];
+				for (int i = offsets[v]; i <= end; i++) {
+					if (triangles[i] == best) {
+						triangles[i] = triangles[end];
+						triangles[end] = best;
+						break;
+					}
+				}
+			}
+
+			// Move the vertices of the triangle to the front of the cache
+			int newSize = 0;
+			for (int k = 0; k < 3; k++) {
+				int v = indices[3 * best + k];
+				if (newSize == 0 || newCache[0] != v && (newSize == 1 || newCache[1] != v))
+					newCache[newSize++] = v;
+			}
+			for (int i = 0; i < cacheSize; i++) {
+				int v = cache[i];
+				if (v != indices[3 * best] && v != indices[3 * best + 1] && v != indices[3 * best + 2])
+					newCache[newSize++] = v;
+			}
+			int[] swap = cache;
+			cache = newCache;
+			newCache = swap;
+			cacheSize = newSize;
+
+			// Update the scores of the vertices in the cache, including the
+			// ones that just fell out of it, and of their triangles
+			for (int i = 0; i < cacheSize; i++) {
+				int v = cache[i];
+				float delta = score(i < LRU_SIZE ? i : -1, valence[v]) - vertexScore[v];
+				vertexScore[v] += delta;
+				for (int j = offsets[v]; j < offsets[v] + valence[v]; j++)
+					triangleScore[triangles[j]] += delta;
+			}
+
+			// The next triangle is the best one that uses a cached vertex
+			best = -1;
+			float bestScore = -1;
+			for (int i = 0; i < Math.min(cacheSize, LRU_SIZE); i++) {
+				int v = cache[i];
+				for (int j = offsets[v]; j < offsets[v] + valence[v]; j++) {
+					int t = triangles[j];
+					if (triangleScore[t] > bestScore) {
+						bestScore = triangleScore[t];
+						best = t;
+					}
+				}
+			}
+			if (cacheSize > LRU_SIZE)
+				cacheSize = LRU_SIZE;
+		}
+		return result;
+	}
+
+	/**
+	 * Renumber the vertices in the order in which the indices first use
+	 * them, and rewrite the indices in place. Vertices that are not used
+	 * come last, in their original order.
+	 *
+	 * @return the new number of each old vertex
+	 */
+	public static int[] remapVertices(int[] indices, int nVertices) {
+		int[] remap = new int[nVertices];
+		Arrays.fill(remap, -1);
+		int next = 0;
+		for (int i = 0; i < indices.length; i++) {
+			int v = indices[i];
+			if (remap[v] < 0)
+				remap[v] = next++;
+			indices[i] = remap[v];
+		}
+		for (int v = 0; v < nVertices; v++)
+			if (remap[v] < 0)
+				remap[v] = next++;
+		return remap;
+	}
+
+	/**
+	 * Returns the average cache miss ratio, the number of vertices that miss
+	 * the simulated cache per triangle.
+	 */
+	public static float acmr(int[] indices) {
+		return indices.length == 0 ? 0 : 3f * countMisses(indices) / indices.length;
+	}
+
+	/**
+	 * Returns the average transform to vertex ratio, the number of vertices
+	 * that miss the simulated cache per vertex.
+	 */
+	public static float atvr(int[] indices, int nVertices) {
+		return nVertices == 0 ? 0 : countMisses(indices) / (float) nVertices;
+	}
+
+	/**
+	 * Count the vertices that miss a FIFO cache of {@link #CACHE_SIZE}
+	 * vertices.
+	 */
+	private static int countMisses(int[] indices) {
+		int nVertices = 0;
+		for (int v : indices)
+			nVertices = Math.max(nVertices, v + 1);
+		// A vertex is in the cache if it was loaded at most CACHE_SIZE
+		// misses ago
+		int[] loaded = new int[nVertices];
+		Arrays.fill(loaded, Integer.MIN_VALUE / 2);
+		int misses = 0;
+		for (int v : indices) {
+			if (misses - loaded[v] > CACHE_SIZE) {
+				loaded[v] = misses;
+				misses++;
+			}
+		}
+		return misses;
+	}
+
+	private static float score(int cachePosition, int valence) {
+		if (valence == 0)
+			return -1;
+		float score = cachePosition < 0 ? 0 : CACHE_SCORE[cachePosition];
+		return score + VALENCE_SCORE[Math.min(valence, MAX_VALENCE)];
+	}
+
+	/**
+	 * Move the vertex attributes of each old vertex to its new number.
+	 */
+	static void permute(VertexData.VertexElement e, int[] remap) {
+		int dim = e.getNumberOfComponents();
+		FloatBuffer buffer = e.getBuffer();
+		float[] old = new float[buffer.remaining()];
+		buffer.get(old);
+		for (int v = 0; v < remap.length; v++)
+			for (int c = 0; c < dim; c++)
+				buffer.put(remap[v] * dim + c, old[v * dim + c]);
+	}
+}
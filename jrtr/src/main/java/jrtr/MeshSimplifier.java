@@ -0,0 +1,380 @@
+package jrtr;
+
+import java.util.Arrays;
+
+/**
+ * Simplifies triangle meshes by collapsing edges in the order of the
+ * quadric error metric of Garland and Heckbert, "Surface Simplification
+ * Using Quadric Error Metrics" (1997), to make the levels of detail of a
+ * {@link LodShape}.
+ * <p>
+ * Each vertex has a quadric, the sum of the squared distances to the planes
+ * of its triangles weighted by their area, and to planes perpendicular to
+ * the border edges with a high weight, so that borders stay in place. The
+ * cost of an edge is the quadric of both vertices at the position that
+ * minimizes it, and the edge with the least cost is collapsed into that
+ * position first, adding the quadric of the removed vertex to the kept one.
+ * The edges wait in a binary heap; entries of edges whose vertices changed
+ * are recognized by a version number of the vertices and skipped.
+ * <p>
+ * The collapses are done on a {@link HalfEdgeMesh}, the structure of
+ * {@link MeshData} for large meshes, with
+ * {@link HalfEdgeMesh#collapseEdge(int, float, float, float)}, which keeps
+ * the mesh manifold. Collapses that would turn a triangle over are not
+ * done. The other attributes of the two vertices are averaged.
+ */
+public class MeshSimplifier {
+
+	/**
+	 * Weight of the planes at the border edges, relative to the area of a
+	 * triangle, per squared length of the edge
+	 */
+	private static final double BORDER_WEIGHT = 100;
+
+	/**
+	 * Number of doubles per quadric, the upper half of the symmetric 4x4
+	 * matrix and the sum of the weights
+	 */
+	private static final int Q = 11;
+
+	private final HalfEdgeMesh mesh;
+	private final boolean tangents;
+
+	/**
+	 * Vertices are removed by moving the last one into their place. The
+	 * quadrics, versions and heap entries refer to the original numbers of
+	 * the vertices, which do not change, the mesh to the current ones.
+	 */
+	private final int[] idOfVertex;
+	private final int[] vertexOfId;
+	private final int[] version;
+	private final double[] quadrics;
+
+	/**
+	 * The heap of edges by cost, each with the original numbers of its
+	 * vertices and their versions when it was added
+	 */
+	private double[] heapCost;
+	private long[] heapEdge;
+	private long[] heapVersion;
+	private int heapSize;
+
+	private float error;
+	private int[] neighbors = new int[16];
+	private final double[] q = new double[Q];
+	private final double[] position = new double[3];
+
+	/**
+	 * Prepare the simplification of the triangles of a vertex data, which
+	 * is not changed. If the vertex data has tangents, they are generated
+	 * again for the simplified meshes.
+	 */
+	public MeshSimplifier(VertexData vertexData) {
+		mesh = new HalfEdgeMesh(vertexData);
+		boolean t = false;
+		for (VertexData.VertexElement e : vertexData.getElements())
+			if (e.getSemantic() == VertexData.Semantic.TANGENT)
+				t = true;
+		tangents = t;
+
+		int nVertices = mesh.getNumberOfVertices(), nFaces = mesh.getNumberOfFaces();
+		idOfVertex = new int[nVertices];
+		vertexOfId = new int[nVertices];
+		for (int v = 0; v < nVertices; v++)
+			idOfVertex[v] = vertexOfId[v] = v;
+		version = new int[nVertices];
+		quadrics = new double[Q * nVertices];
+
+		float[] p = mesh.getPositions();
+		int[] index = mesh.getIndices();
+		for (int f = 0; f < nFaces; f++) {
+			int a = index[3 * f], b = index[3 * f + 1], c = index[3 * f + 2];
+			double e1x = p[3 * b] - p[3 * a], e1y = p[3 * b + 1] - p[3 * a + 1], e1z = p[3 * b + 2] - p[3 * a + 2];
+			double e2x = p[3 * c] - p[3 * a], e2y = p[3 * c + 1] - p[3 * a + 1], e2z = p[3 * c + 2] - p[3 * a + 2];
+			double nx = e1y * e2z - e1z * e2y, ny = e1z * e2x - e1x * e2z, nz = e1x * e2y - e1y * e2x;
+			double l = Math.sqrt(nx * nx + ny * ny + nz * nz);
+			if (l == 0)
+				continue;
+			nx /= l;
+			ny /= l;
+			nz /= l;
+			double d = -(nx * p[3 * a] + ny * p[3 * a + 1] + nz * p[3 * a + 2]);
+			for (int k = 0; k < 3; k++)
+				addPlane(index[3 * f + k], nx, ny, nz, d, 0.5 * l);
+
+			for (int k = 0; k < 3; k++) {
+				int h = 3 * f + k;
+				if (!mesh.isBorder(h))
+					continue;
+				int u = mesh.origin(h), w = mesh.target(h);
+				double ex = p[3 * w] - p[3 * u], ey = p[3 * w + 1] - p[3 * u + 1], ez = p[3 * w + 2] - p[3 * u + 2];
+				double mx = ey * nz - ez * ny, my = ez * nx - ex * nz, mz = ex * ny - ey * nx;
+				double m = Math.sqrt(mx * mx + my * my + mz * mz);
+				if (m == 0)
+					continue;
+				mx /= m;
+				my /= m;
+				mz /= m;
+				double md = -(mx * p[3 * u] + my * p[3 * u + 1] + mz * p[3 * u + 2]);
+				double weight = BORDER_WEIGHT * (ex * ex + ey * ey + ez * ez);
+				addPlane(u, mx, my, mz, md, weight);
+				addPlane(w, mx, my, mz, md, weight);
+			}
+		}
+
+		int capacity = 2 * mesh.getNumberOfHalfEdges() / 3 + 16;
+		heapCost = new double[capacity];
+		heapEdge = new long[capacity];
+		heapVersion = new long[capacity];
+		for (int h = 0; h < mesh.getNumberOfHalfEdges(); h++)
+			if (mesh.isBorder(h) || h < mesh.twin(h))
+				push(mesh.origin(h), mesh.target(h));
+	}
+
+	public int getNumberOfFaces() {
+		return mesh.getNumberOfFaces();
+	}
+
+	public int getNumberOfVertices() {
+		return mesh.getNumberOfVertices();
+	}
+
+	/**
+	 * Returns the largest error of the collapses so far, see
+	 * {@link #simplify(int)}.
+	 */
+	public float getError() {
+		return error;
+	}
+
+	/**
+	 * Collapse edges until the mesh has at most the given number of
+	 * triangles, or no edge can be collapsed anymore.
+	 *
+	 * @return the largest error of the collapses so far, the square root of
+	 *         the mean squared distance of the new vertices to the planes of
+	 *         their quadrics, in the units of the positions
+	 */
+	public float simplify(int targetFaces) {
+		while (mesh.getNumberOfFaces() > targetFaces && heapSize > 0) {
+			long edge = heapEdge[0], versions = heapVersion[0];
+			pop();
+			int idA = (int) (edge >>> 32), idB = (int) edge;
+			int a = vertexOfId[idA], b = vertexOfId[idB];
+			if (a < 0 || b < 0 || versions != ((long) version[idA] << 32 | version[idB] & 0xFFFFFFFFL))
+				continue;
+			int h = mesh.findHalfEdge(a, b);
+			if (h < 0)
+				h = mesh.findHalfEdge(b, a);
+			if (h < 0)
+				continue;
+			double cost = evaluate(idA, idB);
+			float x = (float) position[0], y = (float) position[1], z = (float) position[2];
+			if (!mesh.canCollapse(h) || turnsOver(h, x, y, z))
+				continue;
+
+			int kept = idOfVertex[mesh.origin(h)], removed = idOfVertex[mesh.target(h)];
+			int slot = mesh.target(h), last = mesh.getNumberOfVertices() - 1;
+			mesh.collapseEdge(h, x, y, z);
+			int moved = idOfVertex[last];
+			idOfVertex[slot] = moved;
+			vertexOfId[moved] = slot;
+			vertexOfId[removed] = -1;
+
+			for (int i = 0; i < Q; i++)
+				quadrics[Q * kept + i] += quadrics[Q * removed + i];
+			double weight = quadrics[Q * kept + Q - 1];
+			if (weight > 0)
+				error = Math.max(error, (float) Math.sqrt(cost / weight));
+
+			// Edges of the kept vertex cost differently now
+			version[kept]++;
+			int v = vertexOfId[kept];
+			int valence = mesh.valence(v);
+			if (neighbors.length < valence)
+				neighbors = new int[2 * valence];
+			int n = mesh.neighbors(v, neighbors);
+			for (int i = 0; i < n; i++)
+				push(kept, idOfVertex[neighbors[i]]);
+		}
+		return error;
+	}
+
+	/**
+	 * Returns the simplified mesh as vertex data, reordered for the vertex
+	 * cache of the GPU by {@link MeshOptimizer}.
+	 */
+	public VertexData toVertexData(RenderContext renderContext) {
+		VertexData vertexData = mesh.toVertexData(renderContext);
+		MeshOptimizer.optimize(vertexData);
+		if (tangents)
+			TangentGenerator.generate(vertexData);
+		return vertexData;
+	}
+
+	/**
+	 * Make a shape with levels of detail of a vertex data, each with about
+	 * the given fraction of the triangles of the one before. The first level
+	 * is the vertex data itself. There are fewer levels if the mesh cannot
+	 * be simplified further.
+	 *
+	 * @param levels
+	 *            the number of levels, including the vertex data
+	 * @param ratio
+	 *            the fraction of the triangles of a level that the next one
+	 *            keeps, for example 0.5
+	 */
+	public static LodShape makeLodShape(VertexData vertexData, RenderContext renderContext, int levels,
+			float ratio) {
+		MeshSimplifier simplifier = new MeshSimplifier(vertexData);
+		VertexData[] chain = new VertexData[levels];
+		float[] errors = new float[levels];
+		chain[0] = vertexData;
+		int n = 1;
+		for (; n < levels; n++) {
+			int faces = simplifier.getNumberOfFaces();
+			errors[n] = simplifier.simplify((int) (faces * ratio));
+			if (simplifier.getNumberOfFaces() == faces)
+				break;
+			chain[n] = simplifier.toVertexData(renderContext);
+		}
+		return new LodShape(Arrays.copyOf(chain, n), Arrays.copyOf(errors, n));
+	}
+
+	private void addPlane(int v, double a, double b, double c, double d, double w) {
+		int i = Q * v;
+		quadrics[i] += w * a * a;
+		quadrics[i + 1] += w * a * b;
+		quadrics[i + 2] += w * a * c;
+		quadrics[i + 3] += w * a * d;
+		quadrics[i + 4] += w * b * b;
+		quadrics[i + 5] += w * b * c;
+		quadrics[i + 6] += w * b * d;
+		quadrics[i + 7] += w * c * c;
+		quadrics[i + 8] += w * c * d;
+		quadrics[i + 9] += w * d * d;
+		quadrics[i + 10] += w;
+	}
+
+	/**
+	 * Returns the cost of collapsing the edge between two vertices, given by
+	 * their original numbers, and stores the position that minimizes the
+	 * sum of their quadrics in this.position. If the quadric has no unique
+	 * minimum, the best of the two vertices and their midpoint is taken.
+	 */
+	private double evaluate(int idA, int idB) {
+		for (int i = 0; i < Q; i++)
+			q[i] = quadrics[Q * idA + i] + quadrics[Q * idB + i];
+		double c00 = q[4] * q[7] - q[5] * q[5], c01 = q[2] * q[5] - q[1] * q[7], c02 = q[1] * q[5] - q[2] * q[4];
+		double det = q[0] * c00 + q[1] * c01 + q[2] * c02;
+		double trace = q[0] + q[4] + q[7];
+		if (Math.abs(det) > 1e-9 * trace * trace * trace) {
+			// Cramer's rule with the cofactors of the symmetric matrix
+			double c11 = q[0] * q[7] - q[2] * q[2], c12 = q[1] * q[2] - q[0] * q[5], c22 = q[0] * q[4] - q[1] * q[1];
+			position[0] = -(c00 * q[3] + c01 * q[6] + c02 * q[8]) / det;
+			position[1] = -(c01 * q[3] + c11 * q[6] + c12 * q[8]) / det;
+			position[2] = -(c02 * q[3] + c12 * q[6] + c22 * q[8]) / det;
+			return Math.max(0, cost(position[0], position[1], position[2]));
+		}
+
+		float[] p = mesh.getPositions();
+		int a = 3 * vertexOfId[idA], b = 3 * vertexOfId[idB];
+		double best = Double.MAX_VALUE;
+		for (double t = 0; t <= 1; t += 0.5) {
+			double x = p[a] + t * (p[b] - p[a]), y = p[a + 1] + t * (p[b + 1] - p[a + 1]),
+					z = p[a + 2] + t * (p[b + 2] - p[a + 2]);
+			double cost = cost(x, y, z);
+			if (cost < best) {
+				best = cost;
+				position[0] = x;
+				position[1] = y;
+				position[2] = z;
+			}
+		}
+		return Math.max(0, best);
+	}
+
+	private double cost(double x, double y, double z) {
+		return q[0] * x * x + 2 * q[1] * x * y + 2 * q[2] * x * z + 2 * q[3] * x + q[4] * y * y + 2 * q[5] * y * z
+				+ 2 * q[6] * y + q[7] * z * z + 2 * q[8] * z + q[9];
+	}
+
+	/**
+	 * Returns whether moving both vertices of the edge of a half-edge to a
+	 * position turns one of the remaining triangles around them over.
+	 */
+	private boolean turnsOver(int h, float x, float y, float z) {
+		int f = HalfEdgeMesh.face(h), g = mesh.isBorder(h) ? -1 : HalfEdgeMesh.face(mesh.twin(h));
+		float[] p = mesh.getPositions();
+		for (int k = 0; k < 2; k++) {
+			int v = k == 0 ? mesh.origin(h) : mesh.target(h);
+			int start = mesh.outgoing(v), e = start;
+			do {
+				int face = HalfEdgeMesh.face(e);
+				if (face != f && face != g) {
+					int b = 3 * mesh.target(e), c = 3 * mesh.origin(HalfEdgeMesh.prev(e)), a = 3 * v;
+					float bx = p[b] - p[c], by = p[b + 1] - p[c + 1], bz = p[b + 2] - p[c + 2];
+					float ox = p[a] - p[c], oy = p[a + 1] - p[c + 1], oz = p[a + 2] - p[c + 2];
+					float nx = x - p[c], ny = y - p[c + 1], nz = z - p[c + 2];
+					// Normals of the triangle before and after, with the
+					// same edge opposite to v
+					float n1x = by * oz - bz * oy, n1y = bz * ox - bx * oz, n1z = bx * oy - by * ox;
+					float n2x = by * nz - bz * ny, n2y = bz * nx - bx * nz, n2z = bx * ny - by * nx;
+					if (n1x * n2x + n1y * n2y + n1z * n2z <= 0)
+						return true;
+				}
+				e = mesh.nextOutgoing(e);
+			} while (e >= 0 && e != start);
+		}
+		return false;
+	}
+
+	private void push(int idA, int idB) {
+		if (heapSize == heapCost.length) {
+			int n = heapSize + heapSize / 2;
+			heapCost = Arrays.copyOf(heapCost, n);
+			heapEdge = Arrays.copyOf(heapEdge, n);
+			heapVersion = Arrays.copyOf(heapVersion, n);
+		}
+		double cost = evaluate(idA, idB);
+		long edge = (long) idA << 32 | idB & 0xFFFFFFFFL;
+		long versions = (long) version[idA] << 32 | version[idB] & 0xFFFFFFFFL;
+		int i = heapSize++;
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (heapCost[parent] <= cost)
+				break;
+			heapCost[i] = heapCost[parent];
+			heapEdge[i] = heapEdge[parent];
+			heapVersion[i] = heapVersion[parent];
+			i = parent;
+		}
+		heapCost[i] = cost;
+		heapEdge[i] = edge;
+		heapVersion[i] = versions;
+	}
+
+	/**
+	 * Remove the first entry of the heap.
+	 */
+	private void pop() {
+		int n = --heapSize;
+		double cost = heapCost[n];
+		long edge = heapEdge[n], versions = heapVersion[n];
+		int i = 0;
+		while (2 * i + 1 < n) {
+			int child = 2 * i + 1;
+			if (child + 1 < n && heapCost[child + 1] < heapCost[child])
+				child++;
+			if (cost <= heapCost[child])
+				break;
+			heapCost[i] = heapCost[child];
+			heapEdge[i] = heapEdge[child];
+			heapVersion[i] = heapVersion[child];
+			i = child;
+		}
+		heapCost[i] = cost;
+		heapEdge[i] = edge;
+		heapVersion[i] = versions;
+	}
+}
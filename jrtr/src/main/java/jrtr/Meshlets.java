@@ -0,0 +1,466 @@
+package jrtr;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import javax.vecmath.Matrix4f;
+
+/**
+ * Splits the triangles of vertex data into meshlets, small clusters of at
+ * most {@link #MAX_VERTICES} vertices and {@link #MAX_TRIANGLES} triangles,
+ * so that the render context can skip the meshlets that are outside the
+ * viewing frustum or face away from the camera, see
+ * {@link #cull(Camera, Frustum, Matrix4f)}.
+ * <p>
+ * {@link #build(VertexData)} grows each meshlet from a triangle by adding
+ * the neighboring triangle that needs the fewest new vertices. Of those it
+ * prefers triangles whose vertices have few triangles left, which fills
+ * corners instead of leaving holes, that are close to the center of the
+ * meshlet, and whose normal is close to its average normal, so that
+ * meshlets are compact and mostly flat. The next meshlet starts next to
+ * the last one. The triangles are then reordered meshlet by meshlet, and
+ * the vertices in the order of their first use, so that the triangles of
+ * each meshlet form a range of indices, and their vertices a short range
+ * starting at a base vertex. The render context stores the indices
+ * relative to the base vertex, in 16 bits even for meshes with millions of
+ * vertices, except for the few meshlets that share vertices with meshlets
+ * far back in the order, and draws the visible ranges with
+ * glMultiDrawElementsBaseVertex.
+ * <p>
+ * Each meshlet has a bounding sphere and a normal cone, an axis and the
+ * sine of the largest angle between the axis and a normal of its
+ * triangles. All triangles of a meshlet face away from every point e with
+ * <pre>
+ * dot(center - e, axis) &gt;= sin * |center - e| + radius
+ * </pre>
+ * as in the meshlet culling of meshoptimizer by Arseny Kapoulkine. A
+ * meshlet whose normals spread by 90 degrees or more is never rejected by
+ * its cone. The meshlets are computed for the vertex data as it is; if the
+ * positions or triangles change, they need to be built again.
+ */
+public class Meshlets {
+
+	/**
+	 * The default limits of the vertices and triangles of a meshlet, which
+	 * fit the meshlets of mesh shaders
+	 */
+	public static final int MAX_VERTICES = 64;
+	public static final int MAX_TRIANGLES = 124;
+
+	private final int count;
+	private final int[] firstIndex;
+	private final int[] indexCount;
+	private final int[] baseVertex;
+	private final int[] vertexSpan;
+
+	/**
+	 * Center and radius of the bounding sphere, and the axis and the sine of
+	 * the angle of the normal cone, four floats per meshlet
+	 */
+	private final float[] spheres;
+	private final float[] cones;
+
+	// The visible meshlets of the last cull, and temporaries to avoid
+	// allocating per frame
+	private final int[] visible;
+	private int nVisible;
+	private final Matrix4f m = new Matrix4f();
+	private final float[] planes = new float[24];
+
+	private Meshlets(int count, int[] firstIndex, int[] indexCount, int[] baseVertex, int[] vertexSpan,
+			float[] spheres, float[] cones) {
+		this.count = count;
+		this.firstIndex = firstIndex;
+		this.indexCount = indexCount;
+		this.baseVertex = baseVertex;
+		this.vertexSpan = vertexSpan;
+		this.spheres = spheres;
+		this.cones = cones;
+		visible = new int[count];
+		nVisible = count;
+		for (int i = 0; i < count; i++)
+			visible[i] = i;
+	}
+
+	/**
+	 * Split the triangles of vertex data into meshlets of at most
+	 * {@link #MAX_VERTICES} vertices and {@link #MAX_TRIANGLES} triangles,
+	 * see {@link #build(VertexData, int, int)}.
+	 */
+	public static Meshlets build(VertexData vertexData) {
+		return build(vertexData, MAX_VERTICES, MAX_TRIANGLES);
+	}
+
+	/**
+	 * Split the triangles of vertex data into meshlets, reorder its
+	 * triangles and vertices in place, and set the meshlets of the vertex
+	 * data, see {@link VertexData#getMeshlets()}. All vertex elements are
+	 * permuted and marked as changed.
+	 *
+	 * @param maxVertices
+	 *            the largest number of vertices of a meshlet, at least 3
+	 * @param maxTriangles
+	 *            the largest number of triangles of a meshlet
+	 */
+	public static Meshlets build(VertexData vertexData, int maxVertices, int maxTriangles) {
+		int nVertices = vertexData.getNumberOfVertices();
+		IntBuffer indexBuffer = vertexData.getIndexBuffer();
+		int[] indices = new int[indexBuffer.remaining()];
+		indexBuffer.get(indices);
+		int nTriangles = indices.length / 3;
+		float[] p = positions(vertexData);
+
+		// Unit normals of the triangles, zero for degenerate ones
+		float[] normals = new float[3 * nTriangles];
+		for (int t = 0; t < nTriangles; t++) {
+			int a = 3 * indices[3 * t], b = 3 * indices[3 * t + 1], c = 3 * indices[3 * t + 2];
+			float e1x = p[b] - p[a], e1y = p[b + 1] - p[a + 1], e1z = p[b + 2] - p[a + 2];
+			float e2x = p[c] - p[a], e2y = p[c + 1] - p[a + 1], e2z = p[c + 2] - p[a + 2];
+			float nx = e1y * e2z - e1z * e2y, ny = e1z * e2x - e1x * e2z, nz = e1x * e2y - e1y * e2x;
+			float l = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+			if (l > 0) {
+				normals[3 * t] = nx / l;
+				normals[3 * t + 1] = ny / l;
+				normals[3 * t + 2] = nz / l;
+			}
+		}
+
+		// The triangles of each vertex
+		int[] start = new int[nVertices + 1];
+		for (int v : indices)
+			start[v + 1]++;
+		for (int v = 0; v < nVertices; v++)
+			start[v + 1] += start[v];
+		int[] fill = Arrays.copyOf(start, nVertices);
+		int[] triangles = new int[indices.length];
+		for (int i = 0; i < indices.length; i++)
+			triangles[fill[indices[i]]++] = i / 3;
+
+		// Meshlet numbers plus one, of the vertices in the current meshlet
+		// and of the triangles in its list of candidates
+		int[] vertexStamp = new int[nVertices];
+		int[] candidateStamp = new int[nTriangles];
+		boolean[] emitted = new boolean[nTriangles];
+		int[] live = new int[nVertices];
+		for (int v = 0; v < nVertices; v++)
+			live[v] = start[v + 1] - start[v];
+		int[] candidates = new int[64];
+		int nCandidates = 0;
+
+		int[] order = new int[nTriangles];
+		int[] meshletStart = new int[nTriangles / Math.max(1, maxTriangles) + 16];
+		int nEmitted = 0, nMeshlets = 0, scan = 0;
+		while (nEmitted < nTriangles) {
+			int stamp = nMeshlets + 1;
+			if (nMeshlets + 1 >= meshletStart.length)
+				meshletStart = Arrays.copyOf(meshletStart, 2 * meshletStart.length);
+			meshletStart[nMeshlets++] = nEmitted;
+
+			// Start next to the last meshlet, or at the next triangle in
+			// the original order
+			int seed = -1;
+			for (int i = 0; i < nCandidates && seed < 0; i++)
+				if (!emitted[candidates[i]])
+					seed = candidates[i];
+			if (seed < 0) {
+				while (emitted[scan])
+					scan++;
+				seed = scan;
+			}
+			nCandidates = 0;
+
+			int nMeshletVertices = 0, nMeshletTriangles = 0;
+			float ax = 0, ay = 0, az = 0, sx = 0, sy = 0, sz = 0;
+			int t = seed;
+			while (t >= 0) {
+				emitted[t] = true;
+				order[nEmitted++] = t;
+				nMeshletTriangles++;
+				ax += normals[3 * t];
+				ay += normals[3 * t + 1];
+				az += normals[3 * t + 2];
+				for (int k = 0; k < 3; k++) {
+					int v = indices[3 * t + k];
+					live[v]--;
+					sx += p[3 * v];
+					sy += p[3 * v + 1];
+					sz += p[3 * v + 2];
+					if (vertexStamp[v] != stamp) {
+						vertexStamp[v] = stamp;
+						nMeshletVertices++;
+					}
+					for (int i = start[v]; i < start[v + 1]; i++) {
+						int u = triangles[i];
+						if (!emitted[u] && candidateStamp[u] != stamp) {
+							candidateStamp[u] = stamp;
+							if (nCandidates == candidates.length)
+								candidates = Arrays.copyOf(candidates, 2 * nCandidates);
+							candidates[nCandidates++] = u;
+						}
+					}
+				}
+				if (nMeshletTriangles == maxTriangles)
+					break;
+
+				// The candidate with the fewest new vertices, then the one
+				// with the least distance to the center of the meshlet,
+				// weighted by how far its normal is from the average normal
+				// and by the triangles left at its vertices
+				float cx = sx / (3 * nMeshletTriangles), cy = sy / (3 * nMeshletTriangles),
+						cz = sz / (3 * nMeshletTriangles);
+				float al = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+				t = -1;
+				int bestNew = 4;
+				float bestScore = 0;
+				int kept = 0;
+				for (int i = 0; i < nCandidates; i++) {
+					int u = candidates[i];
+					if (emitted[u])
+						continue;
+					candidates[kept++] = u;
+					int newVertices = 0, liveTriangles = 0;
+					float dx = -3 * cx, dy = -3 * cy, dz = -3 * cz;
+					for (int k = 0; k < 3; k++) {
+						int v = indices[3 * u + k];
+						if (vertexStamp[v] != stamp)
+							newVertices++;
+						liveTriangles += live[v];
+						dx += p[3 * v];
+						dy += p[3 * v + 1];
+						dz += p[3 * v + 2];
+					}
+					if (nMeshletVertices + newVertices > maxVertices || newVertices > bestNew)
+						continue;
+					float dot = al > 0 ? (ax * normals[3 * u] + ay * normals[3 * u + 1] + az * normals[3 * u + 2]) / al : 0;
+					float score = (dx * dx + dy * dy + dz * dz) * (2 - dot) * liveTriangles;
+					if (newVertices < bestNew || score < bestScore) {
+						t = u;
+						bestNew = newVertices;
+						bestScore = score;
+					}
+				}
+				nCandidates = kept;
+			}
+		}
+		meshletStart[nMeshlets] = nTriangles;
+
+		// Reorder the triangles meshlet by meshlet, and the vertices by
+		// their first use
+		int[] reordered = new int[indices.length];
+		for (int i = 0; i < nTriangles; i++)
+			System.arraycopy(indices, 3 * order[i], reordered, 3 * i, 3);
+		int[] remap = MeshOptimizer.remapVertices(reordered, nVertices);
+		for (VertexData.VertexElement e : vertexData.getElements())
+			MeshOptimizer.permute(e, remap);
+		indexBuffer.clear();
+		indexBuffer.put(reordered);
+		vertexData.markDirty(0, nVertices);
+		vertexData.markIndicesDirty(0, reordered.length);
+		p = positions(vertexData);
+
+		int[] firstIndex = new int[nMeshlets], indexCount = new int[nMeshlets], baseVertex = new int[nMeshlets];
+		int[] vertexSpan = new int[nMeshlets];
+		float[] spheres = new float[4 * nMeshlets], cones = new float[4 * nMeshlets];
+		for (int j = 0; j < nMeshlets; j++) {
+			int first = meshletStart[j], end = meshletStart[j + 1];
+			firstIndex[j] = 3 * first;
+			indexCount[j] = 3 * (end - first);
+			int min = Integer.MAX_VALUE, max = 0;
+			float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+			float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+			for (int i = 3 * first; i < 3 * end; i++) {
+				int v = reordered[i];
+				min = Math.min(min, v);
+				max = Math.max(max, v);
+				minX = Math.min(minX, p[3 * v]);
+				minY = Math.min(minY, p[3 * v + 1]);
+				minZ = Math.min(minZ, p[3 * v + 2]);
+				maxX = Math.max(maxX, p[3 * v]);
+				maxY = Math.max(maxY, p[3 * v + 1]);
+				maxZ = Math.max(maxZ, p[3 * v + 2]);
+			}
+			baseVertex[j] = min;
+			vertexSpan[j] = max - min + 1;
+
+			float cx = 0.5f * (minX + maxX), cy = 0.5f * (minY + maxY), cz = 0.5f * (minZ + maxZ);
+			float r2 = 0;
+			for (int i = 3 * first; i < 3 * end; i++) {
+				int v = reordered[i];
+				float dx = p[3 * v] - cx, dy = p[3 * v + 1] - cy, dz = p[3 * v + 2] - cz;
+				r2 = Math.max(r2, dx * dx + dy * dy + dz * dz);
+			}
+			spheres[4 * j] = cx;
+			spheres[4 * j + 1] = cy;
+			spheres[4 * j + 2] = cz;
+			spheres[4 * j + 3] = (float) Math.sqrt(r2);
+
+			// The axis is the average of the normals, the angle the largest
+			// one to a normal
+			float ax = 0, ay = 0, az = 0;
+			for (int i = first; i < end; i++) {
+				ax += normals[3 * order[i]];
+				ay += normals[3 * order[i] + 1];
+				az += normals[3 * order[i] + 2];
+			}
+			float l = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+			float minDot = l > 0 ? 1 : -1;
+			if (l > 0) {
+				ax /= l;
+				ay /= l;
+				az /= l;
+				for (int i = first; i < end; i++) {
+					int t = 3 * order[i];
+					if (normals[t] != 0 || normals[t + 1] != 0 || normals[t + 2] != 0)
+						minDot = Math.min(minDot, ax * normals[t] + ay * normals[t + 1] + az * normals[t + 2]);
+				}
+			}
+			cones[4 * j] = ax;
+			cones[4 * j + 1] = ay;
+			cones[4 * j + 2] = az;
+			cones[4 * j + 3] = minDot <= 0 ? 1 : (float) Math.sqrt(1 - minDot * minDot);
+		}
+
+		Meshlets meshlets = new Meshlets(nMeshlets, firstIndex, indexCount, baseVertex, vertexSpan, spheres,
+				cones);
+		vertexData.setMeshlets(meshlets);
+		return meshlets;
+	}
+
+	public int getNumberOfMeshlets() {
+		return count;
+	}
+
+	/**
+	 * Returns the first index of the triangles of a meshlet.
+	 */
+	public int getFirstIndex(int meshlet) {
+		return firstIndex[meshlet];
+	}
+
+	/**
+	 * Returns the number of indices of the triangles of a meshlet, three
+	 * per triangle.
+	 */
+	public int getIndexCount(int meshlet) {
+		return indexCount[meshlet];
+	}
+
+	/**
+	 * Returns the smallest vertex of a meshlet.
+	 */
+	public int getBaseVertex(int meshlet) {
+		return baseVertex[meshlet];
+	}
+
+	/**
+	 * Returns the difference between the largest and the smallest vertex of
+	 * a meshlet, plus one. If it is at most 65536, its indices relative to
+	 * the base vertex fit into 16 bits.
+	 */
+	public int getVertexSpan(int meshlet) {
+		return vertexSpan[meshlet];
+	}
+
+	/**
+	 * Returns the bounding spheres of the meshlets, the center and radius in
+	 * object coordinates, four floats per meshlet.
+	 */
+	public float[] getSpheres() {
+		return spheres;
+	}
+
+	/**
+	 * Returns the normal cones of the meshlets, the axis and the sine of the
+	 * angle, four floats per meshlet.
+	 */
+	public float[] getCones() {
+		return cones;
+	}
+
+	/**
+	 * Find the meshlets that may be visible, those whose bounding sphere is
+	 * not entirely outside the viewing frustum and whose normal cone does
+	 * not face away from the camera. The tests are done in object
+	 * coordinates and do not allocate.
+	 *
+	 * @param t
+	 *            the transformation of the vertex data to world coordinates
+	 * @return the number of visible meshlets, see {@link #getVisible()}
+	 */
+	public int cull(Camera camera, Frustum frustum, Matrix4f t) {
+		// The planes of the frustum in object coordinates, from the rows of
+		// the product of projection and modelview, as in Gribb and Hartmann,
+		// "Fast Extraction of Viewing Frustum Planes" (2001), normalized
+		m.mul(camera.getCameraMatrix(), t);
+		m.mul(frustum.getProjectionMatrix(), m);
+		for (int k = 0; k < 6; k++) {
+			int row = k / 2;
+			float sign = k % 2 == 0 ? 1 : -1;
+			float a = m.getElement(3, 0) + sign * m.getElement(row, 0);
+			float b = m.getElement(3, 1) + sign * m.getElement(row, 1);
+			float c = m.getElement(3, 2) + sign * m.getElement(row, 2);
+			float d = m.getElement(3, 3) + sign * m.getElement(row, 3);
+			float l = (float) Math.sqrt(a * a + b * b + c * c);
+			if (l > 0) {
+				a /= l;
+				b /= l;
+				c /= l;
+				d /= l;
+			}
+			planes[4 * k] = a;
+			planes[4 * k + 1] = b;
+			planes[4 * k + 2] = c;
+			planes[4 * k + 3] = d;
+		}
+
+		// The camera in object coordinates
+		m.mul(camera.getCameraMatrix(), t);
+		m.invert();
+		float ex = m.m03, ey = m.m13, ez = m.m23;
+
+		nVisible = 0;
+		for (int j = 0; j < count; j++) {
+			float cx = spheres[4 * j], cy = spheres[4 * j + 1], cz = spheres[4 * j + 2], r = spheres[4 * j + 3];
+			boolean inside = true;
+			for (int k = 0; k < 24 && inside; k += 4)
+				inside = planes[k] * cx + planes[k + 1] * cy + planes[k + 2] * cz + planes[k + 3] >= -r;
+			if (!inside)
+				continue;
+			float vx = cx - ex, vy = cy - ey, vz = cz - ez;
+			float d = (float) Math.sqrt(vx * vx + vy * vy + vz * vz);
+			if (vx * cones[4 * j] + vy * cones[4 * j + 1] + vz * cones[4 * j + 2] >= cones[4 * j + 3] * d + r)
+				continue;
+			visible[nVisible++] = j;
+		}
+		return nVisible;
+	}
+
+	/**
+	 * Returns the meshlets found visible by the last
+	 * {@link #cull(Camera, Frustum, Matrix4f)}, in the first
+	 * {@link #getNumberOfVisible()} elements, or all meshlets if it was
+	 * not called yet.
+	 */
+	public int[] getVisible() {
+		return visible;
+	}
+
+	public int getNumberOfVisible() {
+		return nVisible;
+	}
+
+	private static float[] positions(VertexData vertexData) {
+		for (VertexData.VertexElement e : vertexData.getElements()) {
+			if (e.getSemantic() == VertexData.Semantic.POSITION) {
+				if (e.getData() != null)
+					return e.getData();
+				FloatBuffer buffer = e.getBuffer();
+				float[] f = new float[buffer.remaining()];
+				buffer.get(f);
+				return f;
+			}
+		}
+		throw new IllegalArgumentException("Meshlets need positions");
+	}
+}
@@ -0,0 +1,337 @@
+package jrtr;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.stream.IntStream;
+
+/**
+ * Computes the vertex normals of indexed triangle meshes from the normals of
+ * their triangles, weighted by the area of the triangles or by the angles of
+ * their corners at the vertex. The normals are written to the NORMAL element
+ * of the vertex data.
+ * <p>
+ * The generator finds the corners of the triangles at each vertex once, when
+ * it is constructed. Each call to {@link #generate(Weighting)} then computes
+ * the triangle normals in parallel over the triangles, and sums them in
+ * parallel over the vertices, each vertex reading the normals of its own
+ * corners. This needs neither atomic updates nor partial sums per thread,
+ * the result does not depend on the number of threads, and the arrays are
+ * reused, so that normals can be computed every frame for a mesh that
+ * deforms but keeps its triangles.
+ * <p>
+ * {@link #splitCreases(VertexData, Weighting, float, RenderContext)} also
+ * splits the vertices at sharp edges, so that each side gets its own
+ * normal.
+ */
+public class NormalGenerator {
+
+	/**
+	 * How the normals of the triangles at a vertex are weighted.
+	 */
+	public enum Weighting {
+		/**
+		 * By the area of the triangles, the fastest
+		 */
+		AREA,
+		/**
+		 * By the angle of the corner of the triangles at the vertex, which
+		 * does not depend on how the surface is split into triangles
+		 */
+		ANGLE
+	}
+
+	private final VertexData vertexData;
+	private final int nVertices;
+	private final int[] indices;
+
+	/**
+	 * The corners of the triangles at each vertex, in
+	 * corners[cornerStart[v], cornerStart[v+1])
+	 */
+	private final int[] cornerStart;
+	private final int[] corners;
+
+	/**
+	 * The positions, the normals of the triangles with a length of twice
+	 * their area, the angle at each corner divided by that length, and the
+	 * vertex normals
+	 */
+	private float[] positions;
+	private final float[] faceNormals;
+	private float[] angles;
+	private final float[] normals;
+
+	/**
+	 * Makes a generator for the triangles of a vertex data. The triangles
+	 * must not change afterwards, the positions may.
+	 */
+	public NormalGenerator(VertexData vertexData) {
+		this.vertexData = vertexData;
+		nVertices = vertexData.getNumberOfVertices();
+		IntBuffer indexBuffer = vertexData.getIndexBuffer();
+		indices = new int[indexBuffer.remaining()];
+		indexBuffer.get(indices);
+
+		cornerStart = new int[nVertices + 1];
+		for (int v : indices)
+			cornerStart[v + 1]++;
+		for (int v = 0; v < nVertices; v++)
+			cornerStart[v + 1] += cornerStart[v];
+		int[] fill = Arrays.copyOf(cornerStart, nVertices);
+		corners = new int[indices.length];
+		for (int c = 0; c < indices.length; c++)
+			corners[fill[indices[c]]++] = c;
+
+		faceNormals = new float[indices.length];
+		normals = new float[3 * nVertices];
+	}
+
+	/**
+	 * Compute the normals of a vertex data, without splitting vertices.
+	 */
+	public static void generate(VertexData vertexData, Weighting weighting) {
+		new NormalGenerator(vertexData).generate(weighting);
+	}
+
+	/**
+	 * Compute the vertex normals from the current positions and write them
+	 * to the NORMAL element. The element is added if there is none,
+	 * otherwise its array or buffer is overwritten and marked as changed.
+	 */
+	public void generate(Weighting weighting) {
+		computeFaceNormals(weighting);
+		IntStream.range(0, nVertices).parallel().forEach(v -> {
+			float x = 0, y = 0, z = 0;
+			for (int i = cornerStart[v]; i < cornerStart[v + 1]; i++) {
+				int c = corners[i];
+				float w = weight(c, weighting);
+				x += w * faceNormals[3 * (c / 3)];
+				y += w * faceNormals[3 * (c / 3) + 1];
+				z += w * faceNormals[3 * (c / 3) + 2];
+			}
+			setNormal(normals, v, x, y, z);
+		});
+		writeNormals();
+	}
+
+	/**
+	 * Compute the normals of a vertex data, and split the vertices at creases
+	 * where the normals of the triangles at a vertex differ by more than a
+	 * given angle. The corners of a vertex whose triangle normals differ by
+	 * less, directly or through other corners of the vertex, keep one
+	 * vertex. If no vertex has to be split, the normals are written to the
+	 * vertex data as in {@link #generate(Weighting)}. Otherwise a new vertex
+	 * data is returned, with the vertices to split copied with all their
+	 * elements, after the vertices of the old one. Its elements and indices
+	 * are stored in arrays.
+	 *
+	 * @param creaseAngle
+	 *            the largest angle in degrees between the normals of two
+	 *            triangles that are shaded smoothly
+	 * @return the vertex data with the normals, the given one if no vertex
+	 *         was split
+	 */
+	public static VertexData splitCreases(VertexData vertexData, Weighting weighting, float creaseAngle,
+			RenderContext renderContext) {
+		NormalGenerator g = new NormalGenerator(vertexData);
+		g.computeFaceNormals(weighting);
+		float cosCrease = (float) Math.cos(Math.toRadians(creaseAngle));
+		int[] group = new int[g.indices.length];
+		int[] nGroups = new int[g.nVertices];
+		IntStream.range(0, g.nVertices).parallel().forEach(v -> nGroups[v] = g.groupCorners(v, cosCrease, group));
+
+		// The first group of each vertex keeps the vertex, the others get
+		// new vertices after the old ones
+		int[] firstNew = new int[g.nVertices];
+		int nNew = g.nVertices;
+		for (int v = 0; v < g.nVertices; v++) {
+			firstNew[v] = nNew - 1;
+			nNew += nGroups[v] - 1;
+		}
+		if (nNew == g.nVertices) {
+			g.generate(weighting);
+			return vertexData;
+		}
+
+		int[] vertexOfCorner = new int[g.indices.length];
+		int[] source = new int[nNew];
+		IntStream.range(0, g.nVertices).parallel().forEach(v -> {
+			source[v] = v;
+			for (int i = g.cornerStart[v]; i < g.cornerStart[v + 1]; i++) {
+				int c = g.corners[i];
+				int u = group[c] == 0 ? v : firstNew[v] + group[c];
+				vertexOfCorner[c] = u;
+				source[u] = v;
+			}
+		});
+
+		// Sum the normals of each group
+		float[] normals = new float[3 * nNew];
+		IntStream.range(0, g.nVertices).parallel().forEach(v -> {
+			for (int i = g.cornerStart[v]; i < g.cornerStart[v + 1]; i++) {
+				int c = g.corners[i], u = vertexOfCorner[c];
+				float w = g.weight(c, weighting);
+				for (int k = 0; k < 3; k++)
+					normals[3 * u + k] += w * g.faceNormals[3 * (c / 3) + k];
+			}
+		});
+		IntStream.range(0, nNew).parallel()
+				.forEach(u -> setNormal(normals, u, normals[3 * u], normals[3 * u + 1], normals[3 * u + 2]));
+
+		VertexData split = renderContext.makeVertexData(nNew);
+		boolean hasNormals = false;
+		// Elements other than POSITION are added at the front, add them in
+		// reverse to keep their order
+		Iterator<VertexData.VertexElement> itr = vertexData.getElements().descendingIterator();
+		while (itr.hasNext()) {
+			VertexData.VertexElement e = itr.next();
+			if (e.getSemantic() == VertexData.Semantic.NORMAL && e.getNumberOfComponents() == 3) {
+				split.addElement(normals, e.getSemantic(), 3);
+				hasNormals = true;
+			} else
+				split.addElement(copyVertices(e, source), e.getSemantic(), e.getNumberOfComponents());
+		}
+		if (!hasNormals)
+			split.addElement(normals, VertexData.Semantic.NORMAL, 3);
+		split.addIndices(vertexOfCorner);
+		return split;
+	}
+
+	/**
+	 * Compute the normal of each triangle from the current positions, and
+	 * the angles of its corners if needed.
+	 */
+	private void computeFaceNormals(Weighting weighting) {
+		VertexData.VertexElement position = null;
+		for (VertexData.VertexElement e : vertexData.getElements())
+			if (e.getSemantic() == VertexData.Semantic.POSITION)
+				position = e;
+		if (position == null || position.getNumberOfComponents() != 3)
+			throw new IllegalArgumentException("Normals need positions with three components");
+		if (position.getData() != null)
+			positions = position.getData();
+		else {
+			if (positions == null)
+				positions = new float[3 * nVertices];
+			position.getBuffer().get(positions);
+		}
+		if (weighting == Weighting.ANGLE && angles == null)
+			angles = new float[indices.length];
+
+		float[] p = positions;
+		IntStream.range(0, indices.length / 3).parallel().forEach(f -> {
+			int a = 3 * indices[3 * f], b = 3 * indices[3 * f + 1], c = 3 * indices[3 * f + 2];
+			float abx = p[b] - p[a], aby = p[b + 1] - p[a + 1], abz = p[b + 2] - p[a + 2];
+			float acx = p[c] - p[a], acy = p[c + 1] - p[a + 1], acz = p[c + 2] - p[a + 2];
+			float nx = aby * acz - abz * acy, ny = abz * acx - abx * acz, nz = abx * acy - aby * acx;
+			faceNormals[3 * f] = nx;
+			faceNormals[3 * f + 1] = ny;
+			faceNormals[3 * f + 2] = nz;
+			if (weighting == Weighting.ANGLE) {
+				float bcx = p[c] - p[b], bcy = p[c + 1] - p[b + 1], bcz = p[c + 2] - p[b + 2];
+				// The angle between two edges from the sine, which is the same
+				// for all corners, and the cosine, divided by the length of
+				// the normal to weight the unit normal
+				float sin = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+				float scale = sin > 0 ? 1 / sin : 0;
+				angles[3 * f] = scale * (float) Math.atan2(sin, abx * acx + aby * acy + abz * acz);
+				angles[3 * f + 1] = scale * (float) Math.atan2(sin, -(abx * bcx + aby * bcy + abz * bcz));
+				angles[3 * f + 2] = scale * (float) Math.atan2(sin, acx * bcx + acy * bcy + acz * bcz);
+			}
+		});
+	}
+
+	/**
+	 * Returns the weight of the normal of the triangle of a corner, which
+	 * has a length of twice the area of the triangle.
+	 */
+	private float weight(int c, Weighting weighting) {
+		return weighting == Weighting.AREA ? 1 : angles[c];
+	}
+
+	/**
+	 * Number the groups of corners of a vertex that are shaded smoothly,
+	 * from zero, and return the number of groups. Corners are in one group
+	 * if their triangle normals are within the crease angle, directly or
+	 * through other corners. Reorders the corners of the vertex by group.
+	 */
+	private int groupCorners(int v, float cosCrease, int[] group) {
+		int end = cornerStart[v + 1];
+		// The corners in corners[cornerStart[v], grouped) have a group, the ones
+		// before expanded were compared to the corners without one
+		int grouped = cornerStart[v], nGroups = 0;
+		while (grouped < end) {
+			int expanded = grouped;
+			group[corners[grouped++]] = nGroups;
+			while (expanded < grouped) {
+				int f = corners[expanded++] / 3;
+				for (int k = grouped; k < end; k++) {
+					int c = corners[k];
+					if (cosAngle(f, c / 3) >= cosCrease) {
+						group[c] = nGroups;
+						corners[k] = corners[grouped];
+						corners[grouped++] = c;
+					}
+				}
+			}
+			nGroups++;
+		}
+		return Math.max(nGroups, 1);
+	}
+
+	/**
+	 * Returns the cosine of the angle between the normals of two triangles.
+	 */
+	private float cosAngle(int f, int g) {
+		float ax = faceNormals[3 * f], ay = faceNormals[3 * f + 1], az = faceNormals[3 * f + 2];
+		float bx = faceNormals[3 * g], by = faceNormals[3 * g + 1], bz = faceNormals[3 * g + 2];
+		float l = (float) Math.sqrt((ax * ax + ay * ay + az * az) * (bx * bx + by * by + bz * bz));
+		// Degenerate triangles are shaded with their neighbors
+		return l > 0 ? (ax * bx + ay * by + az * bz) / l : 1;
+	}
+
+	private static void setNormal(float[] normals, int v, float x, float y, float z) {
+		float l = (float) Math.sqrt(x * x + y * y + z * z);
+		if (l > 0) {
+			x /= l;
+			y /= l;
+			z /= l;
+		}
+		normals[3 * v] = x;
+		normals[3 * v + 1] = y;
+		normals[3 * v + 2] = z;
+	}
+
+	/**
+	 * Write the normals to the NORMAL element of the vertex data.
+	 */
+	private void writeNormals() {
+		for (VertexData.VertexElement e : vertexData.getElements()) {
+			if (e.getSemantic() == VertexData.Semantic.NORMAL && e.getNumberOfComponents() == 3) {
+				if (e.getData() != null)
+					System.arraycopy(normals, 0, e.getData(), 0, normals.length);
+				else
+					e.getBuffer().put(normals);
+				vertexData.markDirty(VertexData.Semantic.NORMAL, 0, nVertices);
+				return;
+			}
+		}
+		vertexData.addElement(normals.clone(), VertexData.Semantic.NORMAL, 3);
+	}
+
+	/**
+	 * Copy the values of an element for each new vertex from its source
+	 * vertex.
+	 */
+	private static float[] copyVertices(VertexData.VertexElement e, int[] source) {
+		int dim = e.getNumberOfComponents();
+		FloatBuffer buffer = e.getBuffer();
+		float[] f = new float[dim * source.length];
+		for (int u = 0; u < source.length; u++)
+			for (int k = 0; k < dim; k++)
+				f[dim * u + k] = buffer.get(dim * source[u] + k);
+		return f;
+	}
+}
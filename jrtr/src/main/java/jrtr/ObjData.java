@@ -0,0 +1,96 @@
+package jrtr;
+
+/**
+ * The raw contents of an .obj file, stored in flat, growable arrays. This is
+ * the intermediate representation produced by {@link ObjScanner} before
+ * {@link ObjReader} turns it into {@link VertexData}.
+ * <p>
+ * Faces are stored as nine indices each: the position, texture coordinate and
+ * normal index of each of the three corners. As in the .obj file, indices are
+ * 1-based; missing indices are stored as -1.
+ */
+class ObjData {
+
+	float[] vertices;
+	float[] normals;
+	float[] texCoords;
+	int[] faces;
+	int nVertices, nNormals, nTexCoords, nFaces;
+
+	boolean hasNormalIndices, hasTexCoordIndices;
+
+	// Extents for normalization, initialized the same way as in ObjReader.read
+	float xMin, xMax, yMin, yMax, zMin, zMax;
+
+	ObjData() {
+		vertices = new float[3 * 1024];
+		normals = new float[3 * 1024];
+		texCoords = new float[2 * 1024];
+		faces = new int[9 * 1024];
+		hasNormalIndices = true;
+		hasTexCoordIndices = true;
+		xMin = Float.MAX_VALUE;
+		xMax = Float.MIN_VALUE;
+		yMin = Float.MAX_VALUE;
+		yMax = Float.MIN_VALUE;
+		zMin = Float.MAX_VALUE;
+		zMax = Float.MIN_VALUE;
+	}
+
+	void addVertex(float x, float y, float z) {
+		if (3 * nVertices + 3 > vertices.length)
+			vertices = grow(vertices);
+		vertices[3 * nVertices] = x;
+		vertices[3 * nVertices + 1] = y;
+		vertices[3 * nVertices + 2] = z;
+		nVertices++;
+
+		// Update extent
+		if (x < xMin) xMin = x;
+		if (x > xMax) xMax = x;
+		if (y < yMin) yMin = y;
+		if (y > yMax) yMax = y;
+		if (z < zMin) zMin = z;
+		if (z > zMax) zMax = z;
+	}
+
+	void addNormal(float x, float y, float z) {
+		if (3 * nNormals + 3 > normals.length)
+			normals = grow(normals);
+		normals[3 * nNormals] = x;
+		normals[3 * nNormals + 1] = y;
+		normals[3 * nNormals + 2] = z;
+		nNormals++;
+	}
+
+	void addTexCoord(float u, float v) {
+		if (2 * nTexCoords + 2 > texCoords.length)
+			texCoords = grow(texCoords);
+		texCoords[2 * nTexCoords] = u;
+		texCoords[2 * nTexCoords + 1] = v;
+		nTexCoords++;
+	}
+
+	/**
+	 * Appends a face whose nine indices are all zero and returns the offset of
+	 * its first index in {@link #faces}.
+	 */
+	int addFace() {
+		if (9 * nFaces + 9 > faces.length) {
+			int[] f = new int[2 * faces.length];
+			System.arraycopy(faces, 0, f, 0, 9 * nFaces);
+			faces = f;
+		}
+		int offset = 9 * nFaces;
+		for (int k = 0; k < 9; k++)
+			faces[offset + k] = 0;
+		nFaces++;
+		return offset;
+	}
+
+	private static float[] grow(float[] a) {
+		float[] b = new float[2 * a.length];
+		System.arraycopy(a, 0, b, 0, a.length);
+		return b;
+	}
+}
@@ -1,7 +1,19 @@
 package jrtr;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
 
 /**
  * Reads on .obj file including normals and texture coordinates.
@@ -200,5 +212,481 @@ public class ObjReader {
 		reader.close();		
 		return vertexData;			
 	}
+
+	/**
+	 * Read an .obj file and return vertex data, like
+	 * {@link #read(String, float, RenderContext)}. Instead of splitting the
+	 * file into strings line by line, the file is memory-mapped and the numbers
+	 * are parsed directly from its bytes. The resulting vertex data is
+	 * identical to the one returned by {@link #read(String, float, RenderContext)}.
+	 * 
+	 * @param fileName 
+	 * 			the file to read.
+	 * @param scale 
+	 * 			scales the object to fit into a cube of the given size
+	 * @return vertex data containing the loaded mesh
+	 * 			
+	 * @throws IOException
+	 */
+	public static VertexData readMapped(String fileName, float scale, RenderContext renderContext) 
+			throws IOException
+	{
+		ObjData data = new ObjData();
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ))
+		{
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE)
+				throw new IOException("File " + fileName + " is too large to be mapped at once");
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			new ObjScanner(buffer, 0, (int)size).scan(data);
+		}
+		return expand(data, scale, renderContext);
+	}
+
+	/**
+	 * Read an .obj file and return vertex data, like
+	 * {@link #readMapped(String, float, RenderContext)}, but use all cores. The
+	 * file is split into line-aligned byte ranges that are mapped and parsed
+	 * in parallel on the common {@link ForkJoinPool}. The per-range results
+	 * are merged using prefix sums of their record counts, and the expansion
+	 * into the final arrays runs in parallel as well. Files larger than 2 GB
+	 * are supported. The resulting vertex data is identical to the one
+	 * returned by {@link #read(String, float, RenderContext)}.
+	 * 
+	 * @param fileName 
+	 * 			the file to read.
+	 * @param scale 
+	 * 			scales the object to fit into a cube of the given size
+	 * @return vertex data containing the loaded mesh
+	 * 			
+	 * @throws IOException
+	 */
+	public static VertexData readParallel(String fileName, float scale, RenderContext renderContext) 
+			throws IOException
+	{
+		ObjData data = parseParallel(fileName);
+		float[] transform = normalization(data, scale);
+		VertexData vertexData = makeExpanded(data, renderContext);
+		float[][] arrays = expandedArrays(vertexData);
+		int[] indices = vertexData.getIndices();
+		int nBlocks = (data.nFaces + EXPAND_BLOCK_SIZE - 1) / EXPAND_BLOCK_SIZE;
+		IntStream.range(0, nBlocks).parallel().forEach(k -> {
+			int first = k*EXPAND_BLOCK_SIZE;
+			expand(data, first, Math.min(EXPAND_BLOCK_SIZE, data.nFaces - first), transform, arrays, indices);
+		});
+		return vertexData;
+	}
+
+	/**
+	 * Read an .obj file and return vertex data in which vertices are shared
+	 * between faces. Unlike the other read methods, which make a separate
+	 * vertex for each face corner, face corners that refer to the same
+	 * position, texture coordinate and normal are welded into a single vertex.
+	 * The triangles are the same as with {@link #read(String, float, RenderContext)},
+	 * but the vertex data is typically several times smaller, by the ratio
+	 * of {@link VertexData#getNumberOfIndices()} to
+	 * {@link VertexData#getNumberOfVertices()}. The file is
+	 * parsed as in {@link #readParallel(String, float, RenderContext)}.
+	 * 
+	 * @param fileName 
+	 * 			the file to read.
+	 * @param scale 
+	 * 			scales the object to fit into a cube of the given size
+	 * @return vertex data containing the loaded mesh
+	 * 			
+	 * @throws IOException
+	 */
+	public static VertexData readIndexed(String fileName, float scale, RenderContext renderContext) 
+			throws IOException
+	{
+		return readIndexed(fileName, scale, renderContext, false);
+	}
+	
+	/**
+	 * Read an .obj file like {@link #readIndexed(String, float, RenderContext)},
+	 * and optionally generate tangents for normal mapping with 
+	 * {@link TangentGenerator}. Tangents are only generated if the file has
+	 * texture coordinates, and normals are generated first if it has none.
+	 * 
+	 * @param fileName 
+	 * 			the file to read.
+	 * @param scale 
+	 * 			scales the object to fit into a cube of the given size
+	 * @param tangents
+	 * 			whether to generate tangents
+	 * @return vertex data containing the loaded mesh
+	 * 			
+	 * @throws IOException
+	 */
+	public static VertexData readIndexed(String fileName, float scale, RenderContext renderContext,
+			boolean tangents) throws IOException
+	{
+		ObjData data = parseParallel(fileName);
+		float[] transform = normalization(data, scale);
+		boolean hasNormals = data.nNormals > 0;
+		boolean hasTexCoords = data.nTexCoords > 0;
+
+		// Give each distinct combination of position, texture coordinate and
+		// normal index a vertex number, in the order of first occurrence
+		int nCorners = data.nFaces*3;
+		int[] faces = data.faces;
+		int[] indices = new int[nCorners];
+		int[] corners = new int[nCorners];		// The first corner of each vertex
+		VertexMap map = new VertexMap(nCorners);
+		int nVertices = 0;
+		for(int corner=0; corner<nCorners; corner++)
+		{
+			int v = faces[corner*3];
+			int t = !hasTexCoords ? 0 : data.hasTexCoordIndices ? faces[corner*3+1] : v;
+			int n = !hasNormals ? 0 : data.hasNormalIndices ? faces[corner*3+2] : v;
+			int vertexNr = map.putIfAbsent(v, t, n, nVertices);
+			if(vertexNr == nVertices)
+				corners[nVertices++] = corner;
+			indices[corner] = vertexNr;
+		}
+		
+		// Copy the attributes of the first corner of each vertex
+		VertexData vertexData = renderContext.makeVertexData(nVertices);
+		float[][] arrays = new float[3][];
+		arrays[0] = new float[nVertices*3];
+		arrays[1] = hasNormals ? new float[nVertices*3] : null;
+		arrays[2] = hasTexCoords ? new float[nVertices*2] : null;
+		int vertexCount = nVertices;
+		int nBlocks = (vertexCount + EXPAND_BLOCK_SIZE - 1) / EXPAND_BLOCK_SIZE;
+		IntStream.range(0, nBlocks).parallel().forEach(k -> {
+			int last = Math.min((k+1)*EXPAND_BLOCK_SIZE, vertexCount);
+			for(int vertexNr=k*EXPAND_BLOCK_SIZE; vertexNr<last; vertexNr++)
+				expandCorner(data, corners[vertexNr], vertexNr, transform, arrays);
+		});
+		
+		vertexData.addElement(arrays[0], VertexData.Semantic.POSITION, 3);
+		if(hasNormals)
+			vertexData.addElement(arrays[1], VertexData.Semantic.NORMAL, 3);
+		if(hasTexCoords)
+			vertexData.addElement(arrays[2], VertexData.Semantic.TEXCOORD, 2);
+		vertexData.addIndices(indices);
+		if(tangents && hasTexCoords)
+			TangentGenerator.generate(vertexData);
+		return vertexData;
+	}
+	
+	/**
+	 * Parse an .obj file in parallel, as described in 
+	 * {@link #readParallel(String, float, RenderContext)}.
+	 */
+	private static ObjData parseParallel(String fileName) throws IOException
+	{
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		ObjData[] chunks;
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ))
+		{
+			// Split the file into ranges of whole lines
+			long size = channel.size();
+			int nChunks = (int)Math.min(Math.max(1, size / MIN_CHUNK_SIZE), 4L * pool.getParallelism());
+			nChunks = (int)Math.max(nChunks, size / MAX_CHUNK_SIZE + 1);
+			long[] bounds = new long[nChunks + 1];
+			for(int k=1; k<nChunks; k++)
+				bounds[k] = Math.max(bounds[k-1], nextLine(channel, k * (size / nChunks), size));
+			bounds[nChunks] = size;
+			
+			// Parse the ranges in parallel
+			List<Callable<ObjData>> tasks = new ArrayList<Callable<ObjData>>(nChunks);
+			for(int k=0; k<nChunks; k++)
+			{
+				final long start = bounds[k];
+				final long length = bounds[k+1] - bounds[k];
+				if(length > Integer.MAX_VALUE)
+					throw new IOException("File " + fileName + " contains a line that is too long");
+				tasks.add(() -> {
+					ObjData data = new ObjData();
+					MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+					new ObjScanner(buffer, 0, (int)length).scan(data);
+					return data;
+				});
+			}
+			chunks = invokeAll(pool, tasks).toArray(new ObjData[nChunks]);
+		}
+		if(chunks.length == 1)
+			return chunks[0];
+		
+		// Merge the arrays at the prefix sums of their counts, and reduce the
+		// extents and index flags of the chunks. Indices in the obj file are
+		// global, so the faces can be copied as they are.
+		ObjData merged = new ObjData();
+		int[] vertexOffset = new int[chunks.length];
+		int[] normalOffset = new int[chunks.length];
+		int[] texCoordOffset = new int[chunks.length];
+		int[] faceOffset = new int[chunks.length];
+		for(int k=0; k<chunks.length; k++)
+		{
+			ObjData c = chunks[k];
+			vertexOffset[k] = merged.nVertices;
+			normalOffset[k] = merged.nNormals;
+			texCoordOffset[k] = merged.nTexCoords;
+			faceOffset[k] = merged.nFaces;
+			merged.nVertices += c.nVertices;
+			merged.nNormals += c.nNormals;
+			merged.nTexCoords += c.nTexCoords;
+			merged.nFaces += c.nFaces;
+			merged.hasNormalIndices &= c.hasNormalIndices;
+			merged.hasTexCoordIndices &= c.hasTexCoordIndices;
+			merged.xMin = Math.min(merged.xMin, c.xMin);
+			merged.xMax = Math.max(merged.xMax, c.xMax);
+			merged.yMin = Math.min(merged.yMin, c.yMin);
+			merged.yMax = Math.max(merged.yMax, c.yMax);
+			merged.zMin = Math.min(merged.zMin, c.zMin);
+			merged.zMax = Math.max(merged.zMax, c.zMax);
+		}
+		merged.vertices = new float[3*merged.nVertices];
+		merged.normals = new float[3*merged.nNormals];
+		merged.texCoords = new float[2*merged.nTexCoords];
+		merged.faces = new int[9*merged.nFaces];
+		IntStream.range(0, chunks.length).parallel().forEach(k -> {
+			ObjData c = chunks[k];
+			System.arraycopy(c.vertices, 0, merged.vertices, 3*vertexOffset[k], 3*c.nVertices);
+			System.arraycopy(c.normals, 0, merged.normals, 3*normalOffset[k], 3*c.nNormals);
+			System.arraycopy(c.texCoords, 0, merged.texCoords, 2*texCoordOffset[k], 2*c.nTexCoords);
+			System.arraycopy(c.faces, 0, merged.faces, 9*faceOffset[k], 9*c.nFaces);
+		});
+		return merged;
+	}
+
+	// Number of faces or vertices that are expanded by one parallel task
+	private static final int EXPAND_BLOCK_SIZE = 1 << 16;
+
+	// Minimum and maximum size in bytes of the ranges parsed in parallel
+	private static final long MIN_CHUNK_SIZE = 1 << 20;
+	private static final long MAX_CHUNK_SIZE = 1 << 30;
+	
+	/**
+	 * Returns the position of the first line that starts at or after the
+	 * given position, or the size of the file if there is none.
+	 */
+	private static long nextLine(FileChannel channel, long position, long size) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		if(position > 0)
+			position--;
+		while(position < size)
+		{
+			buffer.clear();
+			int n = channel.read(buffer, position);
+			if(n <= 0)
+				break;
+			for(int i=0; i<n; i++)
+				if(buffer.get(i) == '\n')
+					return position + i + 1;
+			position += n;
+		}
+		return size;
+	}
+	
+	/**
+	 * Run the tasks on the pool and return their results, rethrowing the
+	 * first {@link IOException} that occurred.
+	 */
+	private static <T> List<T> invokeAll(ForkJoinPool pool, List<Callable<T>> tasks) throws IOException
+	{
+		List<T> results = new ArrayList<T>(tasks.size());
+		for(Future<T> future : pool.invokeAll(tasks))
+		{
+			try {
+				results.add(future.get());
+			} catch(ExecutionException e) {
+				if(e.getCause() instanceof IOException)
+					throw (IOException)e.getCause();
+				if(e.getCause() instanceof RuntimeException)
+					throw (RuntimeException)e.getCause();
+				throw new IOException(e.getCause());
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Normalize the parsed mesh and expand it to a single index per vertex,
+	 * exactly as {@link #read(String, float, RenderContext)} does.
+	 */
+	private static VertexData expand(ObjData data, float scale, RenderContext renderContext)
+	{
+		float[] transform = normalization(data, scale);
+		VertexData vertexData = makeExpanded(data, renderContext);
+		expand(data, 0, data.nFaces, transform, expandedArrays(vertexData), vertexData.getIndices());
+		return vertexData;
+	}
+
+	/**
+	 * Compute the translation and scale that make the mesh fit into a cube of
+	 * the given size.
+	 * 
+	 * @return the translation in x, y, z and the scale factor
+	 */
+	private static float[] normalization(ObjData data, float scale)
+	{
+		float xTrans = -(data.xMax+data.xMin)/2;
+		float yTrans = -(data.yMax+data.yMin)/2;
+		float zTrans = -(data.zMax+data.zMin)/2;
+		float xScale = 2/(data.xMax-data.xMin);
+		float yScale = 2/(data.yMax-data.yMin);
+		float zScale = 2/(data.zMax-data.zMin);
+		float s = yScale;
+		if(xScale < yScale) s = xScale;
+		if(zScale < s) s = zScale;
+		return new float[] {xTrans, yTrans, zTrans, s*scale};
+	}
+	
+	/**
+	 * Make vertex data with one vertex per face corner and allocate its
+	 * (still empty) arrays.
+	 */
+	private static VertexData makeExpanded(ObjData data, RenderContext renderContext)
+	{
+		int nFaces = data.nFaces;
+		VertexData vertexData = renderContext.makeVertexData(nFaces*3);
+		vertexData.addElement(new float[nFaces*9], VertexData.Semantic.POSITION, 3);
+		if(data.nNormals>0)
+			vertexData.addElement(new float[nFaces*9], VertexData.Semantic.NORMAL, 3);
+		if(data.nTexCoords>0)
+			vertexData.addElement(new float[nFaces*6], VertexData.Semantic.TEXCOORD, 2);
+		vertexData.addIndices(new int[nFaces*3]);
+		return vertexData;
+	}
+	
+	/**
+	 * Returns the position, normal and texture coordinate arrays of vertex
+	 * data made by {@link #makeExpanded}. Missing arrays are null.
+	 */
+	private static float[][] expandedArrays(VertexData vertexData)
+	{
+		float[][] arrays = new float[3][];
+		for(VertexData.VertexElement e : vertexData.getElements())
+		{
+			switch(e.getSemantic()) {
+			case POSITION:
+				arrays[0] = e.getData();
+				break;
+			case NORMAL:
+				arrays[1] = e.getData();
+				break;
+			case TEXCOORD:
+				arrays[2] = e.getData();
+				break;
+			default:
+				break;
+			}
+		}
+		return arrays;
+	}
+	
+	/**
+	 * Expand faces, that is, copy the attributes of each face corner into the
+	 * arrays of the vertex data. The vertex number of a corner is its position
+	 * in the list of all face corners.
+	 * 
+	 * @param data
+	 * 			the parsed mesh
+	 * @param firstFace
+	 * 			the first face to expand
+	 * @param nFaces
+	 * 			the number of faces to expand
+	 * @param transform
+	 * 			the normalization computed by {@link #normalization}
+	 * @param arrays
+	 * 			the arrays returned by {@link #expandedArrays}
+	 * @param indices
+	 * 			the index array of the vertex data
+	 */
+	private static void expand(ObjData data, int firstFace, int nFaces, float[] transform, float[][] arrays, int[] indices)
+	{
+		for(int corner=firstFace*3; corner<(firstFace+nFaces)*3; corner++)
+		{
+			expandCorner(data, corner, corner, transform, arrays);
+			indices[corner] = corner;
+		}
+	}
+	
+	/**
+	 * Copy the normalized attributes of a face corner to a vertex. 
+	 */
+	private static void expandCorner(ObjData data, int corner, int vertexNr, float[] transform, float[][] arrays)
+	{
+		// Indices of this corner, the obj file is 1-based
+		int v = data.faces[corner*3]-1;
+		int t = data.faces[corner*3+1]-1;
+		int n = data.faces[corner*3+2]-1;
+		
+		float[] verticesFinal = arrays[0];
+		float scale = transform[3];
+		verticesFinal[vertexNr*3] = scale*(data.vertices[v*3]+transform[0]);
+		verticesFinal[vertexNr*3+1] = scale*(data.vertices[v*3+1]+transform[1]);
+		verticesFinal[vertexNr*3+2] = scale*(data.vertices[v*3+2]+transform[2]);
+		
+		float[] normalsFinal = arrays[1];
+		if(normalsFinal != null)
+		{
+			if(!data.hasNormalIndices)
+				n = v;
+			normalsFinal[vertexNr*3] = data.normals[n*3];
+			normalsFinal[vertexNr*3+1] = data.normals[n*3+1];
+			normalsFinal[vertexNr*3+2] = data.normals[n*3+2];
+		}
+		
+		float[] texCoordsFinal = arrays[2];
+		if(texCoordsFinal != null)
+		{
+			if(!data.hasTexCoordIndices)
+				t = v;
+			texCoordsFinal[vertexNr*2] = data.texCoords[t*2];
+			texCoordsFinal[vertexNr*2+1] = data.texCoords[t*2+1];
+		}
+	}
+	
+	/**
+	 * A hash map from the (position, texture coordinate, normal) indices of a
+	 * face corner to a vertex number. Uses open addressing with linear probing
+	 * on primitive arrays, so adding a corner does not allocate.
+	 */
+	private static class VertexMap
+	{
+		private final int[] keys;
+		private final int[] values;
+		private final int mask;
+		
+		/**
+		 * @param capacity
+		 * 			the maximum number of entries
+		 */
+		VertexMap(int capacity)
+		{
+			int size = Integer.highestOneBit(Math.max(2*capacity, 16) - 1) << 1;
+			keys = new int[3*size];
+			values = new int[size];
+			Arrays.fill(values, -1);
+			mask = size - 1;
+		}
+		
+		/**
+		 * Returns the vertex number of the given indices. If there is none,
+		 * stores and returns the given number.
+		 */
+		int putIfAbsent(int v, int t, int n, int vertexNr)
+		{
+			int h = v * 0x9E3779B1 + t * 0x85EBCA77 + n * 0xC2B2AE3D;
+			int slot = (h ^ (h >>> 15)) & mask;
+			while(values[slot] != -1)
+			{
+				if(keys[3*slot] == v && keys[3*slot+1] == t && keys[3*slot+2] == n)
+					return values[slot];
+				slot = (slot + 1) & mask;
+			}
+			keys[3*slot] = v;
+			keys[3*slot+1] = t;
+			keys[3*slot+2] = n;
+			values[slot] = vertexNr;
+			return vertexNr;
+		}
+	}
 }
- 
\ No newline at end of file
@@ -0,0 +1,294 @@
+package jrtr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses the lines of an .obj file directly from the bytes of a (typically
+ * memory-mapped) {@link ByteBuffer}, without creating any intermediate
+ * strings. Numbers are parsed in place. The scanner accepts the same input as
+ * {@link ObjReader#read(String, float, RenderContext)} and produces
+ * bit-identical values, in particular floats are rounded exactly like
+ * {@link Float#valueOf(String)}.
+ */
+class ObjScanner {
+
+	// Powers of ten that are exactly representable as doubles
+	private static final double[] POW10 = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6,
+			1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18,
+			1e19, 1e20, 1e21, 1e22 };
+
+	private final ByteBuffer buffer;
+	private final int end;
+	private int pos;
+
+	/**
+	 * Make a scanner for the bytes in [start, end) of the buffer. The range
+	 * must start at the beginning of a line.
+	 */
+	ObjScanner(ByteBuffer buffer, int start, int end) {
+		this.buffer = buffer;
+		this.pos = start;
+		this.end = end;
+	}
+
+	/**
+	 * Parse all lines in the range of this scanner and append the records to
+	 * the given data.
+	 */
+	void scan(ObjData data) throws IOException {
+		while (pos < end) {
+			int lineStart = pos;
+			int c = buffer.get(pos);
+			if (c == 'v') {
+				int c1 = peek(pos + 1);
+				if (isBlank(c1) || isLineEnd(c1)) {
+					pos++;
+					data.addVertex(nextFloat(lineStart), nextFloat(lineStart), nextFloat(lineStart));
+				} else if (c1 == 'n' && (isBlank(peek(pos + 2)) || isLineEnd(peek(pos + 2)))) {
+					pos += 2;
+					data.addNormal(nextFloat(lineStart), nextFloat(lineStart), nextFloat(lineStart));
+				} else if (c1 == 't' && (isBlank(peek(pos + 2)) || isLineEnd(peek(pos + 2)))) {
+					pos += 2;
+					data.addTexCoord(nextFloat(lineStart), nextFloat(lineStart));
+				} else {
+					unknownToken(lineStart);
+				}
+			} else if (c == 'f' && (isBlank(peek(pos + 1)) || isLineEnd(peek(pos + 1)))) {
+				pos++;
+				face(data, lineStart);
+			} else if (!isBlank(c) && !isLineEnd(c) && c != '#') {
+				// Lines starting with white space, empty lines and comments
+				// are ignored, everything else is reported
+				unknownToken(lineStart);
+			}
+			skipLine();
+		}
+	}
+
+	/**
+	 * Parse the three corners of a face.
+	 */
+	private void face(ObjData data, int lineStart) throws IOException {
+		int offset = data.addFace();
+		int i = 0;
+		while (true) {
+			skipBlanks();
+			if (pos >= end || isLineEnd(buffer.get(pos)))
+				break;
+			if (i == 3)
+				throw new IOException("Only triangles are supported: '" + line(lineStart) + "'");
+
+			// Locate the (up to three) '/' separated fields of the corner
+			int[] f = cornerFields;
+			int nFields = 0;
+			f[0] = pos;
+			while (pos < end && !isBlank(buffer.get(pos)) && !isLineEnd(buffer.get(pos))) {
+				if (buffer.get(pos) == '/') {
+					nFields++;
+					if (nFields == 3)
+						throw new IOException("Invalid face corner in line '" + line(lineStart) + "'");
+					f[2 * nFields - 1] = pos;
+					f[2 * nFields] = pos + 1;
+				}
+				pos++;
+			}
+			f[2 * nFields + 1] = pos;
+			nFields++;
+
+			// Trailing empty fields are dropped, like String.split does
+			while (nFields > 0 && f[2 * nFields - 2] == f[2 * nFields - 1])
+				nFields--;
+
+			for (int k = 0; k < nFields; k++) {
+				if (f[2 * k] < f[2 * k + 1])
+					data.faces[offset + 3 * i + k] = parseInt(f[2 * k], f[2 * k + 1]);
+				else {
+					data.faces[offset + 3 * i + k] = -1;
+					if (k == 1) data.hasTexCoordIndices = false;
+					if (k == 2) data.hasNormalIndices = false;
+				}
+			}
+			if (nFields == 1) {
+				data.hasTexCoordIndices = false;
+				data.hasNormalIndices = false;
+			}
+			i++;
+		}
+		if (i < 3)
+			throw new IOException("Face with less than three vertices: '" + line(lineStart) + "'");
+	}
+
+	// Start and end positions of the fields of a face corner
+	private final int[] cornerFields = new int[6];
+
+	/**
+	 * Parse the next white space separated token in the current line as a
+	 * float.
+	 */
+	private float nextFloat(int lineStart) throws IOException {
+		skipBlanks();
+		int start = pos;
+		while (pos < end && !isBlank(buffer.get(pos)) && !isLineEnd(buffer.get(pos)))
+			pos++;
+		if (start == pos)
+			throw new IOException("Missing value in line '" + line(lineStart) + "'");
+		return parseFloat(start, pos);
+	}
+
+	/**
+	 * Parse the bytes in [start, end) as a float. Uses exact double arithmetic
+	 * for the common case of at most 15 significant digits and a small
+	 * exponent. Everything else, and the rare case where rounding the double
+	 * to float would be ambiguous, falls back to {@link Float#parseFloat}.
+	 */
+	private float parseFloat(int start, int end) {
+		int i = start;
+		boolean negative = false;
+		int c = buffer.get(i);
+		if (c == '-' || c == '+') {
+			negative = c == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int exponent = 0;
+		boolean digits = false;
+		boolean exact = true;
+		while (i < end && (c = buffer.get(i)) >= '0' && c <= '9') {
+			if (mantissa < 100000000000000000L)
+				mantissa = 10 * mantissa + (c - '0');
+			else {
+				exponent++;
+				if (c != '0') exact = false;
+			}
+			digits = true;
+			i++;
+		}
+		if (i < end && buffer.get(i) == '.') {
+			i++;
+			while (i < end && (c = buffer.get(i)) >= '0' && c <= '9') {
+				if (mantissa < 100000000000000000L) {
+					mantissa = 10 * mantissa + (c - '0');
+					exponent--;
+				} else if (c != '0')
+					exact = false;
+				digits = true;
+				i++;
+			}
+		}
+		if (digits && i < end && ((c = buffer.get(i)) == 'e' || c == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && ((c = buffer.get(i)) == '-' || c == '+')) {
+				negativeExponent = c == '-';
+				i++;
+			}
+			int e = 0;
+			boolean expDigits = false;
+			while (i < end && (c = buffer.get(i)) >= '0' && c <= '9') {
+				if (e < 10000)
+					e = 10 * e + (c - '0');
+				expDigits = true;
+				i++;
+			}
+			if (!expDigits)
+				digits = false;
+			exponent += negativeExponent ? -e : e;
+		}
+
+		if (digits && exact && i == end) {
+			if (mantissa == 0)
+				return negative ? -0.f : 0.f;
+			if (mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+				double d = exponent >= 0 ? mantissa * POW10[exponent] : mantissa / POW10[-exponent];
+				// The double is correctly rounded. Rounding it again to float
+				// gives the correctly rounded float, unless the double lies
+				// exactly half-way between two floats, or in the subnormal
+				// range of floats.
+				long bits = Double.doubleToRawLongBits(d);
+				if ((bits & 0x1fffffffL) != 0x10000000L && d >= Float.MIN_NORMAL)
+					return (float) (negative ? -d : d);
+			}
+		}
+		return Float.parseFloat(string(start, end));
+	}
+
+	/**
+	 * Parse the bytes in [start, end) as an int.
+	 */
+	private int parseInt(int start, int end) {
+		int i = start;
+		boolean negative = false;
+		int c = buffer.get(i);
+		if (c == '-' || c == '+') {
+			negative = c == '-';
+			i++;
+		}
+		long value = 0;
+		if (i < end && end - i <= 10) {
+			while (i < end && (c = buffer.get(i)) >= '0' && c <= '9') {
+				value = 10 * value + (c - '0');
+				i++;
+			}
+			if (negative)
+				value = -value;
+			if (i == end && value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE)
+				return (int) value;
+		}
+		// Let Integer report the error, as ObjReader.read would
+		return Integer.parseInt(string(start, end));
+	}
+
+	private void skipBlanks() {
+		while (pos < end && isBlank(buffer.get(pos)))
+			pos++;
+	}
+
+	/**
+	 * Advance to the beginning of the next line. Lines are terminated by
+	 * "\n", "\r" or "\r\n", like in {@link java.io.BufferedReader#readLine()}.
+	 */
+	private void skipLine() {
+		while (pos < end && !isLineEnd(buffer.get(pos)))
+			pos++;
+		if (pos < end && buffer.get(pos) == '\r')
+			pos++;
+		if (pos < end && buffer.get(pos) == '\n')
+			pos++;
+	}
+
+	private void unknownToken(int lineStart) {
+		System.out.print("Unknown token '".concat(line(lineStart)).concat("'\n"));
+	}
+
+	private String line(int lineStart) {
+		int lineEnd = lineStart;
+		while (lineEnd < end && !isLineEnd(buffer.get(lineEnd)))
+			lineEnd++;
+		return string(lineStart, lineEnd);
+	}
+
+	private String string(int start, int end) {
+		byte[] bytes = new byte[end - start];
+		for (int i = start; i < end; i++)
+			bytes[i - start] = buffer.get(i);
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+
+	private int peek(int i) {
+		return i < end ? buffer.get(i) : '\n';
+	}
+
+	/**
+	 * White space within a line, as matched by the regular expression "\s".
+	 */
+	private static boolean isBlank(int c) {
+		return c == ' ' || c == '\t' || c == 0x0b || c == '\f';
+	}
+
+	private static boolean isLineEnd(int c) {
+		return c == '\n' || c == '\r';
+	}
+}
@@ -0,0 +1,739 @@
+package jrtr;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Point3f;
+
+/**
+ * Displays meshes that are too large to be held in memory. A mesh is first
+ * partitioned into chunks with {@link #partition}, which streams the .obj
+ * file through temporary files and writes the triangles of each cell of a
+ * uniform grid into a chunk file. At render time, {@link #update(Camera)}
+ * keeps the chunks closest to the camera resident as shapes of a scene
+ * manager, as many as fit into a memory budget, and frees the others.
+ * Resident chunks are stored in direct buffers.
+ * <p>
+ * A chunk file consists of a header, a table of chunks, and the triangles of
+ * all chunks, in little endian byte order:
+ * <pre>
+ * "JRTRCHNK"                       magic (8 bytes)
+ * int version, int hasNormals, int hasTexCoords, int nChunks
+ * nChunks x (float[6] bounds, long offset, int nTriangles)
+ * triangles
+ * </pre>
+ * The bounds are the minimum and maximum corner of the box around the
+ * triangles of a chunk. Triangles are stored as three vertices, each with a
+ * position, a normal and two texture coordinates, if the mesh has them.
+ */
+public class OutOfCoreMesh {
+
+	private static final byte[] MAGIC = { 'J', 'R', 'T', 'R', 'C', 'H', 'N', 'K' };
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = MAGIC.length + 16;
+	private static final int CHUNK_ENTRY_SIZE = 36;
+
+	// Size of the windows of the .obj file that are parsed at a time
+	private static final int WINDOW_SIZE = 1 << 24;
+	private static final int MAX_GRID_SIZE = 64;
+	private static final int CELL_BUFFER_SIZE = 1 << 12;
+	// Cells with a write buffer at a time, 4 MB of buffers
+	private static final int MAX_CELL_BUFFERS = 1 << 10;
+
+	private final FileChannel channel;
+	private final RenderContext renderContext;
+	private final SimpleSceneManager sceneManager;
+	private final boolean hasNormals, hasTexCoords;
+	private final int stride;
+
+	private final float[] bounds;
+	private final long[] offsets;
+	private final int[] nTriangles;
+	private final Shape[] shapes;
+
+	// Chunk numbers ordered by distance, in the low bits of distance keys
+	private final long[] order;
+
+	private Matrix4f transformation;
+	private Material material;
+	private long budget;
+	private int maxLoadsPerUpdate;
+	private long residentBytes;
+
+	/**
+	 * Open a chunk file written by {@link #partition}. Initially, no chunks
+	 * are resident.
+	 *
+	 * @param fileName
+	 *            the chunk file
+	 * @param renderContext
+	 *            makes the vertex data of resident chunks
+	 * @param sceneManager
+	 *            the scene manager to which the shapes of resident chunks
+	 *            are added
+	 */
+	public OutOfCoreMesh(String fileName, RenderContext renderContext, SimpleSceneManager sceneManager)
+			throws IOException {
+		this.renderContext = renderContext;
+		this.sceneManager = sceneManager;
+		channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+		try {
+			long fileSize = channel.size();
+			if (fileSize < HEADER_SIZE)
+				throw new IOException("Chunk file " + fileName + " is too short");
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			for (int k = 0; k < MAGIC.length; k++)
+				if (header.get() != MAGIC[k])
+					throw new IOException(fileName + " is not a chunk file");
+			if (header.getInt() != VERSION)
+				throw new IOException("Unsupported version of chunk file " + fileName);
+			hasNormals = header.getInt() != 0;
+			hasTexCoords = header.getInt() != 0;
+			int nChunks = header.getInt();
+			if (nChunks < 0 || HEADER_SIZE + (long) CHUNK_ENTRY_SIZE * nChunks > fileSize)
+				throw new IOException("Invalid chunk file " + fileName);
+			stride = 3 + (hasNormals ? 3 : 0) + (hasTexCoords ? 2 : 0);
+
+			MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+					(long) CHUNK_ENTRY_SIZE * nChunks);
+			table.order(ByteOrder.LITTLE_ENDIAN);
+			bounds = new float[6 * nChunks];
+			offsets = new long[nChunks];
+			nTriangles = new int[nChunks];
+			for (int k = 0; k < nChunks; k++) {
+				for (int i = 0; i < 6; i++)
+					bounds[6 * k + i] = table.getFloat();
+				offsets[k] = table.getLong();
+				nTriangles[k] = table.getInt();
+				if (offsets[k] < 0 || nTriangles[k] < 0 || offsets[k] + bytesOnDisk(k) > fileSize)
+					throw new IOException("Invalid chunk file " + fileName);
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+
+		shapes = new Shape[nTriangles.length];
+		order = new long[nTriangles.length];
+		transformation = new Matrix4f();
+		transformation.setIdentity();
+		budget = 256L << 20;
+		maxLoadsPerUpdate = 4;
+	}
+
+	/**
+	 * Set the transformation of the mesh, which is shared by the shapes of
+	 * all chunks.
+	 */
+	public void setTransformation(Matrix4f t) {
+		transformation = t;
+		for (Shape shape : shapes)
+			if (shape != null)
+				shape.setTransformation(t);
+	}
+
+	public Matrix4f getTransformation() {
+		return transformation;
+	}
+
+	/**
+	 * Set the material of the shapes of all chunks.
+	 */
+	public void setMaterial(Material material) {
+		this.material = material;
+		for (Shape shape : shapes)
+			if (shape != null)
+				shape.setMaterial(material);
+	}
+
+	/**
+	 * Set the memory budget for resident chunks, in bytes of vertex data.
+	 * The default is 256 MB.
+	 */
+	public void setBudget(long bytes) {
+		budget = bytes;
+	}
+
+	/**
+	 * Set the maximum number of chunks loaded by one call of
+	 * {@link #update(Camera)}, which bounds the time spent in an update. The
+	 * default is four.
+	 */
+	public void setMaxLoadsPerUpdate(int n) {
+		maxLoadsPerUpdate = n;
+	}
+
+	public int getNumberOfChunks() {
+		return shapes.length;
+	}
+
+	public int getNumberOfResidentChunks() {
+		int n = 0;
+		for (Shape shape : shapes)
+			if (shape != null)
+				n++;
+		return n;
+	}
+
+	/**
+	 * Returns the bytes of vertex data of all resident chunks.
+	 */
+	public long getResidentBytes() {
+		return residentBytes;
+	}
+
+	/**
+	 * Page chunks in and out for the current camera position. The chunks
+	 * closest to the camera that fit into the budget become resident. Other
+	 * chunks are removed from the scene manager and their vertex data is
+	 * freed. Chunks that become resident are loaded nearest first, at most
+	 * {@link #setMaxLoadsPerUpdate(int)} per call, so it takes several updates
+	 * until all chunks close to the camera are resident after the camera
+	 * moved.
+	 * <p>
+	 * This makes OpenGL calls when disposing vertex data, hence it needs to be
+	 * called on the rendering thread, typically once per frame.
+	 */
+	public void update(Camera camera) throws IOException {
+		// Camera position in object coordinates
+		Matrix4f m = new Matrix4f();
+		m.mul(camera.getCameraMatrix(), transformation);
+		m.invert();
+		Point3f eye = new Point3f();
+		m.transform(eye);
+
+		// Order the chunks by distance. Distances are non-negative, so their
+		// float bits sort like the distances.
+		for (int k = 0; k < shapes.length; k++) {
+			float dx = Math.max(0, Math.max(bounds[6 * k] - eye.x, eye.x - bounds[6 * k + 3]));
+			float dy = Math.max(0, Math.max(bounds[6 * k + 1] - eye.y, eye.y - bounds[6 * k + 4]));
+			float dz = Math.max(0, Math.max(bounds[6 * k + 2] - eye.z, eye.z - bounds[6 * k + 5]));
+			float d = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+			order[k] = (long) Float.floatToIntBits(d) << 32 | k;
+		}
+		Arrays.sort(order);
+
+		// Find the nearest chunks that fit into the budget
+		int nWanted = 0;
+		long bytes = 0;
+		while (nWanted < order.length && bytes + bytesInMemory((int) order[nWanted]) <= budget) {
+			bytes += bytesInMemory((int) order[nWanted]);
+			nWanted++;
+		}
+
+		// Evict the others, then load the missing ones
+		for (int i = nWanted; i < order.length; i++)
+			evict((int) order[i]);
+		int nLoads = 0;
+		for (int i = 0; i < nWanted && nLoads < maxLoadsPerUpdate; i++) {
+			int k = (int) order[i];
+			if (shapes[k] == null) {
+				load(k);
+				nLoads++;
+			}
+		}
+	}
+
+	/**
+	 * Evict all chunks and close the chunk file.
+	 */
+	public void close() throws IOException {
+		for (int k = 0; k < shapes.length; k++)
+			evict(k);
+		channel.close();
+	}
+
+	private void load(int k) throws IOException {
+		// Chunks are stored in direct buffers, so paging does not put
+		// pressure on the garbage collector
+		int n = 3 * nTriangles[k];
+		VertexData vertexData = renderContext.makeVertexData(n);
+		FloatBuffer positions = VertexData.allocateFloats(3 * n);
+		vertexData.addElement(positions, VertexData.Semantic.POSITION, 3);
+		FloatBuffer normals = null, texCoords = null;
+		if (hasNormals) {
+			normals = VertexData.allocateFloats(3 * n);
+			vertexData.addElement(normals, VertexData.Semantic.NORMAL, 3);
+		}
+		if (hasTexCoords) {
+			texCoords = VertexData.allocateFloats(2 * n);
+			vertexData.addElement(texCoords, VertexData.Semantic.TEXCOORD, 2);
+		}
+		IntBuffer indices = VertexData.allocateInts(n);
+		vertexData.addIndices(indices);
+
+		try {
+			FloatBuffer vertices = FloatBuffer.allocate(0);
+			if (n > 0) {
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offsets[k], bytesOnDisk(k));
+				buffer.order(ByteOrder.LITTLE_ENDIAN);
+				vertices = buffer.asFloatBuffer();
+			}
+			for (int i = 0; i < n; i++) {
+				int j = i * stride;
+				positions.put(3 * i, vertices.get(j++));
+				positions.put(3 * i + 1, vertices.get(j++));
+				positions.put(3 * i + 2, vertices.get(j++));
+				if (normals != null) {
+					normals.put(3 * i, vertices.get(j++));
+					normals.put(3 * i + 1, vertices.get(j++));
+					normals.put(3 * i + 2, vertices.get(j++));
+				}
+				if (texCoords != null) {
+					texCoords.put(2 * i, vertices.get(j++));
+					texCoords.put(2 * i + 1, vertices.get(j++));
+				}
+				indices.put(i, i);
+			}
+		} catch (IOException e) {
+			vertexData.free();
+			throw e;
+		}
+
+		Shape shape = new Shape(vertexData);
+		shape.setTransformation(transformation);
+		shape.setMaterial(material);
+		sceneManager.addShape(shape);
+		shapes[k] = shape;
+		residentBytes += bytesInMemory(k);
+	}
+
+	private void evict(int k) {
+		if (shapes[k] == null)
+			return;
+		sceneManager.removeShape(shapes[k]);
+		shapes[k].getVertexData().free();
+		shapes[k] = null;
+		residentBytes -= bytesInMemory(k);
+	}
+
+	private long bytesOnDisk(int k) {
+		return 12L * stride * nTriangles[k];
+	}
+
+	private long bytesInMemory(int k) {
+		// Vertex attributes plus one index per vertex
+		return bytesOnDisk(k) + 12L * nTriangles[k];
+	}
+
+	/**
+	 * Partition an .obj file into chunks and write them to a chunk file. The
+	 * triangles are assigned to the cells of a uniform grid over the bounding
+	 * box of the mesh by their centroid. The grid is chosen such that a
+	 * surface that spans the box has about the given number of triangles per
+	 * chunk.
+	 * <p>
+	 * The .obj file is parsed in windows of 16 MB with the same parser as
+	 * {@link ObjReader#readParallel(String, float, RenderContext)}. The
+	 * parsed vertices and faces are written to temporary files in the
+	 * directory of the chunk file, which are memory-mapped when the triangles
+	 * are distributed to the chunks. The triangles are written through
+	 * small buffers for at most {@value #MAX_CELL_BUFFERS} cells at a time;
+	 * the buffer of the least recently used cell is flushed and reused for
+	 * the next cell. Hence the heap only holds one window, the buffers, and
+	 * a few values per grid cell, regardless of the size of the mesh.
+	 *
+	 * @param objFileName
+	 *            the .obj file to read
+	 * @param scale
+	 *            scales the object to fit into a cube of the given size,
+	 *            like {@link ObjReader#read(String, float, RenderContext)}
+	 * @param chunkFileName
+	 *            the chunk file to write
+	 * @param trianglesPerChunk
+	 *            the desired number of triangles per chunk
+	 */
+	public static void partition(String objFileName, float scale, String chunkFileName, int trianglesPerChunk)
+			throws IOException {
+		Path chunkPath = Paths.get(chunkFileName).toAbsolutePath();
+		Path directory = chunkPath.getParent();
+		try (Store vertices = new Store(directory); Store normals = new Store(directory);
+				Store texCoords = new Store(directory); Store faces = new Store(directory)) {
+
+			// First pass: parse the .obj file into the temporary stores
+			ObjData extents = new ObjData();
+			try (FileChannel in = FileChannel.open(Paths.get(objFileName), StandardOpenOption.READ)) {
+				long size = in.size();
+				long start = 0;
+				while (start < size) {
+					long length = Math.min(WINDOW_SIZE, size - start);
+					MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, start, length);
+					int end = (int) length;
+					if (start + length < size) {
+						// End the window after its last complete line
+						while (end > 0 && buffer.get(end - 1) != '\n' && buffer.get(end - 1) != '\r')
+							end--;
+						if (end == 0)
+							throw new IOException("File " + objFileName + " contains a line that is too long");
+					}
+
+					ObjData data = new ObjData();
+					new ObjScanner(buffer, 0, end).scan(data);
+					vertices.append(data.vertices, 3 * data.nVertices);
+					normals.append(data.normals, 3 * data.nNormals);
+					texCoords.append(data.texCoords, 2 * data.nTexCoords);
+					faces.append(data.faces, 9 * data.nFaces);
+					reduce(extents, data);
+					start += end;
+				}
+			}
+			vertices.finish();
+			normals.finish();
+			texCoords.finish();
+			faces.finish();
+
+			long nVertices = vertices.size() / 3;
+			long nNormals = normals.size() / 3;
+			long nTexCoords = texCoords.size() / 2;
+			long nFaces = faces.size() / 9;
+			float[] transform = normalization(extents, scale);
+
+			// Box of the normalized mesh, which is centered and scaled
+			float s = transform[3];
+			float[] box = { s * (extents.xMin + transform[0]), s * (extents.yMin + transform[1]),
+					s * (extents.zMin + transform[2]), s * (extents.xMax + transform[0]),
+					s * (extents.yMax + transform[1]), s * (extents.zMax + transform[2]) };
+			boolean hasNormals = nNormals > 0, hasTexCoords = nTexCoords > 0;
+			int stride = 3 + (hasNormals ? 3 : 0) + (hasTexCoords ? 2 : 0);
+
+			// Second pass: count the triangles and compute the bounds of
+			// each cell
+			int g = (int) Math.ceil(Math.sqrt(nFaces / (double) Math.max(1, trianglesPerChunk)));
+			g = Math.max(1, Math.min(MAX_GRID_SIZE, g));
+			int nCells = g * g * g;
+			int[] counts = new int[nCells];
+			float[] cellBounds = new float[6 * nCells];
+			for (int c = 0; c < nCells; c++) {
+				cellBounds[6 * c] = cellBounds[6 * c + 1] = cellBounds[6 * c + 2] = Float.MAX_VALUE;
+				cellBounds[6 * c + 3] = cellBounds[6 * c + 4] = cellBounds[6 * c + 5] = -Float.MAX_VALUE;
+			}
+			float[] corners = new float[9];
+			for (long f = 0; f < nFaces; f++) {
+				int c = cell(faces, vertices, nVertices, f, transform, box, g, corners, objFileName);
+				counts[c]++;
+				for (int i = 0; i < 9; i++) {
+					cellBounds[6 * c + i % 3] = Math.min(cellBounds[6 * c + i % 3], corners[i]);
+					cellBounds[6 * c + 3 + i % 3] = Math.max(cellBounds[6 * c + 3 + i % 3], corners[i]);
+				}
+			}
+
+			// Lay out the non-empty cells as chunks
+			int nChunks = 0;
+			int[] chunkOfCell = new int[nCells];
+			for (int c = 0; c < nCells; c++)
+				chunkOfCell[c] = counts[c] > 0 ? nChunks++ : -1;
+			long[] positions = new long[nCells];
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + CHUNK_ENTRY_SIZE * nChunks)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			header.put(MAGIC).putInt(VERSION).putInt(hasNormals ? 1 : 0).putInt(hasTexCoords ? 1 : 0)
+					.putInt(nChunks);
+			long offset = header.capacity();
+			for (int c = 0; c < nCells; c++) {
+				if (counts[c] == 0)
+					continue;
+				for (int i = 0; i < 6; i++)
+					header.putFloat(cellBounds[6 * c + i]);
+				header.putLong(offset).putInt(counts[c]);
+				positions[c] = offset;
+				offset += 12L * stride * counts[c];
+			}
+			header.flip();
+
+			// Third pass: write the triangles of each cell through a small
+			// buffer, of which there is a bounded number
+			Path tmp = chunkPath.resolveSibling(chunkPath.getFileName() + ".tmp");
+			try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+				while (header.hasRemaining())
+					out.write(header);
+				CellBuffers buffers = new CellBuffers(out, positions, Math.min(nChunks, MAX_CELL_BUFFERS),
+						CELL_BUFFER_SIZE - CELL_BUFFER_SIZE % (12 * stride));
+				for (long f = 0; f < nFaces; f++) {
+					int c = cell(faces, vertices, nVertices, f, transform, box, g, corners, objFileName);
+					ByteBuffer buffer = buffers.get(c);
+					for (int j = 0; j < 3; j++) {
+						long corner = 9 * f + 3 * j;
+						long v = faces.getInt(corner) - 1;
+						buffer.putFloat(corners[3 * j]).putFloat(corners[3 * j + 1]).putFloat(corners[3 * j + 2]);
+						if (hasNormals) {
+							long n = extents.hasNormalIndices ? faces.getInt(corner + 2) - 1 : v;
+							if (n < 0 || n >= nNormals)
+								throw new IOException("Invalid normal index in face " + (f + 1) + " of " + objFileName);
+							buffer.putFloat(normals.getFloat(3 * n)).putFloat(normals.getFloat(3 * n + 1))
+									.putFloat(normals.getFloat(3 * n + 2));
+						}
+						if (hasTexCoords) {
+							long t = extents.hasTexCoordIndices ? faces.getInt(corner + 1) - 1 : v;
+							if (t < 0 || t >= nTexCoords)
+								throw new IOException("Invalid texture coordinate index in face " + (f + 1) + " of "
+										+ objFileName);
+							buffer.putFloat(texCoords.getFloat(2 * t)).putFloat(texCoords.getFloat(2 * t + 1));
+						}
+					}
+					if (!buffer.hasRemaining())
+						positions[c] = flush(out, buffer, positions[c]);
+				}
+				buffers.flushAll();
+			}
+			Files.move(tmp, chunkPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+
+	/**
+	 * Compute the transformed corner positions of a face and return the
+	 * grid cell of its centroid.
+	 */
+	private static int cell(Store faces, Store vertices, long nVertices, long f, float[] transform, float[] box,
+			int g, float[] corners, String fileName) throws IOException {
+		float s = transform[3];
+		for (int j = 0; j < 3; j++) {
+			long v = faces.getInt(9 * f + 3 * j) - 1;
+			if (v < 0 || v >= nVertices)
+				throw new IOException("Invalid vertex index in face " + (f + 1) + " of " + fileName);
+			corners[3 * j] = s * (vertices.getFloat(3 * v) + transform[0]);
+			corners[3 * j + 1] = s * (vertices.getFloat(3 * v + 1) + transform[1]);
+			corners[3 * j + 2] = s * (vertices.getFloat(3 * v + 2) + transform[2]);
+		}
+
+		int cell = 0;
+		for (int i = 0; i < 3; i++) {
+			float centroid = (corners[i] + corners[3 + i] + corners[6 + i]) / 3;
+			float lo = box[i], hi = box[3 + i];
+			int k = hi > lo ? (int) ((centroid - lo) / (hi - lo) * g) : 0;
+			cell = cell * g + Math.max(0, Math.min(g - 1, k));
+		}
+		return cell;
+	}
+
+	private static long flush(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			position += out.write(buffer, position);
+		buffer.clear();
+		return position;
+	}
+
+	/**
+	 * Reduce the extents and index flags of a window into the totals.
+	 */
+	private static void reduce(ObjData total, ObjData data) {
+		total.xMin = Math.min(total.xMin, data.xMin);
+		total.xMax = Math.max(total.xMax, data.xMax);
+		total.yMin = Math.min(total.yMin, data.yMin);
+		total.yMax = Math.max(total.yMax, data.yMax);
+		total.zMin = Math.min(total.zMin, data.zMin);
+		total.zMax = Math.max(total.zMax, data.zMax);
+		if (data.nFaces > 0) {
+			total.hasNormalIndices &= data.hasNormalIndices;
+			total.hasTexCoordIndices &= data.hasTexCoordIndices;
+		}
+	}
+
+	/**
+	 * Translation and scale that center the mesh and fit it into a cube of
+	 * the given size, as computed by {@link ObjReader}.
+	 */
+	private static float[] normalization(ObjData data, float scale) {
+		float xTrans = -(data.xMax + data.xMin) / 2;
+		float yTrans = -(data.yMax + data.yMin) / 2;
+		float zTrans = -(data.zMax + data.zMin) / 2;
+		float xScale = 2 / (data.xMax - data.xMin);
+		float yScale = 2 / (data.yMax - data.yMin);
+		float zScale = 2 / (data.zMax - data.zMin);
+		float s = yScale;
+		if (xScale < yScale) s = xScale;
+		if (zScale < s) s = zScale;
+		return new float[] { xTrans, yTrans, zTrans, s * scale };
+	}
+
+	/**
+	 * Write buffers for a bounded number of grid cells. When a cell without
+	 * a buffer needs one and all buffers are in use, the buffer of the least
+	 * recently used cell is flushed and handed over. The cells are kept in
+	 * a doubly linked list of buffer numbers, most recently used first.
+	 */
+	private static class CellBuffers {
+
+		private final FileChannel out;
+		private final long[] positions;
+		private final ByteBuffer[] buffers;
+		private final int[] cellOfBuffer;
+		private final int[] bufferOfCell;
+		private final int[] previous, next;
+		private final int bufferSize;
+		private int nUsed;
+		private int first = -1, last = -1;
+
+		/**
+		 * @param positions
+		 *            the file position at which the next triangles of each
+		 *            cell are written, advanced when a buffer is flushed
+		 */
+		CellBuffers(FileChannel out, long[] positions, int nBuffers, int bufferSize) {
+			this.out = out;
+			this.positions = positions;
+			this.bufferSize = bufferSize;
+			buffers = new ByteBuffer[nBuffers];
+			cellOfBuffer = new int[nBuffers];
+			previous = new int[nBuffers];
+			next = new int[nBuffers];
+			bufferOfCell = new int[positions.length];
+			Arrays.fill(bufferOfCell, -1);
+		}
+
+		/**
+		 * Returns the buffer of a cell, which has room for at least one
+		 * triangle.
+		 */
+		ByteBuffer get(int cell) throws IOException {
+			int b = bufferOfCell[cell];
+			if (b < 0) {
+				if (nUsed < buffers.length) {
+					b = nUsed++;
+					buffers[b] = ByteBuffer.allocate(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+				} else {
+					b = last;
+					int evicted = cellOfBuffer[b];
+					positions[evicted] = flush(out, buffers[b], positions[evicted]);
+					bufferOfCell[evicted] = -1;
+					unlink(b);
+				}
+				cellOfBuffer[b] = cell;
+				bufferOfCell[cell] = b;
+			} else if (b == first) {
+				return buffers[b];
+			} else {
+				unlink(b);
+			}
+
+			// Make the buffer the most recently used one
+			previous[b] = -1;
+			next[b] = first;
+			if (first >= 0)
+				previous[first] = b;
+			first = b;
+			if (last < 0)
+				last = b;
+			return buffers[b];
+		}
+
+		void flushAll() throws IOException {
+			for (int b = 0; b < nUsed; b++)
+				positions[cellOfBuffer[b]] = flush(out, buffers[b], positions[cellOfBuffer[b]]);
+		}
+
+		private void unlink(int b) {
+			if (previous[b] >= 0)
+				next[previous[b]] = next[b];
+			else
+				first = next[b];
+			if (next[b] >= 0)
+				previous[next[b]] = previous[b];
+			else
+				last = previous[b];
+		}
+	}
+
+	/**
+	 * A temporary file of floats or ints. Values are appended through a
+	 * buffer, and after {@link #finish()} the file is memory-mapped for
+	 * random access. The file is deleted when the store is closed.
+	 */
+	private static class Store implements AutoCloseable {
+
+		// Mapped segments of 1 GB, a multiple of the value size
+		private static final int SEGMENT_SHIFT = 30;
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+		private long size;
+		private MappedByteBuffer[] segments;
+
+		Store(Path directory) throws IOException {
+			Path file = Files.createTempFile(directory, "jrtr", ".tmp");
+			channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+					StandardOpenOption.DELETE_ON_CLOSE);
+			buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		void append(float[] values, int n) throws IOException {
+			for (int i = 0; i < n;) {
+				int m = Math.min(n - i, buffer.remaining() / 4);
+				buffer.asFloatBuffer().put(values, i, m);
+				buffer.position(buffer.position() + 4 * m);
+				i += m;
+				if (!buffer.hasRemaining())
+					drain();
+			}
+			size += n;
+		}
+
+		void append(int[] values, int n) throws IOException {
+			for (int i = 0; i < n;) {
+				int m = Math.min(n - i, buffer.remaining() / 4);
+				buffer.asIntBuffer().put(values, i, m);
+				buffer.position(buffer.position() + 4 * m);
+				i += m;
+				if (!buffer.hasRemaining())
+					drain();
+			}
+			size += n;
+		}
+
+		private void drain() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		}
+
+		/**
+		 * Write the remaining values and map the file.
+		 */
+		void finish() throws IOException {
+			drain();
+			long bytes = 4 * size;
+			segments = new MappedByteBuffer[(int) ((bytes + (1L << SEGMENT_SHIFT) - 1) >> SEGMENT_SHIFT)];
+			for (int k = 0; k < segments.length; k++) {
+				long start = (long) k << SEGMENT_SHIFT;
+				segments[k] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+						Math.min(1L << SEGMENT_SHIFT, bytes - start));
+				segments[k].order(ByteOrder.LITTLE_ENDIAN);
+			}
+		}
+
+		/**
+		 * Returns the number of values in the store.
+		 */
+		long size() {
+			return size;
+		}
+
+		float getFloat(long i) {
+			long b = 4 * i;
+			return segments[(int) (b >> SEGMENT_SHIFT)].getFloat((int) (b & ((1 << SEGMENT_SHIFT) - 1)));
+		}
+
+		int getInt(long i) {
+			long b = 4 * i;
+			return segments[(int) (b >> SEGMENT_SHIFT)].getInt((int) (b & ((1 << SEGMENT_SHIFT) - 1)));
+		}
+
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
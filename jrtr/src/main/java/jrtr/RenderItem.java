@@ -16,6 +16,16 @@ public class RenderItem {
 		this.t = t;
 	}
 	
+	/**
+	 * Replace the shape and transformation, for scene managers that reuse
+	 * one item instead of allocating one per shape.
+	 */
+	void set(Shape shape, Matrix4f t)
+	{
+		this.shape = shape;
+		this.t = t;
+	}
+	
 	public Shape getShape()
 	{
 		return shape;
@@ -61,6 +61,7 @@ public class SimpleSceneManager implements SceneManagerInterface {
 		
 		public SimpleSceneManagerItr(SimpleSceneManager sceneManager)
 		{
+			this.sceneManager = sceneManager;
 			itr = sceneManager.shapes.listIterator(0);
 		}
 		
@@ -76,9 +77,12 @@ public class SimpleSceneManager implements SceneManagerInterface {
 			// transformation matrix of the shape. More sophisticated 
 			// scene managers will set the transformation for the 
 			// RenderItem differently.
+			if (shape instanceof LodShape)
+				((LodShape) shape).selectLevel(sceneManager.camera, sceneManager.frustum, shape.getTransformation());
 			return new RenderItem(shape, shape.getTransformation());
 		}
 		
+		SimpleSceneManager sceneManager;
 		ListIterator<Shape> itr;
 	}
 	
@@ -0,0 +1,187 @@
+package jrtr;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Computes the tangents of indexed triangle meshes with texture
+ * coordinates, for normal mapping, and stores them in a TANGENT element of
+ * four components. The tangents follow the conventions of MikkTSpace
+ * (Morten Mikkelsen, "Simulation of Wrinkled Surfaces Revisited", 2008),
+ * which most tools bake normal maps with: the tangent of each vertex is
+ * orthogonal to its normal, w is the sign of the bitangent, and the shader
+ * computes the bitangent per pixel as
+ * <pre>
+ * bitangent = tangent.w * cross(normal, tangent.xyz)
+ * </pre>
+ * without normalizing the interpolated vectors first. The tangent of a
+ * vertex is the average of the tangents of its triangles, each projected
+ * onto the plane orthogonal to the normal and weighted by the angle of the
+ * triangle at the vertex. Unlike MikkTSpace, vertices where triangles with
+ * mirrored texture coordinates meet are not split, they get the sign of
+ * the larger side.
+ * <p>
+ * Like {@link NormalGenerator}, the tangents of the triangles are computed
+ * in parallel over the triangles, and the tangents of the vertices in
+ * parallel over the vertices, each vertex reading its own corners.
+ */
+public class TangentGenerator {
+
+	/**
+	 * Compute the tangents of a vertex data and write them to its TANGENT
+	 * element, which is added if there is none. The vertex data needs
+	 * positions and texture coordinates, and gets normals from
+	 * {@link NormalGenerator} if it has none. This is usually done once
+	 * after loading the mesh.
+	 */
+	public static void generate(VertexData vertexData) {
+		float[] positions = null, normals = null, texCoords = null;
+		for (VertexData.VertexElement e : vertexData.getElements()) {
+			if (e.getSemantic() == VertexData.Semantic.POSITION && e.getNumberOfComponents() == 3)
+				positions = toArray(e);
+			else if (e.getSemantic() == VertexData.Semantic.TEXCOORD && e.getNumberOfComponents() == 2)
+				texCoords = toArray(e);
+		}
+		if (positions == null || texCoords == null)
+			throw new IllegalArgumentException("Tangents need positions and texture coordinates");
+		normals = findNormals(vertexData);
+		if (normals == null) {
+			NormalGenerator.generate(vertexData, NormalGenerator.Weighting.ANGLE);
+			normals = findNormals(vertexData);
+		}
+
+		int nVertices = vertexData.getNumberOfVertices();
+		IntBuffer indexBuffer = vertexData.getIndexBuffer();
+		int[] indices = new int[indexBuffer.remaining()];
+		indexBuffer.get(indices);
+		int nFaces = indices.length / 3;
+
+		// The corners of the triangles at each vertex
+		int[] cornerStart = new int[nVertices + 1];
+		for (int v : indices)
+			cornerStart[v + 1]++;
+		for (int v = 0; v < nVertices; v++)
+			cornerStart[v + 1] += cornerStart[v];
+		int[] fill = Arrays.copyOf(cornerStart, nVertices);
+		int[] corners = new int[indices.length];
+		for (int c = 0; c < indices.length; c++)
+			corners[fill[indices[c]]++] = c;
+
+		// The tangent and bitangent of each triangle, the derivatives of the
+		// position by the texture coordinates, normalized, and the angle at
+		// each corner
+		float[] p = positions, t = texCoords;
+		float[] faceTangents = new float[6 * nFaces];
+		float[] angles = new float[3 * nFaces];
+		IntStream.range(0, nFaces).parallel().forEach(f -> {
+			int a = indices[3 * f], b = indices[3 * f + 1], c = indices[3 * f + 2];
+			float e1x = p[3 * b] - p[3 * a], e1y = p[3 * b + 1] - p[3 * a + 1], e1z = p[3 * b + 2] - p[3 * a + 2];
+			float e2x = p[3 * c] - p[3 * a], e2y = p[3 * c + 1] - p[3 * a + 1], e2z = p[3 * c + 2] - p[3 * a + 2];
+			float s1 = t[2 * b] - t[2 * a], t1 = t[2 * b + 1] - t[2 * a + 1];
+			float s2 = t[2 * c] - t[2 * a], t2 = t[2 * c + 1] - t[2 * a + 1];
+			float det = s1 * t2 - s2 * t1;
+			// Triangles with degenerate texture coordinates do not count
+			if (det != 0) {
+				float r = 1 / det;
+				set(faceTangents, 6 * f, r * (t2 * e1x - t1 * e2x), r * (t2 * e1y - t1 * e2y), r * (t2 * e1z - t1 * e2z));
+				set(faceTangents, 6 * f + 3, r * (s1 * e2x - s2 * e1x), r * (s1 * e2y - s2 * e1y),
+						r * (s1 * e2z - s2 * e1z));
+			}
+			float nx = e1y * e2z - e1z * e2y, ny = e1z * e2x - e1x * e2z, nz = e1x * e2y - e1y * e2x;
+			float sin = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+			float e3x = e2x - e1x, e3y = e2y - e1y, e3z = e2z - e1z;
+			angles[3 * f] = (float) Math.atan2(sin, e1x * e2x + e1y * e2y + e1z * e2z);
+			angles[3 * f + 1] = (float) Math.atan2(sin, -(e1x * e3x + e1y * e3y + e1z * e3z));
+			angles[3 * f + 2] = (float) Math.atan2(sin, e2x * e3x + e2y * e3y + e2z * e3z);
+		});
+
+		float[] n = normals;
+		float[] tangents = new float[4 * nVertices];
+		IntStream.range(0, nVertices).parallel().forEach(v -> {
+			float nx = n[3 * v], ny = n[3 * v + 1], nz = n[3 * v + 2];
+			float tx = 0, ty = 0, tz = 0, handedness = 0;
+			for (int i = cornerStart[v]; i < cornerStart[v + 1]; i++) {
+				int c = corners[i], k = 6 * (c / 3);
+				// Project the tangent of the triangle onto the tangent plane
+				// of the vertex
+				float ux = faceTangents[k], uy = faceTangents[k + 1], uz = faceTangents[k + 2];
+				float d = ux * nx + uy * ny + uz * nz;
+				ux -= d * nx;
+				uy -= d * ny;
+				uz -= d * nz;
+				float l = (float) Math.sqrt(ux * ux + uy * uy + uz * uz);
+				if (l == 0)
+					continue;
+				float w = angles[c] / l;
+				tx += w * ux;
+				ty += w * uy;
+				tz += w * uz;
+				// The bitangent of the triangle tells on which side of
+				// cross(normal, tangent) it is
+				float bx = ny * uz - nz * uy, by = nz * ux - nx * uz, bz = nx * uy - ny * ux;
+				float side = bx * faceTangents[k + 3] + by * faceTangents[k + 4] + bz * faceTangents[k + 5];
+				handedness += side < 0 ? -angles[c] : angles[c];
+			}
+			float l = (float) Math.sqrt(tx * tx + ty * ty + tz * tz);
+			if (l > 0) {
+				tx /= l;
+				ty /= l;
+				tz /= l;
+			} else {
+				// Any direction orthogonal to the normal
+				if (Math.abs(nx) < 0.9f) {
+					tx = 0;
+					ty = nz;
+					tz = -ny;
+				} else {
+					tx = -nz;
+					ty = 0;
+					tz = nx;
+				}
+				l = (float) Math.sqrt(tx * tx + ty * ty + tz * tz);
+				if (l > 0) {
+					tx /= l;
+					ty /= l;
+					tz /= l;
+				}
+			}
+			tangents[4 * v] = tx;
+			tangents[4 * v + 1] = ty;
+			tangents[4 * v + 2] = tz;
+			tangents[4 * v + 3] = handedness < 0 ? -1 : 1;
+		});
+
+		for (VertexData.VertexElement e : vertexData.getElements()) {
+			if (e.getSemantic() == VertexData.Semantic.TANGENT && e.getNumberOfComponents() == 4) {
+				e.getBuffer().put(tangents);
+				vertexData.markDirty(VertexData.Semantic.TANGENT, 0, nVertices);
+				return;
+			}
+		}
+		vertexData.addElement(tangents, VertexData.Semantic.TANGENT, 4);
+	}
+
+	private static float[] findNormals(VertexData vertexData) {
+		for (VertexData.VertexElement e : vertexData.getElements())
+			if (e.getSemantic() == VertexData.Semantic.NORMAL && e.getNumberOfComponents() == 3)
+				return toArray(e);
+		return null;
+	}
+
+	private static float[] toArray(VertexData.VertexElement e) {
+		if (e.getData() != null)
+			return e.getData();
+		FloatBuffer buffer = e.getBuffer();
+		float[] f = new float[buffer.remaining()];
+		buffer.get(f);
+		return f;
+	}
+
+	private static void set(float[] f, int i, float x, float y, float z) {
+		f[i] = x;
+		f[i + 1] = y;
+		f[i + 2] = z;
+	}
+}
@@ -4,11 +4,13 @@ import javax.vecmath.Matrix4f;
 
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
 
 /*
  * Implements a group node that stores a transformation. The transformation 
- * applies to the whole subtree, at whose root the node sits.
+ * applies to the whole subtree, at whose root the node sits. The children
+ * are kept in an ArrayList, which the {@link GraphSceneManager} traverses by
+ * index without allocating an iterator.
  */
 public class TransformGroup implements SceneNode {
 
@@ -19,7 +21,7 @@ public class TransformGroup implements SceneNode {
 	{
 		transformation = new Matrix4f();
 		transformation.setIdentity();
-		children = new LinkedList<SceneNode>();
+		children = new ArrayList<SceneNode>();
 	}
 	
 	public Matrix4f getTransformation()
@@ -1,6 +1,14 @@
 package jrtr;
 
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.vecmath.Matrix4f;
+
+import org.lwjgl.system.MemoryUtil;
 
 import jrtr.glrenderer.GLVertexData;
 
@@ -12,6 +20,21 @@ import jrtr.glrenderer.GLVertexData;
  * It is an abstract class, use the implementation {@link GLVertexData} or
  * {@link SWVertexData} which should be instantiated via {@link
  * RenderContext#makeVertexData(int)}.
+ * <p>
+ * Vertex elements and indices are stored either in Java arrays, or in
+ * direct buffers outside the Java heap. Direct buffers are allocated with
+ * {@link #allocateFloats(int)} and {@link #allocateInts(int)}, and passed
+ * to OpenGL without copying. They are not managed by the garbage collector
+ * and need to be released with {@link #free()}.
+ * <p>
+ * The render context may store the vertex elements in graphics memory in a
+ * more compact {@link Encoding} than 32 bit floats, see {@link #quantize()}.
+ * <p>
+ * The render context uploads the vertex data when it is drawn the first
+ * time. Afterwards, changes to the elements or indices need to be marked
+ * with {@link #markDirty(Semantic, int, int)} and
+ * {@link #markIndicesDirty(int, int)}. The render context uploads only the
+ * marked ranges when it draws the vertex data the next time.
  */
 public abstract class VertexData {
 
@@ -26,12 +49,44 @@ public abstract class VertexData {
 	 * triangle, the second three indices the second triangle, etc.).
 	 */
 	private int[] indices;
+	private IntBuffer indexBuffer;
+
+	/**
+	 * The ranges of indices, and whether any ranges of indices or elements,
+	 * that changed since the last upload.
+	 */
+	private final DirtyRanges dirtyIndices = new DirtyRanges();
+	private boolean dirty;
 
 	/**
 	 * A list of the vertex elements to store the vertex attributes.
 	 */
 	private LinkedList<VertexElement> vertexElements;
 
+	/**
+	 * Whether the render context stores the vertex elements interleaved in
+	 * one buffer, and the number of bytes per vertex in that buffer.
+	 */
+	private boolean interleaved;
+	private int stride;
+
+	/**
+	 * Whether the render context copies the vertex elements to graphics
+	 * memory each time the vertex data is drawn.
+	 */
+	private boolean streaming;
+
+	/**
+	 * The meshlets the triangles are split into, or null
+	 */
+	private Meshlets meshlets;
+
+	/**
+	 * Bytes of all direct buffers allocated by {@link #allocateFloats(int)}
+	 * and {@link #allocateInts(int)} that have not been freed.
+	 */
+	private static final AtomicLong totalDirectBytes = new AtomicLong();
+
 	/**
 	 * Vertex data consists of a list of vertex elements, and an index array.
 	 * The index array contains indices into the vertex data. The indices
@@ -53,9 +108,26 @@ public abstract class VertexData {
 	}
 
 	public void addElement(float[] f, Semantic s, int i) {
-		if (f.length == n * i) {
+		addElement(f, null, f.length, s, i);
+	}
+
+	/**
+	 * Add a vertex element stored in a direct buffer, allocated with
+	 * {@link #allocateFloats(int)}. The buffer is used as it is, from index
+	 * zero to its capacity, without copying. The vertex data owns the buffer
+	 * afterwards, it is released by {@link #free()}.
+	 */
+	public void addElement(FloatBuffer f, Semantic s, int i) {
+		if (!f.isDirect())
+			throw new IllegalArgumentException("Vertex elements need to be stored in direct buffers");
+		addElement(null, f, f.capacity(), s, i);
+	}
+
+	private void addElement(float[] f, FloatBuffer b, int length, Semantic s, int i) {
+		if (length == n * i) {
 			VertexElement vertexElement = new VertexElement();
 			vertexElement.data = f;
+			vertexElement.buffer = b;
 			vertexElement.semantic = s;
 			vertexElement.nComponents = i;
 
@@ -68,6 +140,7 @@ public abstract class VertexData {
 			} else {
 				vertexElements.addFirst(vertexElement);
 			}
+			updateLayout();
 		} else {
 			System.err
 					.println("Array of '"
@@ -80,16 +153,406 @@ public abstract class VertexData {
 
 	public void addIndices(int[] indices) {
 		this.indices = indices;
+		this.indexBuffer = null;
+		markIndicesDirty(0, indices.length);
+	}
+
+	/**
+	 * Set indices stored in a direct buffer, allocated with
+	 * {@link #allocateInts(int)}. The buffer is used from index zero to its
+	 * capacity, without copying. The vertex data owns the buffer afterwards,
+	 * it is released by {@link #free()}.
+	 */
+	public void addIndices(IntBuffer indices) {
+		if (!indices.isDirect())
+			throw new IllegalArgumentException("Indices need to be stored in direct buffers");
+		this.indexBuffer = indices;
+		this.indices = null;
+		markIndicesDirty(0, indices.capacity());
 	}
 
 	public LinkedList<VertexElement> getElements() {
 		return vertexElements;
 	}
 
+	/**
+	 * Returns the index array, or null if the indices are stored in a direct
+	 * buffer. {@link #getIndexBuffer()} works in both cases.
+	 */
 	public int[] getIndices() {
 		return indices;
 	}
 
+	/**
+	 * Returns the indices as a buffer. This is the direct buffer, if the
+	 * indices are stored in one, or otherwise a buffer that wraps the index
+	 * array. Returns null if there are no indices.
+	 */
+	public IntBuffer getIndexBuffer() {
+		if (indexBuffer != null) {
+			IntBuffer b = indexBuffer.duplicate();
+			b.clear();
+			return b;
+		}
+		return indices == null ? null : IntBuffer.wrap(indices);
+	}
+
+	public int getNumberOfIndices() {
+		if (indexBuffer != null)
+			return indexBuffer.capacity();
+		return indices == null ? 0 : indices.length;
+	}
+
+	/**
+	 * Mark the vertices [first, first+count) of the elements with the given
+	 * semantic as changed, so the render context uploads them again.
+	 */
+	public void markDirty(Semantic semantic, int first, int count) {
+		for (VertexElement e : vertexElements)
+			if (e.semantic == semantic)
+				e.markDirty(first, count);
+	}
+
+	/**
+	 * Mark the vertices [first, first+count) of all elements as changed.
+	 */
+	public void markDirty(int first, int count) {
+		for (VertexElement e : vertexElements)
+			e.markDirty(first, count);
+	}
+
+	/**
+	 * Mark the indices [first, first+count) as changed. Replacing the
+	 * indices with {@link #addIndices(int[])} marks all of them.
+	 */
+	public void markIndicesDirty(int first, int count) {
+		dirtyIndices.add(first, count);
+		dirty = true;
+	}
+
+	/**
+	 * Returns the ranges of indices that changed since the last upload.
+	 */
+	public DirtyRanges getDirtyIndices() {
+		return dirtyIndices;
+	}
+
+	/**
+	 * Returns whether any elements or indices changed since the last
+	 * upload.
+	 */
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Forget all changes, called by the render context after an upload.
+	 */
+	public void clearDirty() {
+		for (VertexElement e : vertexElements)
+			e.dirtyRanges.clear();
+		dirtyIndices.clear();
+		dirty = false;
+	}
+
+	/**
+	 * Allocate a direct buffer for vertex elements outside the Java heap.
+	 * The contents of the buffer are undefined. The memory is counted in
+	 * {@link #getTotalDirectBytes()} until it is released by
+	 * {@link #free()} of the vertex data the buffer was added to.
+	 */
+	public static FloatBuffer allocateFloats(int n) {
+		FloatBuffer buffer = MemoryUtil.memAllocFloat(n);
+		totalDirectBytes.addAndGet(4L * n);
+		return buffer;
+	}
+
+	/**
+	 * Allocate a direct buffer for indices outside the Java heap, like
+	 * {@link #allocateFloats(int)}.
+	 */
+	public static IntBuffer allocateInts(int n) {
+		IntBuffer buffer = MemoryUtil.memAllocInt(n);
+		totalDirectBytes.addAndGet(4L * n);
+		return buffer;
+	}
+
+	/**
+	 * Returns the bytes of all direct buffers allocated by
+	 * {@link #allocateFloats(int)} and {@link #allocateInts(int)} that have
+	 * not been released yet, for all vertex data.
+	 */
+	public static long getTotalDirectBytes() {
+		return totalDirectBytes.get();
+	}
+
+	/**
+	 * Returns the bytes of the vertex elements and indices of this vertex
+	 * data that are stored in Java arrays.
+	 */
+	public long getHeapBytes() {
+		long bytes = indices == null ? 0 : 4L * indices.length;
+		for (VertexElement e : vertexElements)
+			if (e.data != null)
+				bytes += 4L * e.data.length;
+		return bytes;
+	}
+
+	/**
+	 * Returns the bytes of the vertex elements and indices of this vertex
+	 * data that are stored in direct buffers.
+	 */
+	public long getDirectBytes() {
+		long bytes = indexBuffer == null ? 0 : 4L * indexBuffer.capacity();
+		for (VertexElement e : vertexElements)
+			if (e.buffer != null)
+				bytes += 4L * e.buffer.capacity();
+		return bytes;
+	}
+
+	/**
+	 * Release the direct buffers of this vertex data, and drop all vertex
+	 * elements and indices. Also releases the resources of the render
+	 * context, see {@link #dispose()}. The vertex data cannot be drawn
+	 * afterwards.
+	 */
+	public void free() {
+		dispose();
+		for (VertexElement e : vertexElements) {
+			if (e.buffer != null) {
+				totalDirectBytes.addAndGet(-4L * e.buffer.capacity());
+				MemoryUtil.memFree(e.buffer);
+				e.buffer = null;
+			}
+			e.data = null;
+		}
+		vertexElements.clear();
+		if (indexBuffer != null) {
+			totalDirectBytes.addAndGet(-4L * indexBuffer.capacity());
+			MemoryUtil.memFree(indexBuffer);
+			indexBuffer = null;
+		}
+		indices = null;
+		updateLayout();
+	}
+
+	/**
+	 * Choose whether the render context stores the vertex elements
+	 * interleaved, that is, all attributes of a vertex next to each other in
+	 * a single buffer, or each element in a buffer of its own, which is the
+	 * default. The interleaved layout is packed by
+	 * {@link #packInterleaved(ByteBuffer, int, int)}, in the order of
+	 * {@link #getElements()}. This needs to be set before the vertex data is
+	 * drawn the first time.
+	 */
+	public void setInterleaved(boolean interleaved) {
+		this.interleaved = interleaved;
+	}
+
+	public boolean isInterleaved() {
+		return interleaved;
+	}
+
+	/**
+	 * Choose whether the render context copies the vertex elements to
+	 * graphics memory each time it draws the vertex data, for vertex data
+	 * that changes every frame. The vertices are packed in the interleaved
+	 * layout into a buffer that is shared by all streaming vertex data,
+	 * so there is no need to mark changed vertices. Changed indices still
+	 * need to be marked. This needs to be set before the vertex data is
+	 * drawn the first time.
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Returns the meshlets the triangles are split into, or null, see
+	 * {@link Meshlets#build(VertexData)}. The render context then draws only
+	 * the meshlets that may be visible.
+	 */
+	public Meshlets getMeshlets() {
+		return meshlets;
+	}
+
+	/**
+	 * Set the meshlets the triangles are split into, or null to draw all
+	 * triangles at once. The indices need to be marked as changed if the
+	 * vertex data was drawn already.
+	 */
+	public void setMeshlets(Meshlets meshlets) {
+		this.meshlets = meshlets;
+	}
+
+	/**
+	 * Returns the number of bytes per vertex in the interleaved layout, that
+	 * is, the sum of the encoded sizes of all elements.
+	 */
+	public int getStride() {
+		return stride;
+	}
+
+	/**
+	 * Write the attributes of the vertices [first, first+count) in the
+	 * interleaved layout to a buffer in native byte order, starting at its
+	 * current position. The position of the buffer is advanced past the
+	 * written bytes.
+	 */
+	public void packInterleaved(ByteBuffer buffer, int first, int count) {
+		int start = buffer.position();
+		for (VertexElement e : vertexElements)
+			e.encode(buffer, start + e.offset, first, count, stride);
+		buffer.position(start + count * stride);
+	}
+
+	/**
+	 * Recompute the stride and the offsets of the elements in the interleaved
+	 * layout.
+	 */
+	private void updateLayout() {
+		stride = 0;
+		for (VertexElement e : vertexElements) {
+			e.offset = stride;
+			stride += e.getEncodedSize();
+		}
+	}
+
+	/**
+	 * Choose compact encodings for all vertex elements: positions relative
+	 * to their bounding cube in 16 bit integers, normals and tangents in 10
+	 * bit integers per component, texture coordinates in 16 bit integers if
+	 * they are in [0,1] or in 16 bit floats otherwise, and colors in 8 bit
+	 * integers. This roughly halves the size of the vertex data in graphics
+	 * memory. It needs to be called after the elements have been filled, and
+	 * before the vertex data is drawn the first time.
+	 * <p>
+	 * Shaders that transform normals with the modelview matrix need to
+	 * normalize them, because the modelview matrix includes the scaling of
+	 * the positions, see {@link #getPositionDequantization()}.
+	 */
+	public void quantize() {
+		for (VertexElement e : vertexElements) {
+			switch (e.semantic) {
+			case POSITION:
+				e.setEncoding(Encoding.UNORM16);
+				break;
+			case NORMAL:
+				if (e.nComponents == 3)
+					e.setEncoding(Encoding.SNORM10);
+				break;
+			case TANGENT:
+				if (e.nComponents == 4)
+					e.setEncoding(Encoding.SNORM10);
+				break;
+			case TEXCOORD:
+				e.setEncoding(e.isInUnitRange() ? Encoding.UNORM16 : Encoding.HALF_FLOAT);
+				break;
+			case COLOR:
+				if (e.nComponents <= 4)
+					e.setEncoding(Encoding.UNORM8);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Returns the transformation from the encoded positions to the original
+	 * ones, if the positions are encoded as {@link Encoding#UNORM16}, or null
+	 * otherwise. The render context multiplies it to the transformation of
+	 * the object. It translates and scales uniformly, so it does not change
+	 * the direction of normals.
+	 */
+	public Matrix4f getPositionDequantization() {
+		for (VertexElement e : vertexElements) {
+			if (e.semantic == Semantic.POSITION && e.encoding == Encoding.UNORM16) {
+				Matrix4f m = new Matrix4f();
+				m.setIdentity();
+				m.m00 = m.m11 = m.m22 = e.scale;
+				m.m03 = e.min[0];
+				m.m13 = e.min[1];
+				m.m23 = e.min[2];
+				return m;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Convert a float to a 16 bit float (IEEE 754 binary16), rounding to the
+	 * nearest value.
+	 */
+	static short halfFloat(float f) {
+		int bits = Float.floatToIntBits(f);
+		int sign = bits >>> 16 & 0x8000;
+		int exponent = (bits >>> 23 & 0xff) - 127 + 15;
+		int mantissa = bits & 0x7fffff;
+		if ((bits & 0x7fffffff) > 0x7f800000)
+			return (short) (sign | 0x7e00);
+		if (exponent >= 31)
+			return (short) (sign | 0x7c00);
+		int shift = 13;
+		if (exponent <= 0) {
+			// Subnormal half float, or zero
+			if (exponent < -10)
+				return (short) sign;
+			mantissa |= 0x800000;
+			shift = 14 - exponent;
+			exponent = 0;
+		}
+		int h = exponent << 10 | mantissa >> shift;
+		// Round to nearest even, a carry into the exponent is correct
+		int rest = mantissa & (1 << shift) - 1, half = 1 << shift - 1;
+		if (rest > half || rest == half && (h & 1) != 0)
+			h++;
+		return (short) (sign | h);
+	}
+
+	/**
+	 * Release resources that the render context allocated for this vertex
+	 * data, for example buffers in graphics memory. The vertex data may be
+	 * used again afterwards, the resources are then allocated anew. The
+	 * default implementation does nothing.
+	 */
+	public void dispose() {
+	}
+
+	/**
+	 * Encodings of vertex elements in graphics memory. Elements with fewer
+	 * components than the encoding needs are padded, the fourth component
+	 * with one and others with zero.
+	 */
+	public enum Encoding {
+		/**
+		 * 32 bit floats, the default.
+		 */
+		FLOAT,
+		/**
+		 * 16 bit floats, padded to an even number of components.
+		 */
+		HALF_FLOAT,
+		/**
+		 * 16 bit unsigned integers that map to [0,1], padded to an even
+		 * number of components. Positions are stored relative to their
+		 * bounding cube, other elements are clamped to [0,1].
+		 */
+		UNORM16,
+		/**
+		 * Three components in signed 10 bit integers that map to [-1,1],
+		 * packed into 32 bits, and an optional fourth one in 2 bits, which
+		 * is -1, 0 or 1. For normals and tangents.
+		 */
+		SNORM10,
+		/**
+		 * Four components in 8 bit unsigned integers that map to [0,1]. For
+		 * colors.
+		 */
+		UNORM8
+	}
+
 	/**
 	 * A vertex element is an array of floats that stores vertex attributes,
 	 * like positions, normals, or texture coordinates. The element stores the
@@ -100,13 +563,49 @@ public abstract class VertexData {
 	public class VertexElement {
 
 		private float[] data;
+		private FloatBuffer buffer;
 		private Semantic semantic;
 		private int nComponents;
+		private int offset;
+		private Encoding encoding = Encoding.FLOAT;
 
+		/**
+		 * The bounding cube of positions encoded as {@link Encoding#UNORM16}
+		 */
+		private float[] min;
+		private float scale;
+
+		/**
+		 * The ranges of vertices that changed since the last upload
+		 */
+		private final DirtyRanges dirtyRanges = new DirtyRanges();
+
+		/**
+		 * Returns the array of this element, or null if the element is
+		 * stored in a direct buffer. {@link #getBuffer()} works in both
+		 * cases.
+		 */
 		public float[] getData() {
 			return data;
 		}
 
+		/**
+		 * Returns the data of this element as a buffer. This is the direct
+		 * buffer, if the element is stored in one, or otherwise a buffer that
+		 * wraps the array of the element.
+		 */
+		public FloatBuffer getBuffer() {
+			if (data != null)
+				return FloatBuffer.wrap(data);
+			FloatBuffer b = buffer.duplicate();
+			b.clear();
+			return b;
+		}
+
+		public boolean isDirect() {
+			return buffer != null;
+		}
+
 		public Semantic getSemantic() {
 			return semantic;
 		}
@@ -115,13 +614,183 @@ public abstract class VertexData {
 			return nComponents;
 		}
 
+		/**
+		 * Returns the offset in bytes of this element within a vertex of the
+		 * interleaved layout.
+		 */
+		public int getOffset() {
+			return offset;
+		}
+
+		/**
+		 * Mark the vertices [first, first+count) of this element as changed,
+		 * so the render context uploads them again.
+		 */
+		public void markDirty(int first, int count) {
+			dirtyRanges.add(first, count);
+			dirty = true;
+		}
+
+		/**
+		 * Returns the ranges of vertices that changed since the last upload.
+		 */
+		public DirtyRanges getDirtyRanges() {
+			return dirtyRanges;
+		}
+
+		/**
+		 * Choose how the render context stores this element in graphics
+		 * memory. The data of the element itself stays in floats. For
+		 * positions in {@link Encoding#UNORM16}, the bounding cube is computed
+		 * from the current data, and changed positions outside of it are
+		 * clamped; positions that move need to use another encoding. It needs
+		 * to be set before the vertex data is drawn the first time.
+		 */
+		public void setEncoding(Encoding encoding) {
+			if (encoding == Encoding.SNORM10 && nComponents != 3 && nComponents != 4
+					|| encoding == Encoding.UNORM8 && nComponents > 4)
+				throw new IllegalArgumentException(encoding + " does not support " + nComponents + " components");
+			this.encoding = encoding;
+			if (encoding == Encoding.UNORM16 && semantic == Semantic.POSITION)
+				computeBoundingCube();
+			updateLayout();
+		}
+
+		public Encoding getEncoding() {
+			return encoding;
+		}
+
+		/**
+		 * Returns the number of components in graphics memory, including
+		 * padding.
+		 */
+		public int getEncodedComponents() {
+			switch (encoding) {
+			case HALF_FLOAT:
+			case UNORM16:
+				return nComponents + 1 & ~1;
+			case SNORM10:
+			case UNORM8:
+				return 4;
+			default:
+				return nComponents;
+			}
+		}
+
+		/**
+		 * Returns the number of bytes per vertex in graphics memory.
+		 */
+		public int getEncodedSize() {
+			switch (encoding) {
+			case HALF_FLOAT:
+			case UNORM16:
+				return 2 * getEncodedComponents();
+			case SNORM10:
+			case UNORM8:
+				return 4;
+			default:
+				return 4 * nComponents;
+			}
+		}
+
+		/**
+		 * Write the vertices [first, first+count) of this element in its
+		 * encoding to a buffer in native byte order, the first one at the
+		 * given index and the following ones each stride bytes further.
+		 */
+		public void encode(ByteBuffer buffer, int index, int first, int count, int stride) {
+			int dim = nComponents, size = getEncodedComponents();
+			for (int v = first, i = index; v < first + count; v++, i += stride) {
+				int k = v * dim;
+				switch (encoding) {
+				case FLOAT:
+					for (int c = 0; c < dim; c++)
+						buffer.putFloat(i + 4 * c, get(k + c));
+					break;
+				case HALF_FLOAT:
+					for (int c = 0; c < size; c++)
+						buffer.putShort(i + 2 * c, halfFloat(c < dim ? get(k + c) : pad(c)));
+					break;
+				case UNORM16:
+					for (int c = 0; c < size; c++) {
+						float x = c >= dim ? pad(c) : min == null || c > 2 ? get(k + c) : (get(k + c) - min[c]) / scale;
+						buffer.putShort(i + 2 * c, (short) unorm(x, 65535));
+					}
+					break;
+				case SNORM10:
+					buffer.putInt(i, (snorm(get(k), 511) & 1023) | (snorm(get(k + 1), 511) & 1023) << 10
+							| (snorm(get(k + 2), 511) & 1023) << 20 | (dim == 4 ? snorm(get(k + 3), 1) & 3 : 0) << 30);
+					break;
+				case UNORM8:
+					for (int c = 0; c < 4; c++)
+						buffer.put(i + c, (byte) unorm(c < dim ? get(k + c) : pad(c), 255));
+					break;
+				}
+			}
+		}
+
+		private float get(int i) {
+			return data != null ? data[i] : buffer.get(i);
+		}
+
+		private float pad(int c) {
+			return c == 3 ? 1 : 0;
+		}
+
+		private int unorm(float x, int max) {
+			return Math.round(Math.min(Math.max(x, 0), 1) * max);
+		}
+
+		private int snorm(float x, int max) {
+			return Math.round(Math.min(Math.max(x, -1), 1) * max);
+		}
+
+		private boolean isInUnitRange() {
+			for (int i = 0; i < n * nComponents; i++) {
+				float x = get(i);
+				if (!(x >= 0 && x <= 1))
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Compute the smallest corner and the edge length of the cube with
+		 * the same center as the bounding box of the positions.
+		 */
+		private void computeBoundingCube() {
+			int dim = Math.min(nComponents, 3);
+			float[] lo = new float[3], hi = new float[3];
+			for (int c = 0; c < dim; c++) {
+				lo[c] = Float.MAX_VALUE;
+				hi[c] = -Float.MAX_VALUE;
+			}
+			for (int v = 0; v < n; v++) {
+				for (int c = 0; c < dim; c++) {
+					float x = get(v * nComponents + c);
+					lo[c] = Math.min(lo[c], x);
+					hi[c] = Math.max(hi[c], x);
+				}
+			}
+			scale = 0;
+			for (int c = 0; c < dim; c++)
+				scale = Math.max(scale, hi[c] - lo[c]);
+			if (!(scale > 0))
+				scale = 1;
+			min = new float[3];
+			for (int c = 0; c < dim; c++)
+				min[c] = n == 0 ? 0 : (lo[c] + hi[c] - scale) / 2;
+		}
+
 	}
 
 	/**
-	 * Vertex data semantic can be position, normal, texture or color
-	 * coordinates.
+	 * The meaning of a vertex element. TANGENT has four components: the
+	 * tangent in the direction of the first texture coordinate, and in w the
+	 * sign of the bitangent, which is w * cross(normal, tangent), see
+	 * {@link TangentGenerator}.
 	 */
 	public enum Semantic {
-		POSITION, NORMAL, TEXCOORD, COLOR
+		POSITION, NORMAL, TEXCOORD, COLOR, TANGENT
 	}
 }
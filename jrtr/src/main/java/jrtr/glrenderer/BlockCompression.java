@@ -0,0 +1,333 @@
+package jrtr.glrenderer;
+
+import java.util.stream.IntStream;
+
+/**
+ * Encodes and decodes RGBA images in the S3TC block compression formats BC1
+ * (DXT1) and BC3 (DXT5). Both split the image into blocks of 4x4 texels.
+ * BC1 stores a block in 8 bytes, two RGB565 end points and a 2 bit index per
+ * texel; alpha is not stored. BC3 adds 8 bytes for alpha, two 8 bit end
+ * points and a 3 bit index per texel.
+ * <p>
+ * The end points of the colors are the extremes of the block along its
+ * principal axis, refined by a least squares fit to the chosen indices. Rows
+ * of blocks are encoded in parallel. Images whose size is not a multiple of
+ * four are padded by repeating their last row and column.
+ */
+class BlockCompression {
+
+	static final int BC1 = 1;
+	static final int BC3 = 2;
+
+	/**
+	 * Returns the size in bytes of an image in the given format.
+	 */
+	static int size(int format, int w, int h) {
+		return blockSize(format) * ((w + 3) / 4) * ((h + 3) / 4);
+	}
+
+	private static int blockSize(int format) {
+		return format == BC1 ? 8 : 16;
+	}
+
+	/**
+	 * Encode RGBA pixels.
+	 */
+	static byte[] encode(byte[] rgba, int w, int h, int format) {
+		int bw = (w + 3) / 4, bh = (h + 3) / 4;
+		int blockSize = blockSize(format);
+		byte[] blocks = new byte[size(format, w, h)];
+		IntStream.range(0, bh).parallel().forEach(by -> {
+			int[] block = new int[64];
+			for (int bx = 0; bx < bw; bx++) {
+				fetch(rgba, w, h, bx, by, block);
+				int offset = blockSize * (by * bw + bx);
+				if (format == BC3) {
+					encodeAlpha(block, blocks, offset);
+					offset += 8;
+				}
+				encodeColor(block, blocks, offset);
+			}
+		});
+		return blocks;
+	}
+
+	/**
+	 * Decode blocks to RGBA pixels. For BC1, alpha is set to 255.
+	 */
+	static byte[] decode(byte[] blocks, int w, int h, int format) {
+		int bw = (w + 3) / 4, bh = (h + 3) / 4;
+		int blockSize = blockSize(format);
+		byte[] rgba = new byte[4 * w * h];
+		IntStream.range(0, bh).parallel().forEach(by -> {
+			int[] palette = new int[32];
+			for (int bx = 0; bx < bw; bx++) {
+				int offset = blockSize * (by * bw + bx);
+				long alphaBits = 0;
+				if (format == BC3) {
+					alphaPalette(blocks[offset] & 0xff, blocks[offset + 1] & 0xff, palette);
+					for (int k = 2; k < 8; k++)
+						alphaBits |= (blocks[offset + k] & 0xffL) << (8 * (k - 2));
+					offset += 8;
+				}
+				int c0 = (blocks[offset] & 0xff) | (blocks[offset + 1] & 0xff) << 8;
+				int c1 = (blocks[offset + 2] & 0xff) | (blocks[offset + 3] & 0xff) << 8;
+				colorPalette(c0, c1, palette);
+				for (int t = 0; t < 16; t++) {
+					int x = 4 * bx + (t & 3), y = 4 * by + (t >> 2);
+					if (x >= w || y >= h)
+						continue;
+					int i = (blocks[offset + 4 + (t >> 2)] >> (2 * (t & 3))) & 3;
+					int p = 4 * (y * w + x);
+					rgba[p] = (byte) palette[8 + 3 * i];
+					rgba[p + 1] = (byte) palette[8 + 3 * i + 1];
+					rgba[p + 2] = (byte) palette[8 + 3 * i + 2];
+					rgba[p + 3] = (byte) (format == BC3 ? palette[(int) (alphaBits >> (3 * t)) & 7] : 255);
+				}
+			}
+		});
+		return rgba;
+	}
+
+	/**
+	 * Computes the peak signal to noise ratio in dB of an approximation of an
+	 * RGBA image, over the first nChannels channels.
+	 */
+	static double psnr(byte[] reference, byte[] approximation, int nChannels) {
+		double sum = 0;
+		long n = 0;
+		for (int p = 0; p < reference.length; p += 4) {
+			for (int c = 0; c < nChannels; c++) {
+				int d = (reference[p + c] & 0xff) - (approximation[p + c] & 0xff);
+				sum += d * d;
+			}
+			n += nChannels;
+		}
+		if (sum == 0)
+			return Double.POSITIVE_INFINITY;
+		return 10 * Math.log10(255.0 * 255.0 * n / sum);
+	}
+
+	/**
+	 * Copy the 4x4 texels of a block, clamping coordinates to the image.
+	 */
+	private static void fetch(byte[] rgba, int w, int h, int bx, int by, int[] block) {
+		for (int t = 0; t < 16; t++) {
+			int x = Math.min(4 * bx + (t & 3), w - 1);
+			int y = Math.min(4 * by + (t >> 2), h - 1);
+			int p = 4 * (y * w + x);
+			for (int c = 0; c < 4; c++)
+				block[4 * t + c] = rgba[p + c] & 0xff;
+		}
+	}
+
+	private static void encodeAlpha(int[] block, byte[] out, int offset) {
+		int a0 = 0, a1 = 255;
+		for (int t = 0; t < 16; t++) {
+			a0 = Math.max(a0, block[4 * t + 3]);
+			a1 = Math.min(a1, block[4 * t + 3]);
+		}
+		out[offset] = (byte) a0;
+		out[offset + 1] = (byte) a1;
+		long bits = 0;
+		if (a0 > a1) {
+			int[] palette = new int[8];
+			alphaPalette(a0, a1, palette);
+			for (int t = 0; t < 16; t++) {
+				int a = block[4 * t + 3];
+				int best = 0;
+				for (int i = 1; i < 8; i++)
+					if (Math.abs(palette[i] - a) < Math.abs(palette[best] - a))
+						best = i;
+				bits |= (long) best << (3 * t);
+			}
+		}
+		for (int k = 0; k < 6; k++)
+			out[offset + 2 + k] = (byte) (bits >> (8 * k));
+	}
+
+	private static void alphaPalette(int a0, int a1, int[] palette) {
+		palette[0] = a0;
+		palette[1] = a1;
+		if (a0 > a1) {
+			for (int i = 1; i < 7; i++)
+				palette[i + 1] = ((7 - i) * a0 + i * a1) / 7;
+		} else {
+			for (int i = 1; i < 5; i++)
+				palette[i + 1] = ((5 - i) * a0 + i * a1) / 5;
+			palette[6] = 0;
+			palette[7] = 255;
+		}
+	}
+
+	/**
+	 * Encode the colors of a block, always in the four color mode.
+	 */
+	private static void encodeColor(int[] block, byte[] out, int offset) {
+		// Mean and covariance
+		float[] mean = new float[3];
+		for (int t = 0; t < 16; t++)
+			for (int c = 0; c < 3; c++)
+				mean[c] += block[4 * t + c] / 16.f;
+		float[] cov = new float[6];
+		for (int t = 0; t < 16; t++) {
+			float r = block[4 * t] - mean[0], g = block[4 * t + 1] - mean[1], b = block[4 * t + 2] - mean[2];
+			cov[0] += r * r; cov[1] += r * g; cov[2] += r * b;
+			cov[3] += g * g; cov[4] += g * b; cov[5] += b * b;
+		}
+
+		// Principal axis by power iteration
+		float ax = 1, ay = 1, az = 1;
+		for (int k = 0; k < 8; k++) {
+			float x = cov[0] * ax + cov[1] * ay + cov[2] * az;
+			float y = cov[1] * ax + cov[3] * ay + cov[4] * az;
+			float z = cov[2] * ax + cov[4] * ay + cov[5] * az;
+			float m = Math.max(Math.abs(x), Math.max(Math.abs(y), Math.abs(z)));
+			if (m == 0)
+				break;
+			ax = x / m; ay = y / m; az = z / m;
+		}
+
+		// End points at the extremes along the axis
+		float lo = Float.MAX_VALUE, hi = -Float.MAX_VALUE;
+		for (int t = 0; t < 16; t++) {
+			float d = (block[4 * t] - mean[0]) * ax + (block[4 * t + 1] - mean[1]) * ay
+					+ (block[4 * t + 2] - mean[2]) * az;
+			lo = Math.min(lo, d);
+			hi = Math.max(hi, d);
+		}
+		float n = ax * ax + ay * ay + az * az;
+		lo /= n;
+		hi /= n;
+		int c0 = rgb565(mean[0] + hi * ax, mean[1] + hi * ay, mean[2] + hi * az);
+		int c1 = rgb565(mean[0] + lo * ax, mean[1] + lo * ay, mean[2] + lo * az);
+
+		int[] palette = new int[32];
+		int[] indices = new int[16];
+		int error = indices(block, c0, c1, palette, indices);
+
+		// Refine the end points with a least squares fit to the indices
+		int[] refined = new int[16];
+		int[] ends = refine(block, indices);
+		if (ends != null) {
+			int e = indices(block, ends[0], ends[1], palette, refined);
+			if (e < error) {
+				c0 = ends[0];
+				c1 = ends[1];
+				System.arraycopy(refined, 0, indices, 0, 16);
+			}
+		}
+
+		// Four color mode requires c0 > c1
+		if (c0 < c1) {
+			int c = c0; c0 = c1; c1 = c;
+			for (int t = 0; t < 16; t++)
+				indices[t] ^= 1;
+		} else if (c0 == c1) {
+			for (int t = 0; t < 16; t++)
+				indices[t] = 0;
+		}
+
+		out[offset] = (byte) c0;
+		out[offset + 1] = (byte) (c0 >> 8);
+		out[offset + 2] = (byte) c1;
+		out[offset + 3] = (byte) (c1 >> 8);
+		for (int row = 0; row < 4; row++)
+			out[offset + 4 + row] = (byte) (indices[4 * row] | indices[4 * row + 1] << 2
+					| indices[4 * row + 2] << 4 | indices[4 * row + 3] << 6);
+	}
+
+	/**
+	 * Choose the closest palette entry for each texel. Returns the total
+	 * squared error.
+	 */
+	private static int indices(int[] block, int c0, int c1, int[] palette, int[] indices) {
+		// The order of the end points is fixed later, so the palette is made
+		// as in four color mode regardless of their order
+		expand565(c0, palette, 8);
+		expand565(c1, palette, 11);
+		for (int c = 0; c < 3; c++) {
+			palette[14 + c] = (2 * palette[8 + c] + palette[11 + c]) / 3;
+			palette[17 + c] = (palette[8 + c] + 2 * palette[11 + c]) / 3;
+		}
+		int error = 0;
+		for (int t = 0; t < 16; t++) {
+			int best = 0, bestError = Integer.MAX_VALUE;
+			for (int i = 0; i < 4; i++) {
+				int dr = block[4 * t] - palette[8 + 3 * i];
+				int dg = block[4 * t + 1] - palette[8 + 3 * i + 1];
+				int db = block[4 * t + 2] - palette[8 + 3 * i + 2];
+				int e = dr * dr + dg * dg + db * db;
+				if (e < bestError) {
+					best = i;
+					bestError = e;
+				}
+			}
+			indices[t] = best;
+			error += bestError;
+		}
+		return error;
+	}
+
+	/**
+	 * Solve for the end points that minimize the squared error for the given
+	 * indices, or return null if the system is singular.
+	 */
+	private static int[] refine(int[] block, int[] indices) {
+		// Weight of c0 for palette entries 0..3
+		final float[] weights = { 1, 0, 2 / 3.f, 1 / 3.f };
+		float aa = 0, ab = 0, bb = 0;
+		float[] ax = new float[3], bx = new float[3];
+		for (int t = 0; t < 16; t++) {
+			float a = weights[indices[t]], b = 1 - a;
+			aa += a * a;
+			ab += a * b;
+			bb += b * b;
+			for (int c = 0; c < 3; c++) {
+				ax[c] += a * block[4 * t + c];
+				bx[c] += b * block[4 * t + c];
+			}
+		}
+		float det = aa * bb - ab * ab;
+		if (Math.abs(det) < 1e-6f)
+			return null;
+		float[] e0 = new float[3], e1 = new float[3];
+		for (int c = 0; c < 3; c++) {
+			e0[c] = (bb * ax[c] - ab * bx[c]) / det;
+			e1[c] = (aa * bx[c] - ab * ax[c]) / det;
+		}
+		return new int[] { rgb565(e0[0], e0[1], e0[2]), rgb565(e1[0], e1[1], e1[2]) };
+	}
+
+	/**
+	 * Decode the four color palette of a block into palette[8..19], as RGB
+	 * triples.
+	 */
+	private static void colorPalette(int c0, int c1, int[] palette) {
+		expand565(c0, palette, 8);
+		expand565(c1, palette, 11);
+		for (int c = 0; c < 3; c++) {
+			if (c0 > c1) {
+				palette[14 + c] = (2 * palette[8 + c] + palette[11 + c]) / 3;
+				palette[17 + c] = (palette[8 + c] + 2 * palette[11 + c]) / 3;
+			} else {
+				palette[14 + c] = (palette[8 + c] + palette[11 + c]) / 2;
+				palette[17 + c] = 0;
+			}
+		}
+	}
+
+	private static void expand565(int c, int[] rgb, int offset) {
+		int r = (c >> 11) & 31, g = (c >> 5) & 63, b = c & 31;
+		rgb[offset] = (r << 3) | (r >> 2);
+		rgb[offset + 1] = (g << 2) | (g >> 4);
+		rgb[offset + 2] = (b << 3) | (b >> 2);
+	}
+
+	private static int rgb565(float r, float g, float b) {
+		int ri = Math.max(0, Math.min(31, Math.round(r * 31 / 255)));
+		int gi = Math.max(0, Math.min(63, Math.round(g * 63 / 255)));
+		int bi = Math.max(0, Math.min(31, Math.round(b * 31 / 255)));
+		return ri << 11 | gi << 5 | bi;
+	}
+}
@@ -0,0 +1,212 @@
+package jrtr.glrenderer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jrtr.ObjReader;
+import jrtr.Shader;
+import jrtr.Texture;
+import jrtr.VertexData;
+
+/**
+ * Loads meshes, textures and shaders in the background. File input and 
+ * decoding run on worker threads, and only the OpenGL calls that upload the
+ * results are passed to the rendering thread of a {@link GLRenderContext},
+ * which runs them between frames. Hence the render window stays responsive
+ * while assets are loading.
+ * <p>
+ * All methods return a {@link CompletableFuture} that is completed on the
+ * rendering thread once the asset is ready to be drawn. Dependent actions
+ * that are not explicitly asynchronous, like
+ * <code>loader.loadObj(...).thenAccept(v -&gt; sceneManager.addShape(new Shape(v)))</code>,
+ * therefore also run on the rendering thread and may use the scene manager
+ * and OpenGL. 
+ */
+public class GLAssetLoader {
+
+	private final GLRenderContext renderContext;
+	private final ExecutorService workers;
+	
+	/**
+	 * Make a loader that uploads to the given render context. It uses one
+	 * worker thread per processor.
+	 */
+	public GLAssetLoader(GLRenderContext renderContext)
+	{
+		this(renderContext, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Make a loader that uploads to the given render context and uses the 
+	 * given number of worker threads.
+	 */
+	public GLAssetLoader(GLRenderContext renderContext, int nThreads)
+	{
+		this.renderContext = renderContext;
+		AtomicInteger threadNr = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(nThreads, r -> {
+			// Daemon threads do not keep the application alive when the
+			// window is closed
+			Thread t = new Thread(r, "jrtr-asset-loader-" + threadNr.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+	
+	/**
+	 * Read an .obj file like {@link ObjReader#readParallel} and upload its
+	 * vertex data to OpenGL.
+	 * 
+	 * @param fileName
+	 * 			the file to read.
+	 * @param scale
+	 * 			scales the object to fit into a cube of the given size
+	 * @return the future vertex data
+	 */
+	public CompletableFuture<VertexData> loadObj(String fileName, float scale)
+	{
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return ObjReader.readParallel(fileName, scale, renderContext);
+			} catch(Exception e) {
+				throw new CompletionException(e);
+			}
+		}, workers).thenApplyAsync(vertexData -> {
+			renderContext.upload((GLVertexData)vertexData);
+			return vertexData;
+		}, renderContext.getRenderThreadExecutor());
+	}
+	
+	/**
+	 * Read an .obj file like {@link ObjReader#readIndexed(String, float, RenderContext, boolean)},
+	 * with shared vertices and optionally with tangents for normal mapping,
+	 * and upload its vertex data to OpenGL. The tangents are generated on
+	 * the worker thread.
+	 * 
+	 * @param fileName
+	 * 			the file to read.
+	 * @param scale
+	 * 			scales the object to fit into a cube of the given size
+	 * @param tangents
+	 * 			whether to generate tangents, if the file has texture
+	 * 			coordinates
+	 * @return the future vertex data
+	 */
+	public CompletableFuture<VertexData> loadObj(String fileName, float scale, boolean tangents)
+	{
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return ObjReader.readIndexed(fileName, scale, renderContext, tangents);
+			} catch(Exception e) {
+				throw new CompletionException(e);
+			}
+		}, workers).thenApplyAsync(vertexData -> {
+			renderContext.upload((GLVertexData)vertexData);
+			return vertexData;
+		}, renderContext.getRenderThreadExecutor());
+	}
+	
+	/**
+	 * Load a texture from an image file. The image is decoded on a worker
+	 * thread.
+	 * 
+	 * @param fileName
+	 * 			the image file
+	 * @return the future texture
+	 */
+	public CompletableFuture<Texture> loadTexture(String fileName)
+	{
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return GLTexture.decode(fileName);
+			} catch(Exception e) {
+				throw new CompletionException(e);
+			}
+		}, workers).thenApplyAsync(image -> {
+			GLTexture texture = new GLTexture();
+			texture.upload(image);
+			return (Texture)texture;
+		}, renderContext.getRenderThreadExecutor());
+	}
+	
+	/**
+	 * Load a texture from the baked container of an image file, like
+	 * {@link GLTexture#loadBaked(String)}. The container is baked, if
+	 * necessary, and read on a worker thread.
+	 * 
+	 * @param fileName
+	 * 			the image file
+	 * @return the future texture
+	 */
+	public CompletableFuture<Texture> loadBakedTexture(String fileName)
+	{
+		return loadBakedTexture(fileName, TextureContainer.FORMAT_RGBA8);
+	}
+	
+	/**
+	 * Load a texture from the baked container of an image file in the given
+	 * format, like {@link GLTexture#loadBaked(String, int)}. Baking, which
+	 * includes compressing the texture, runs on a worker thread.
+	 * 
+	 * @param fileName
+	 * 			the image file
+	 * @param format
+	 * 			one of the FORMAT constants of {@link TextureContainer}
+	 * @return the future texture
+	 */
+	public CompletableFuture<Texture> loadBakedTexture(String fileName, int format)
+	{
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return TextureContainer.readBaked(fileName, format);
+			} catch(Exception e) {
+				throw new CompletionException(e);
+			}
+		}, workers).thenApplyAsync(container -> {
+			GLTexture texture = new GLTexture();
+			texture.upload(container);
+			return (Texture)texture;
+		}, renderContext.getRenderThreadExecutor());
+	}
+	
+	/**
+	 * Load a shader. The shader source code is read on a worker thread, and
+	 * compiled on the rendering thread.
+	 * 
+	 * @param vertexFileName
+	 * 			the vertex shader file
+	 * @param fragmentFileName
+	 * 			the fragment shader file
+	 * @return the future shader
+	 */
+	public CompletableFuture<Shader> loadShader(String vertexFileName, String fragmentFileName)
+	{
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return new String[] { GLShader.readSource(vertexFileName), GLShader.readSource(fragmentFileName) };
+			} catch(Exception e) {
+				throw new CompletionException(e);
+			}
+		}, workers).thenApplyAsync(sources -> {
+			GLShader shader = new GLShader();
+			try {
+				shader.compile(sources[0], vertexFileName, sources[1], fragmentFileName);
+			} catch(Exception e) {
+				throw new CompletionException(e);
+			}
+			return (Shader)shader;
+		}, renderContext.getRenderThreadExecutor());
+	}
+	
+	/**
+	 * Stop the worker threads. Loads that are in progress are completed, 
+	 * but no new loads can be started.
+	 */
+	public void shutdown()
+	{
+		workers.shutdown();
+	}
+}
@@ -0,0 +1,263 @@
+package jrtr.glrenderer;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import jrtr.ObjReader;
+import jrtr.Texture;
+import jrtr.VertexData;
+
+/**
+ * Shares meshes and textures between shapes. Assets are identified by their
+ * file and load options. Acquiring an asset that is already loaded returns
+ * the same instance and increases its reference count, releasing it
+ * decreases the count.
+ * <p>
+ * Assets whose count drops to zero stay cached, so they can be acquired
+ * again without loading, as long as the memory used by all cached assets
+ * fits into the CPU and GPU memory budget. If it does not, the least
+ * recently released assets are evicted, that is, their OpenGL objects are
+ * deleted and the registry drops its reference. With the default budgets of
+ * zero, assets are evicted as soon as they are no longer referenced.
+ * <p>
+ * The registry makes OpenGL calls and needs to be used on the rendering
+ * thread.
+ */
+public class GLAssetRegistry {
+
+	/**
+	 * An asset with its reference count.
+	 */
+	private static class Entry
+	{
+		String key;
+		Object asset;
+		int references;
+	}
+
+	private final GLRenderContext renderContext;
+	private final HashMap<String, Entry> entries;
+	private final IdentityHashMap<Object, Entry> entriesByAsset;
+
+	// Unreferenced entries, least recently released first
+	private final LinkedHashMap<String, Entry> unreferenced;
+
+	private long cpuBudget, gpuBudget;
+
+	public GLAssetRegistry(GLRenderContext renderContext)
+	{
+		this.renderContext = renderContext;
+		entries = new HashMap<String, Entry>();
+		entriesByAsset = new IdentityHashMap<Object, Entry>();
+		unreferenced = new LinkedHashMap<String, Entry>();
+		cpuBudget = 0;
+		gpuBudget = 0;
+	}
+
+	/**
+	 * Set the memory budget for assets. Unreferenced assets are evicted until
+	 * all assets fit into the budget. Assets that are referenced are never
+	 * evicted, even if they exceed the budget.
+	 *
+	 * @param cpuBytes
+	 * 		the budget for main memory in bytes
+	 * @param gpuBytes
+	 * 		the budget for OpenGL memory in bytes
+	 */
+	public void setBudget(long cpuBytes, long gpuBytes)
+	{
+		cpuBudget = cpuBytes;
+		gpuBudget = gpuBytes;
+		evict();
+	}
+
+	/**
+	 * Get the vertex data of an .obj file, loading it with
+	 * {@link ObjReader#readParallel} if necessary. Release it with
+	 * {@link #release(Object)} when it is no longer used.
+	 *
+	 * @param fileName
+	 * 		the .obj file
+	 * @param scale
+	 * 		scales the object to fit into a cube of the given size
+	 */
+	public VertexData acquireObj(String fileName, float scale) throws IOException
+	{
+		String key = "obj:" + Paths.get(fileName).toAbsolutePath().normalize() + ":" + scale;
+		Entry e = acquire(key);
+		if(e.asset == null)
+		{
+			try {
+				e.asset = ObjReader.readParallel(fileName, scale, renderContext);
+			} finally {
+				register(e);
+			}
+		}
+		return (VertexData)e.asset;
+	}
+
+	/**
+	 * Get a texture loaded from an image file. Release it with
+	 * {@link #release(Object)} when it is no longer used.
+	 *
+	 * @param fileName
+	 * 		the image file
+	 */
+	public Texture acquireTexture(String fileName) throws IOException
+	{
+		String key = "texture:" + Paths.get(fileName).toAbsolutePath().normalize();
+		Entry e = acquire(key);
+		if(e.asset == null)
+		{
+			try {
+				GLTexture texture = new GLTexture();
+				try {
+					texture.load(fileName);
+				} catch(IOException ex) {
+					texture.dispose();
+					throw ex;
+				}
+				e.asset = texture;
+			} finally {
+				register(e);
+			}
+		}
+		return (Texture)e.asset;
+	}
+
+	/**
+	 * Release an asset acquired from this registry.
+	 *
+	 * @param asset
+	 * 		the asset, a {@link VertexData} or {@link Texture}
+	 */
+	public void release(Object asset)
+	{
+		Entry e = entriesByAsset.get(asset);
+		if(e == null || e.references == 0)
+			throw new IllegalArgumentException("Asset has not been acquired from this registry");
+		e.references--;
+		if(e.references == 0)
+		{
+			unreferenced.put(e.key, e);
+			evict();
+		}
+	}
+
+	/**
+	 * Returns the number of references to an asset, or zero if the registry
+	 * does not know the asset.
+	 */
+	public int getReferences(Object asset)
+	{
+		Entry e = entriesByAsset.get(asset);
+		return e == null ? 0 : e.references;
+	}
+
+	/**
+	 * Returns the main memory in bytes used by all assets in the registry.
+	 */
+	public long getCpuBytes()
+	{
+		long bytes = 0;
+		for(Entry e : entriesByAsset.values())
+			bytes += cpuBytes(e.asset);
+		return bytes;
+	}
+
+	/**
+	 * Returns the OpenGL memory in bytes used by all assets in the registry.
+	 */
+	public long getGpuBytes()
+	{
+		long bytes = 0;
+		for(Entry e : entriesByAsset.values())
+			bytes += gpuBytes(e.asset);
+		return bytes;
+	}
+
+	/**
+	 * Find or make the entry for a key and add a reference.
+	 */
+	private Entry acquire(String key)
+	{
+		Entry e = entries.get(key);
+		if(e == null)
+		{
+			e = new Entry();
+			e.key = key;
+			entries.put(key, e);
+		}
+		unreferenced.remove(key);
+		e.references++;
+		return e;
+	}
+
+	/**
+	 * Register the asset of a newly made entry, or remove the entry if
+	 * loading failed.
+	 */
+	private void register(Entry e)
+	{
+		if(e.asset != null)
+		{
+			entriesByAsset.put(e.asset, e);
+			evict();
+		}
+		else
+			entries.remove(e.key);
+	}
+
+	/**
+	 * Evict unreferenced assets, least recently released first, until all
+	 * assets fit into the budget.
+	 */
+	private void evict()
+	{
+		long cpu = getCpuBytes();
+		long gpu = getGpuBytes();
+		Iterator<Entry> itr = unreferenced.values().iterator();
+		while((cpu > cpuBudget || gpu > gpuBudget) && itr.hasNext())
+		{
+			Entry e = itr.next();
+			itr.remove();
+			cpu -= cpuBytes(e.asset);
+			gpu -= gpuBytes(e.asset);
+			if(e.asset instanceof GLVertexData)
+				((GLVertexData)e.asset).free();
+			else if(e.asset instanceof GLTexture)
+				((GLTexture)e.asset).dispose();
+			entries.remove(e.key);
+			entriesByAsset.remove(e.asset);
+		}
+	}
+
+	private static long cpuBytes(Object asset)
+	{
+		if(asset instanceof VertexData)
+		{
+			VertexData v = (VertexData)asset;
+			return v.getHeapBytes() + v.getDirectBytes();
+		}
+		// The pixels of textures only live in OpenGL memory
+		return 0;
+	}
+
+	private static long gpuBytes(Object asset)
+	{
+		if(asset instanceof GLVertexData)
+		{
+			// Vertex data is uploaded when it is drawn the first time
+			return ((GLVertexData)asset).getVAO() == null ? 0 : cpuBytes(asset);
+		}
+		if(asset instanceof GLTexture)
+		{
+			return ((GLTexture)asset).getSize();
+		}
+		return 0;
+	}
+}
@@ -1,11 +1,21 @@
 package jrtr.glrenderer;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import static org.lwjgl.opengl.GL45.*;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import javax.vecmath.*;
 
+import org.lwjgl.system.MemoryUtil;
+
+import jrtr.DirtyRanges;
 import jrtr.Light;
 import jrtr.Material;
+import jrtr.Meshlets;
 import jrtr.RenderContext;
 import jrtr.RenderItem;
 import jrtr.SceneManagerInterface;
@@ -33,11 +43,47 @@ public class GLRenderContext implements RenderContext {
 	 */
 	private int activeShaderID;
 
+	/**
+	 * Tasks that other threads submitted to be run on the rendering thread,
+	 * see {@link #getRenderThreadExecutor()}.
+	 */
+	private final ConcurrentLinkedQueue<Runnable> renderThreadTasks;
+	
+	/**
+	 * The maximum time in nanoseconds spent on running submitted tasks per 
+	 * frame. Tasks that do not fit are run in the next frame.
+	 */
+	private static final long RENDER_THREAD_TASK_BUDGET = 4000000;
+	
+	/**
+	 * The buffer that streaming vertex data is copied to every frame, see
+	 * {@link VertexData#setStreaming(boolean)}. It is made when it is needed
+	 * first, and replaced by a larger one if a frame does not fit.
+	 */
+	private GLStreamingBuffer streamingBuffer;
+	private static final int STREAMING_REGION_SIZE = 4 << 20;
+	private static final int STREAMING_REGIONS = 3;
+	
+	/**
+	 * A buffer in which streaming vertices are packed before they are copied
+	 * to the streaming buffer. Mapped memory is usually write-combined, and
+	 * slow for the scattered writes of packing.
+	 */
+	private ByteBuffer staging;
+	private static final int STAGING_SIZE = 64 << 10;
+	
+	/**
+	 * The number of the current frame.
+	 */
+	private int frame;
+
 	/**
 	 * This constructor is called by {@link GLRenderPanel}.
 	 */
 	public GLRenderContext() {
 		
+		renderThreadTasks = new ConcurrentLinkedQueue<Runnable>();
+
 		// Some OpenGL initialization
 		glEnable(GL_DEPTH_TEST);
 		glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
@@ -69,6 +115,10 @@ public class GLRenderContext implements RenderContext {
 	 */
 	public void display() {
 		
+		// Run tasks that need the OpenGL context, like uploading data that
+		// was loaded in the background
+		runRenderThreadTasks();
+		
 		// Do some processing at the beginning of the frame
 		beginFrame();
 
@@ -85,14 +135,44 @@ public class GLRenderContext implements RenderContext {
 		endFrame();
 	}
 
+	/**
+	 * Returns an executor that runs tasks on the rendering thread, between
+	 * two frames. Other threads use it to pass work that needs to make OpenGL
+	 * calls, like uploading vertex data or textures, to the rendering thread.
+	 * The executor may be used from any thread.
+	 */
+	public Executor getRenderThreadExecutor() {
+		return renderThreadTasks::add;
+	}
+	
+	/**
+	 * Run the tasks submitted to {@link #getRenderThreadExecutor()}, until
+	 * there are none left or the time budget for this frame is used up.
+	 */
+	private void runRenderThreadTasks() {
+		long t0 = System.nanoTime();
+		Runnable task;
+		while (System.nanoTime() - t0 < RENDER_THREAD_TASK_BUDGET
+				&& (task = renderThreadTasks.poll()) != null) {
+			task.run();
+		}
+	}
+
 	/**
 	 * This method is called at the beginning of each frame, i.e., before scene
 	 * drawing starts.
 	 */
 	private void beginFrame() {
+		frame++;
+		
 		// Set the active shader as default for this frame
 		glUseProgram(activeShaderID);
 		
+		// Wait until the GPU is done with the region of the streaming buffer
+		// that is written in this frame
+		if (streamingBuffer != null)
+			streamingBuffer.beginFrame();
+		
 		// Clear color and depth buffer for the new frame
 		glClear(GL_COLOR_BUFFER_BIT);
 		glClear(GL_DEPTH_BUFFER_BIT);
@@ -103,6 +183,9 @@ public class GLRenderContext implements RenderContext {
 	 * is complete.
 	 */
 	private void endFrame() {
+		if (streamingBuffer != null)
+			streamingBuffer.endFrame();
+		
 		// Flush the OpenGL pipeline
 		glFlush();
 	}
@@ -130,17 +213,35 @@ public class GLRenderContext implements RenderContext {
 		// efficiently.
 		if (vertexData.getVAO() == null) {
 			initArrayBuffer(vertexData);
+		} else if (vertexData.isDirty()) {
+			// Upload the parts of the vertex data that changed since then
+			updateArrayBuffer(vertexData);
 		}
 
 		// Set modelview and projection matrices in shader (has to be done in
 		// every step, since they usually have changed)
-		setTransformation(renderItem.getT());
+		setTransformation(renderItem.getT(), vertexData.getPositionDequantization());
 
 		// Bind the VAO of this shape. This activates the VBOs that we 
 		// associated with the VAO. We already loaded the vertex data into the
 		// VBOs on the GPU, so we do not have to send them again.
 		vertexData.getVAO().bind();
 		
+		if (vertexData.isStreaming()) {
+			drawStreaming(renderItem, vertexData);
+			return;
+		}
+		
+		// Interleaved vertex data keeps its attribute pointers in the VAO,
+		// they only need to be set up again when the shader changes
+		if (vertexData.isInterleaved()) {
+			if (vertexData.getVAO().attributeShader != activeShaderID) {
+				setInterleavedAttributes(vertexData, vertexData.getVAO().getVBO(0));
+			}
+			drawElements(renderItem, vertexData);
+			return;
+		}
+		
 		// Try to connect the vertex buffers to the corresponding variables 
 		// in the current vertex shader.
 		// Note: This is not part of the vertex array object, because the active
@@ -152,40 +253,34 @@ public class GLRenderContext implements RenderContext {
 		vertexData.getVAO().rewindVBO();
 		while (itr.hasNext()) {
 			VertexData.VertexElement e = itr.next();
-			int dim = e.getNumberOfComponents();
-
 			// Bind the next vertex buffer object
 			glBindBuffer(GL_ARRAY_BUFFER, vertexData.getVAO().getNextVBO());
 
 			// Tell OpenGL which "in" variable in the vertex shader corresponds
 			// to the current vertex buffer object.
 			// We use our own convention to name the variables, i.e.,
-			// "position", "normal", "color", "texcoord", or others if
+			// "position", "normal", "color", "texcoord", "tangent", or others if
 			// necessary.
-			int attribIndex = -1;
-			switch (e.getSemantic()) {
-			case POSITION:
-				attribIndex = glGetAttribLocation(activeShaderID, "position");
-				break;
-			case NORMAL:
-				attribIndex = glGetAttribLocation(activeShaderID, "normal");
-				break;
-			case COLOR:
-				attribIndex = glGetAttribLocation(activeShaderID, "color");
-				break;
-			case TEXCOORD:
-				attribIndex = glGetAttribLocation(activeShaderID, "texcoord");
-				break;
-			}
+			int attribIndex = getAttribLocation(e.getSemantic());
 
-			glVertexAttribPointer(attribIndex, dim, GL_FLOAT, false, 0,
-					0);
+			vertexAttribPointer(attribIndex, e, 0, 0);
 			glEnableVertexAttribArray(attribIndex);
 		}
 
+		drawElements(renderItem, vertexData);
+	}
+	
+	/**
+	 * Draw the triangles of a render item whose VAO is bound and whose
+	 * attributes are connected to the shader, then unbind the VAO.
+	 */
+	private void drawElements(RenderItem renderItem, GLVertexData vertexData) {
 		// Render the vertex buffer objects
-		glDrawElements(GL_TRIANGLES, renderItem.getShape()
-				.getVertexData().getIndices().length, GL_UNSIGNED_INT, 0);
+		if (vertexData.getVAO().meshlets != null)
+			drawMeshlets(renderItem, vertexData.getVAO(), 0);
+		else
+			glDrawElements(GL_TRIANGLES, vertexData.getNumberOfIndices(), 
+					vertexData.getVAO().indexType, 0);
 
 		// We are done with this shape, bind the default vertex array
 		glBindVertexArray(0);
@@ -193,6 +288,196 @@ public class GLRenderContext implements RenderContext {
 		cleanMaterial(renderItem.getShape().getMaterial());
 	}
 	
+	/**
+	 * Copy the vertices of streaming vertex data whose VAO is bound to the
+	 * streaming buffer and draw them, then unbind the VAO. The vertices are
+	 * copied once per frame, even if the data is drawn several times. They
+	 * are placed at a multiple of the stride in the buffer, so the attribute
+	 * pointers stay the same in every frame, and the draw call starts at
+	 * the first vertex with a base vertex.
+	 */
+	private void drawStreaming(RenderItem renderItem, GLVertexData vertexData) {
+		GLVertexArrayObject vao = vertexData.getVAO();
+		int stride = vertexData.getStride();
+		int n = vertexData.getNumberOfVertices();
+		if (stride == 0) {
+			glBindVertexArray(0);
+			cleanMaterial(renderItem.getShape().getMaterial());
+			return;
+		}
+		if (vao.streamFrame != frame || vao.streamBuffer != streamingBuffer) {
+			long offset = allocateStreaming(n * stride, stride);
+			if (staging == null || staging.capacity() < stride) {
+				MemoryUtil.memFree(staging);
+				staging = MemoryUtil.memAlloc(Math.max(STAGING_SIZE, stride));
+			}
+			long address = MemoryUtil.memAddress0(streamingBuffer.getBuffer()) + offset;
+			int block = staging.capacity() / stride;
+			for (int first = 0; first < n; first += block) {
+				int count = Math.min(block, n - first);
+				staging.clear();
+				vertexData.packInterleaved(staging, first, count);
+				MemoryUtil.memCopy(MemoryUtil.memAddress0(staging), address + (long) first * stride, 
+						(long) count * stride);
+			}
+			vao.streamFrame = frame;
+			vao.streamOffset = offset;
+		}
+		
+		if (vao.attributeShader != activeShaderID || vao.streamBuffer != streamingBuffer) {
+			setInterleavedAttributes(vertexData, streamingBuffer.getId());
+			vao.streamBuffer = streamingBuffer;
+		}
+		if (vao.meshlets != null)
+			drawMeshlets(renderItem, vao, (int) (vao.streamOffset / stride));
+		else
+			glDrawElementsBaseVertex(GL_TRIANGLES, vertexData.getNumberOfIndices(), vao.indexType, 0, 
+					(int) (vao.streamOffset / stride));
+		glBindVertexArray(0);
+		cleanMaterial(renderItem.getShape().getMaterial());
+	}
+	
+	/**
+	 * Draw the meshlets of a render item that may be visible, see
+	 * {@link Meshlets#cull}, with one glMultiDrawElementsBaseVertex for the
+	 * meshlets with 16 bit indices, and one for those with 32 bit indices,
+	 * if any are visible. The indices of each meshlet are relative to its
+	 * base vertex, which is added to the given one. The arrays of the draws
+	 * are kept in the VAO.
+	 */
+	private void drawMeshlets(RenderItem renderItem, GLVertexArrayObject vao, int baseVertex) {
+		Meshlets meshlets = vao.meshlets;
+		int n = meshlets.cull(sceneManager.getCamera(), sceneManager.getFrustum(), renderItem.getT());
+		if (n == 0)
+			return;
+		int[] visible = meshlets.getVisible();
+		for (int pass = 0; pass < 2; pass++) {
+			vao.meshletCounts.clear();
+			vao.meshletOffsets.clear();
+			vao.meshletBaseVertices.clear();
+			for (int i = 0; i < n; i++) {
+				int j = visible[i];
+				if (meshlets.getVertexSpan(j) <= 65536 == (pass == 0)) {
+					vao.meshletCounts.put(meshlets.getIndexCount(j));
+					vao.meshletOffsets.put(vao.meshletByteOffsets[j]);
+					vao.meshletBaseVertices.put(baseVertex + meshlets.getBaseVertex(j));
+				}
+			}
+			if (vao.meshletCounts.position() == 0)
+				continue;
+			vao.meshletCounts.flip();
+			vao.meshletOffsets.flip();
+			vao.meshletBaseVertices.flip();
+			glMultiDrawElementsBaseVertex(GL_TRIANGLES, vao.meshletCounts, 
+					pass == 0 ? GL_UNSIGNED_SHORT : GL_UNSIGNED_INT, vao.meshletOffsets, vao.meshletBaseVertices);
+		}
+	}
+	
+	/**
+	 * Reserve bytes in the streaming buffer for the current frame. Makes
+	 * the buffer if there is none yet, or replaces it with a larger one if
+	 * the bytes do not fit.
+	 */
+	private long allocateStreaming(int bytes, int alignment) {
+		if (streamingBuffer == null) {
+			streamingBuffer = new GLStreamingBuffer(Math.max(STREAMING_REGION_SIZE, bytes + alignment), 
+					STREAMING_REGIONS);
+			streamingBuffer.beginFrame();
+		}
+		long offset = streamingBuffer.allocate(bytes, alignment);
+		if (offset < 0) {
+			// OpenGL keeps the old buffer until the GPU is done with it
+			int size = Math.max(2 * streamingBuffer.getRegionSize(), bytes + alignment);
+			streamingBuffer.dispose();
+			streamingBuffer = new GLStreamingBuffer(size, STREAMING_REGIONS);
+			streamingBuffer.beginFrame();
+			offset = streamingBuffer.allocate(bytes, alignment);
+		}
+		return offset;
+	}
+	
+	/**
+	 * Returns the location of the "in" variable of the active vertex shader
+	 * that corresponds to a semantic, or -1 if the shader has none.
+	 */
+	private int getAttribLocation(VertexData.Semantic semantic) {
+		// We use our own convention to name the variables, i.e.,
+		// "position", "normal", "color", "texcoord", "tangent", or others if
+		// necessary.
+		switch (semantic) {
+		case POSITION:
+			return glGetAttribLocation(activeShaderID, "position");
+		case NORMAL:
+			return glGetAttribLocation(activeShaderID, "normal");
+		case COLOR:
+			return glGetAttribLocation(activeShaderID, "color");
+		case TEXCOORD:
+			return glGetAttribLocation(activeShaderID, "texcoord");
+		case TANGENT:
+			return glGetAttribLocation(activeShaderID, "tangent");
+		}
+		return -1;
+	}
+	
+	/**
+	 * Set the attribute pointer for a vertex element in the bound VBO, with
+	 * the OpenGL type that corresponds to the encoding of the element.
+	 */
+	private void vertexAttribPointer(int attribIndex, VertexData.VertexElement e, int stride, long offset) {
+		switch (e.getEncoding()) {
+		case HALF_FLOAT:
+			glVertexAttribPointer(attribIndex, e.getEncodedComponents(), GL_HALF_FLOAT, false, stride, offset);
+			break;
+		case UNORM16:
+			glVertexAttribPointer(attribIndex, e.getEncodedComponents(), GL_UNSIGNED_SHORT, true, stride, offset);
+			break;
+		case SNORM10:
+			glVertexAttribPointer(attribIndex, 4, GL_INT_2_10_10_10_REV, true, stride, offset);
+			break;
+		case UNORM8:
+			glVertexAttribPointer(attribIndex, 4, GL_UNSIGNED_BYTE, true, stride, offset);
+			break;
+		default:
+			glVertexAttribPointer(attribIndex, e.getNumberOfComponents(), GL_FLOAT, false, stride, offset);
+		}
+	}
+	
+	/**
+	 * Connect the elements of interleaved vertex data to the variables of the
+	 * active shader. All elements are read from a single buffer, with the
+	 * stride of a vertex and the offset of the element. The attribute
+	 * pointers are stored in the bound VAO.
+	 * 
+	 * @param buffer
+	 * 			the VBO of the data, or the streaming buffer
+	 */
+	private void setInterleavedAttributes(GLVertexData data, int buffer) {
+		GLVertexArrayObject vao = data.getVAO();
+		glBindBuffer(GL_ARRAY_BUFFER, buffer);
+		for (VertexData.VertexElement e : data.getElements()) {
+			int attribIndex = getAttribLocation(e.getSemantic());
+			if (attribIndex < 0)
+				continue;
+			vertexAttribPointer(attribIndex, e, data.getStride(), e.getOffset());
+			glEnableVertexAttribArray(attribIndex);
+		}
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+		vao.attributeShader = activeShaderID;
+	}
+	
+	/**
+	 * Upload vertex data to OpenGL, unless this has been done before.
+	 * Otherwise, this happens when the vertex data is drawn the first time.
+	 * 
+	 * @param data
+	 * 			the vertex data to be uploaded
+	 */
+	void upload(GLVertexData data) {
+		if (data.getVAO() == null) {
+			initArrayBuffer(data);
+		}
+	}
+	
 	/**
 	 * A utility method to load vertex data into an OpenGL "vertex array object"
 	 * (VAO) for efficient rendering. The VAO stores several "vertex buffer objects"
@@ -203,6 +488,23 @@ public class GLRenderContext implements RenderContext {
 	 */
 	private void initArrayBuffer(GLVertexData data) {
 		
+		if (data.isStreaming()) {
+			// Only the indices are stored in a VBO of their own
+			GLVertexArrayObject vao = new GLVertexArrayObject(1);
+			data.setVAO(vao);
+			vao.bind();
+			glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vao.getVBO(0));
+			bufferIndices(data);
+			glBindVertexArray(0);
+			data.clearDirty();
+			return;
+		}
+		
+		if (data.isInterleaved()) {
+			initInterleavedArrayBuffer(data);
+			return;
+		}
+		
 		// Make a vertex array object (VAO) for this vertex data
 		// and store a reference to it
 		GLVertexArrayObject vao = new GLVertexArrayObject(data.getElements().size() + 1);
@@ -222,8 +524,22 @@ public class GLRenderContext implements RenderContext {
 
 			// Bind the vertex buffer object (VBO)
 			glBindBuffer(GL_ARRAY_BUFFER, data.getVAO().getNextVBO());
-			// Upload vertex data
-			glBufferData(GL_ARRAY_BUFFER, e.getData(), GL_DYNAMIC_DRAW);
+			// Upload vertex data. Direct buffers are passed to OpenGL as they
+			// are, arrays are copied by LWJGL. Other encodings than floats
+			// are converted in a temporary buffer.
+			if (e.getEncoding() != VertexData.Encoding.FLOAT) {
+				int n = data.getNumberOfVertices(), size = e.getEncodedSize();
+				ByteBuffer buffer = MemoryUtil.memAlloc(n * size);
+				try {
+					e.encode(buffer, 0, 0, n, size);
+					glBufferData(GL_ARRAY_BUFFER, buffer, GL_DYNAMIC_DRAW);
+				} finally {
+					MemoryUtil.memFree(buffer);
+				}
+			} else if (e.isDirect())
+				glBufferData(GL_ARRAY_BUFFER, e.getBuffer(), GL_DYNAMIC_DRAW);
+			else
+				glBufferData(GL_ARRAY_BUFFER, e.getData(), GL_DYNAMIC_DRAW);
 		}
 
 		// Bind the default vertex buffer objects
@@ -231,19 +547,244 @@ public class GLRenderContext implements RenderContext {
 
 		// Store the vertex data indices into the last vertex buffer
 		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, data.getVAO().getNextVBO());
-		glBufferData(GL_ELEMENT_ARRAY_BUFFER, data.getIndices(), GL_DYNAMIC_DRAW);
+		bufferIndices(data);
 
 		// Bind the default vertex array object. This "deactivates" the VAO
 		// of the vertex data
 		glBindVertexArray(0);		
+		data.clearDirty();
 	}
 
-	private void setTransformation(Matrix4f transformation) {
+	/**
+	 * Load interleaved vertex data into a VAO with two VBOs, one for all
+	 * vertex attributes and one for the indices.
+	 * 
+	 * @param data
+	 * 			reference to the vertex data to be loaded into a VAO
+	 */
+	private void initInterleavedArrayBuffer(GLVertexData data) {
+		GLVertexArrayObject vao = new GLVertexArrayObject(2);
+		data.setVAO(vao);
+		vao.bind();
+		vao.rewindVBO();
+		
+		// Pack the vertices into a temporary buffer outside the Java heap,
+		// which OpenGL can read directly
+		int n = data.getNumberOfVertices();
+		ByteBuffer buffer = MemoryUtil.memAlloc(n * data.getStride());
+		try {
+			data.packInterleaved(buffer, 0, n);
+			buffer.flip();
+			glBindBuffer(GL_ARRAY_BUFFER, vao.getNextVBO());
+			glBufferData(GL_ARRAY_BUFFER, buffer, GL_DYNAMIC_DRAW);
+		} finally {
+			MemoryUtil.memFree(buffer);
+		}
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+		
+		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vao.getNextVBO());
+		bufferIndices(data);
+		glBindVertexArray(0);
+		data.clearDirty();
+	}
+	
+	/**
+	 * Upload the ranges of vertex data that were marked as changed since the
+	 * last upload into the existing VBOs, with glBufferSubData. For
+	 * interleaved vertex data, the vertices in the range that covers all
+	 * changes are packed and uploaded.
+	 * 
+	 * @param data
+	 * 			reference to the vertex data to be updated
+	 */
+	private void updateArrayBuffer(GLVertexData data) {
+		GLVertexArrayObject vao = data.getVAO();
+		if (data.isStreaming()) {
+			// The vertices are copied anyway when the data is drawn
+		} else if (data.isInterleaved()) {
+			int first = Integer.MAX_VALUE, end = Integer.MIN_VALUE;
+			for (VertexData.VertexElement e : data.getElements()) {
+				if (!e.getDirtyRanges().isEmpty()) {
+					first = Math.min(first, e.getDirtyRanges().getMin());
+					end = Math.max(end, e.getDirtyRanges().getMax());
+				}
+			}
+			if (first < end) {
+				int stride = data.getStride();
+				ByteBuffer buffer = MemoryUtil.memAlloc((end - first) * stride);
+				try {
+					data.packInterleaved(buffer, first, end - first);
+					buffer.flip();
+					glBindBuffer(GL_ARRAY_BUFFER, vao.getVBO(0));
+					glBufferSubData(GL_ARRAY_BUFFER, (long) first * stride, buffer);
+				} finally {
+					MemoryUtil.memFree(buffer);
+				}
+			}
+		} else {
+			int i = 0;
+			for (VertexData.VertexElement e : data.getElements()) {
+				DirtyRanges ranges = e.getDirtyRanges();
+				if (!ranges.isEmpty()) {
+					glBindBuffer(GL_ARRAY_BUFFER, vao.getVBO(i));
+					for (int r = 0; r < ranges.size(); r++)
+						bufferSubData(e, ranges.getFirst(r), ranges.getEnd(r));
+				}
+				i++;
+			}
+		}
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+		
+		// The element array buffer binding is part of the VAO. If the number
+		// of indices changed, the buffer is replaced.
+		DirtyRanges ranges = data.getDirtyIndices();
+		if (!ranges.isEmpty()) {
+			vao.bind();
+			int indexVBO = data.isStreaming() ? 0 : data.isInterleaved() ? 1 : data.getElements().size();
+			glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vao.getVBO(indexVBO));
+			if (data.getNumberOfIndices() != vao.nIndices || data.getMeshlets() != null || vao.meshlets != null) {
+				// Indices relative to the base vertices of meshlets are
+				// uploaded again as a whole
+				bufferIndices(data);
+			} else {
+				for (int r = 0; r < ranges.size(); r++)
+					bufferSubIndices(data, ranges.getFirst(r), ranges.getEnd(r));
+			}
+			glBindVertexArray(0);
+		}
+		data.clearDirty();
+	}
+	
+	/**
+	 * Upload the vertices [first, end) of an element to the bound array
+	 * buffer. Direct buffers with floats are passed as they are, other
+	 * elements are encoded in a temporary buffer.
+	 */
+	private void bufferSubData(VertexData.VertexElement e, int first, int end) {
+		if (e.getEncoding() == VertexData.Encoding.FLOAT && e.isDirect()) {
+			int dim = e.getNumberOfComponents();
+			FloatBuffer buffer = e.getBuffer();
+			buffer.limit(end * dim);
+			buffer.position(first * dim);
+			glBufferSubData(GL_ARRAY_BUFFER, 4L * first * dim, buffer);
+			return;
+		}
+		int size = e.getEncodedSize();
+		ByteBuffer buffer = MemoryUtil.memAlloc((end - first) * size);
+		try {
+			e.encode(buffer, 0, first, end - first, size);
+			glBufferSubData(GL_ARRAY_BUFFER, (long) first * size, buffer);
+		} finally {
+			MemoryUtil.memFree(buffer);
+		}
+	}
+	
+	/**
+	 * Upload the indices [first, end) to the bound element array buffer, in
+	 * the index type of the buffer.
+	 */
+	private void bufferSubIndices(GLVertexData data, int first, int end) {
+		IntBuffer indices = data.getIndexBuffer();
+		if (data.getVAO().indexType == GL_UNSIGNED_SHORT) {
+			ShortBuffer buffer = MemoryUtil.memAllocShort(end - first);
+			try {
+				for (int i = first; i < end; i++)
+					buffer.put(i - first, (short) indices.get(i));
+				glBufferSubData(GL_ELEMENT_ARRAY_BUFFER, 2L * first, buffer);
+			} finally {
+				MemoryUtil.memFree(buffer);
+			}
+		} else {
+			IntBuffer buffer = MemoryUtil.memAllocInt(end - first);
+			try {
+				for (int i = first; i < end; i++)
+					buffer.put(i - first, indices.get(i));
+				glBufferSubData(GL_ELEMENT_ARRAY_BUFFER, 4L * first, buffer);
+			} finally {
+				MemoryUtil.memFree(buffer);
+			}
+		}
+	}
+	
+	/**
+	 * Upload the indices of vertex data to the bound element array buffer.
+	 * Indices of vertex data with less than 65536 vertices are converted
+	 * to 16 bits, which halves their size. Indices of vertex data with
+	 * meshlets are stored relative to the base vertex of their meshlet, in
+	 * 16 bits for the meshlets whose vertices span at most 65536.
+	 */
+	private void bufferIndices(GLVertexData data) {
+		GLVertexArrayObject vao = data.getVAO();
+		vao.nIndices = data.getNumberOfIndices();
+		vao.setMeshlets(data.getMeshlets());
+		if (vao.meshlets != null) {
+			// The meshlets with 16 bit indices first, then those with 32 bit
+			// indices, aligned to 4 bytes
+			Meshlets meshlets = vao.meshlets;
+			long bytes = 0;
+			for (int pass = 0; pass < 2; pass++) {
+				for (int j = 0; j < meshlets.getNumberOfMeshlets(); j++) {
+					if (meshlets.getVertexSpan(j) <= 65536 == (pass == 0)) {
+						vao.meshletByteOffsets[j] = bytes;
+						bytes += (pass == 0 ? 2 : 4) * meshlets.getIndexCount(j);
+					}
+				}
+				bytes = bytes + 3 & ~3;
+			}
+			IntBuffer indices = data.getIndexBuffer();
+			ByteBuffer buffer = MemoryUtil.memAlloc((int) bytes);
+			try {
+				for (int j = 0; j < meshlets.getNumberOfMeshlets(); j++) {
+					int first = meshlets.getFirstIndex(j), base = meshlets.getBaseVertex(j);
+					int offset = (int) vao.meshletByteOffsets[j];
+					boolean shortIndices = meshlets.getVertexSpan(j) <= 65536;
+					for (int i = 0; i < meshlets.getIndexCount(j); i++) {
+						if (shortIndices)
+							buffer.putShort(offset + 2 * i, (short) (indices.get(first + i) - base));
+						else
+							buffer.putInt(offset + 4 * i, indices.get(first + i) - base);
+					}
+				}
+				glBufferData(GL_ELEMENT_ARRAY_BUFFER, buffer, GL_DYNAMIC_DRAW);
+			} finally {
+				MemoryUtil.memFree(buffer);
+			}
+		} else if (data.getNumberOfVertices() < 65536) {
+			IntBuffer indices = data.getIndexBuffer();
+			ShortBuffer buffer = MemoryUtil.memAllocShort(indices.remaining());
+			try {
+				for (int i = 0; i < buffer.capacity(); i++)
+					buffer.put(i, (short) indices.get(i));
+				glBufferData(GL_ELEMENT_ARRAY_BUFFER, buffer, GL_DYNAMIC_DRAW);
+			} finally {
+				MemoryUtil.memFree(buffer);
+			}
+			data.getVAO().indexType = GL_UNSIGNED_SHORT;
+		} else {
+			if (data.getIndices() != null)
+				glBufferData(GL_ELEMENT_ARRAY_BUFFER, data.getIndices(), GL_DYNAMIC_DRAW);
+			else
+				glBufferData(GL_ELEMENT_ARRAY_BUFFER, data.getIndexBuffer(), GL_DYNAMIC_DRAW);
+			vao.indexType = GL_UNSIGNED_INT;
+		}
+	}
+
+	/**
+	 * Set the modelview and projection matrices in the shader.
+	 * 
+	 * @param transformation
+	 * 		the transformation of the object
+	 * @param dequantization
+	 * 		the transformation from encoded to original positions, or null
+	 */
+	private void setTransformation(Matrix4f transformation, Matrix4f dequantization) {
 		// Compute the modelview matrix by multiplying the camera matrix and
 		// the transformation matrix of the object
 		Matrix4f modelview = new Matrix4f(sceneManager.getCamera()
 				.getCameraMatrix());
 		modelview.mul(transformation);
+		if (dequantization != null)
+			modelview.mul(dequantization);
 
 		// Set modelview and projection matrices in shader
 		glUniformMatrix4fv(
@@ -281,7 +822,7 @@ public class GLRenderContext implements RenderContext {
 				glEnable(GL_TEXTURE_2D);
 				glBindTexture(GL_TEXTURE_2D, ((GLTexture)m.diffuseMap).getId());
 				glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
-				glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+				glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
 				// We assume the texture in the shader is called "myTexture"
 				id = glGetUniformLocation(activeShaderID, "myTexture");
 				glUniform1i(id, 0);	// The variable in the shader needs to be set to the desired texture unit, i.e., 0
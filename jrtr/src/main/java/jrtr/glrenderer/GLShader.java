@@ -2,6 +2,7 @@ package jrtr.glrenderer;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
@@ -69,27 +70,43 @@ public class GLShader implements Shader {
 	 */
 	public void load(String vertexFileName, String fragmentFileName) throws Exception	
 	{			
-		String vsrc[] = new String[1];
-		String fsrc[] = new String[1];
-		
-		// Read shader programs from file
-		BufferedReader brv = new BufferedReader(new FileReader(vertexFileName));
-		vsrc[0]= "";
+		compile(readSource(vertexFileName), vertexFileName, readSource(fragmentFileName), fragmentFileName);
+	}
+	
+	/**
+	 * Read the source code of a shader program from a file. This does not make
+	 * any OpenGL calls, hence it can be called on any thread.
+	 */
+	static String readSource(String fileName) throws IOException
+	{
+		BufferedReader br = new BufferedReader(new FileReader(fileName));
+		StringBuilder src = new StringBuilder();
 		String line;
-		while ((line=brv.readLine()) != null) {
-		  vsrc[0] += line + "\n";
-		}
-
-		BufferedReader brf = new BufferedReader(new FileReader(fragmentFileName));
-		fsrc[0] = "";
-		while ((line=brf.readLine()) != null) {
-		  fsrc[0] += line + "\n";
+		while ((line=br.readLine()) != null) {
+		  src.append(line).append("\n");
 		}
+		br.close();
+		return src.toString();
+	}
+	
+	/**
+	 * Compile and link the vertex and fragment shader programs. This needs to
+	 * be called on the thread that owns the OpenGL context.
+	 * 
+	 * @param vertexSource
+	 * 		the source code of the vertex shader
+	 * @param vertexFileName
+	 * 		the name of the vertex shader, used in messages
+	 * @param fragmentSource
+	 * 		the source code of the fragment shader
+	 * @param fragmentFileName
+	 * 		the name of the fragment shader, used in messages
+	 */
+	void compile(String vertexSource, String vertexFileName, String fragmentSource, String fragmentFileName) throws Exception
+	{
+		String vsrc[] = { vertexSource };
+		String fsrc[] = { fragmentSource };
 		
-		// Close file readers
-		brv.close();
-		brf.close();
-
 		// Make (compile and link) OpenGL shaders
 		vertexHandle = glCreateShader(GL_VERTEX_SHADER);
 		fragmentHandle = glCreateShader(GL_FRAGMENT_SHADER);
@@ -0,0 +1,185 @@
+package jrtr.glrenderer;
+
+import static org.lwjgl.opengl.GL45.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+
+/**
+ * A buffer in graphics memory for data that changes every frame, like
+ * particles or deforming meshes. The buffer is allocated once with immutable
+ * storage and stays mapped into the address space of the application, so
+ * the data is written directly to memory the GPU reads, without
+ * glBufferData calls.
+ * <p>
+ * The buffer is split into several regions, one per frame. While the
+ * application writes a frame into one region, the GPU may still read the
+ * previous frames from the others. At the end of a frame the region is
+ * fenced, and before it is written again {@link #beginFrame()} waits until
+ * the GPU has passed the fence, which it usually has, since that was
+ * several frames ago.
+ * <p>
+ * Usage per frame:
+ * <pre>
+ * buffer.beginFrame();
+ * long offset = buffer.allocate(bytes, alignment);
+ * // write to buffer.getBuffer() at offset, draw from buffer.getId() at offset
+ * buffer.endFrame();
+ * </pre>
+ * Requires OpenGL 4.4 or ARB_buffer_storage.
+ */
+public class GLStreamingBuffer {
+
+	private static final int FLAGS = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+
+	/**
+	 * The timeout in nanoseconds of one wait for a fence.
+	 */
+	private static final long WAIT_TIMEOUT = 1000000;
+
+	private int id;
+	private ByteBuffer mapped;
+	private final int regionSize;
+	private final long[] fences;
+
+	/**
+	 * The region of the current frame, and the next free byte in it
+	 */
+	private int region;
+	private int next;
+
+	/**
+	 * The number of times {@link #beginFrame()} had to wait for the GPU
+	 */
+	private int stalls;
+
+	/**
+	 * Make a streaming buffer and map it. Needs to be called on the
+	 * rendering thread.
+	 *
+	 * @param regionSize
+	 * 		the number of bytes available per frame
+	 * @param nRegions
+	 * 		the number of frames that may be in flight, usually 3
+	 */
+	public GLStreamingBuffer(int regionSize, int nRegions) {
+		GLCapabilities caps = GL.getCapabilities();
+		if (!caps.OpenGL44 && !caps.GL_ARB_buffer_storage)
+			throw new UnsupportedOperationException("Streaming buffers need OpenGL 4.4 or ARB_buffer_storage");
+
+		this.regionSize = regionSize;
+		fences = new long[nRegions];
+		long size = (long) regionSize * nRegions;
+		id = glGenBuffers();
+		glBindBuffer(GL_ARRAY_BUFFER, id);
+		glBufferStorage(GL_ARRAY_BUFFER, size, FLAGS);
+		mapped = glMapBufferRange(GL_ARRAY_BUFFER, 0, size, FLAGS);
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+		if (mapped == null)
+			throw new IllegalStateException("Could not map streaming buffer");
+		mapped.order(ByteOrder.nativeOrder());
+		region = nRegions - 1;
+		next = regionSize;
+	}
+
+	/**
+	 * Start writing a new frame into the next region. Waits until the GPU
+	 * is done with the frame that was written into this region before.
+	 */
+	public void beginFrame() {
+		region = (region + 1) % fences.length;
+		next = region * regionSize;
+		long fence = fences[region];
+		if (fence != 0) {
+			int status = glClientWaitSync(fence, 0, 0);
+			if (status == GL_TIMEOUT_EXPIRED) {
+				stalls++;
+				do {
+					status = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, WAIT_TIMEOUT);
+				} while (status == GL_TIMEOUT_EXPIRED);
+			}
+			glDeleteSync(fence);
+			fences[region] = 0;
+		}
+	}
+
+	/**
+	 * Finish the current frame. Places a fence after the draw calls that
+	 * read the region of this frame.
+	 */
+	public void endFrame() {
+		if (fences[region] != 0)
+			glDeleteSync(fences[region]);
+		fences[region] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+	}
+
+	/**
+	 * Reserve bytes in the region of the current frame.
+	 *
+	 * @param bytes
+	 * 		the number of bytes
+	 * @param alignment
+	 * 		the offset is a multiple of this, counted from the start of the
+	 * 		buffer
+	 * @return the offset of the reserved bytes in the buffer, or -1 if they
+	 * 		do not fit into the region
+	 */
+	public long allocate(int bytes, int alignment) {
+		long offset = (next + alignment - 1) / alignment * (long) alignment;
+		if (offset + bytes > (long) (region + 1) * regionSize)
+			return -1;
+		next = (int) (offset + bytes);
+		return offset;
+	}
+
+	/**
+	 * Returns the mapped memory of the whole buffer, in native byte order.
+	 * Data is written at the offsets returned by
+	 * {@link #allocate(int, int)}, with absolute puts or by setting the
+	 * position.
+	 */
+	public ByteBuffer getBuffer() {
+		return mapped;
+	}
+
+	/**
+	 * Returns the name of the OpenGL buffer object, to bind it for drawing.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	public int getRegionSize() {
+		return regionSize;
+	}
+
+	/**
+	 * Returns the number of times {@link #beginFrame()} had to wait for the
+	 * GPU. If this grows, the buffer needs more regions.
+	 */
+	public int getStalls() {
+		return stalls;
+	}
+
+	/**
+	 * Unmap and delete the buffer. OpenGL keeps the storage until the GPU
+	 * has finished the draw calls that read it.
+	 */
+	public void dispose() {
+		for (int i = 0; i < fences.length; i++) {
+			if (fences[i] != 0) {
+				glDeleteSync(fences[i]);
+				fences[i] = 0;
+			}
+		}
+		glBindBuffer(GL_ARRAY_BUFFER, id);
+		glUnmapBuffer(GL_ARRAY_BUFFER);
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+		glDeleteBuffers(id);
+		mapped = null;
+		id = 0;
+	}
+}
@@ -6,6 +6,7 @@ import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
 import static org.lwjgl.opengl.GL11.glBindTexture;
 import static org.lwjgl.opengl.GL11.glTexImage2D;
 import static org.lwjgl.opengl.GL45.*;
+import static org.lwjgl.opengl.EXTTextureCompressionS3TC.*;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.stb.STBImage;
 
@@ -23,6 +24,7 @@ public class GLTexture implements Texture {
 	
 	private IntBuffer id;	// Stores the OpenGL texture identifier
 	private int w, h;		// Width and height
+	private long size;		// Bytes of OpenGL memory used by all levels
 	
 	public GLTexture()
 	{
@@ -34,15 +36,53 @@ public class GLTexture implements Texture {
 	 * Load the texture from an image file.
 	 */
 	public void load(String fileName) throws IOException
+	{
+		upload(decode(fileName));
+	}
+
+	/**
+	 * Load the texture from the baked container of an image file, see
+	 * {@link TextureContainer#readBaked(String)}. The container is baked first
+	 * if it does not exist yet or is older than the image. All mipmap levels
+	 * are uploaded from the container, without decoding the
+	 * image or generating mipmaps.
+	 */
+	public void loadBaked(String fileName) throws IOException
+	{
+		upload(TextureContainer.readBaked(fileName));
+	}
+
+	/**
+	 * Load the texture from the baked container of an image file in the
+	 * given format, see {@link TextureContainer#readBaked(String, int)}.
+	 * Compressed formats are uploaded with glCompressedTexImage2D and stay
+	 * compressed in OpenGL memory.
+	 * 
+	 * @param format
+	 * 		one of the FORMAT constants of {@link TextureContainer}
+	 */
+	public void loadBaked(String fileName, int format) throws IOException
+	{
+		upload(TextureContainer.readBaked(fileName, format));
+	}
+
+	/**
+	 * An image decoded by {@link GLTexture#decode(String)} that has not been
+	 * uploaded to OpenGL yet. 
+	 */
+	static class Image
+	{
+		ByteBuffer pixels;	// RGBA pixels allocated by the STB library
+		int w, h;
+	}
+	
+	/**
+	 * Decode an image file into RGBA pixels. This does not make any OpenGL
+	 * calls, hence it can be called on any thread.
+	 */
+	static Image decode(String fileName) throws IOException
 	{
 		// Memory management necessary to pass image data to lwjgl
-		try (MemoryStack stack = MemoryStack.stackPush()) {        
-		} catch(Exception e)
-		{
-			e.printStackTrace();    
-		}
-		
-		ByteBuffer buffer;
 		try (MemoryStack stack = MemoryStack.stackPush())
 		{	
 			IntBuffer w = stack.mallocInt(1);	
@@ -50,31 +90,102 @@ public class GLTexture implements Texture {
 			IntBuffer channels = stack.mallocInt(1);		  	
 			
 			// Use STB library to load image from file into a ByteBuffer
-			buffer = STBImage.stbi_load(fileName, w, h, channels, 4);	
-			if(buffer ==null) 
+			Image image = new Image();
+			image.pixels = STBImage.stbi_load(fileName, w, h, channels, 4);	
+			if(image.pixels == null) 
 			{		  
-				throw new Exception("Can't load file " + fileName + " " + STBImage.stbi_failure_reason());	
+				throw new IOException("Can't load file " + fileName + " " + STBImage.stbi_failure_reason());	
 			}	
-			this.w = w.get();	
-			this.h = h.get();		  		
-			
-			// Make an OpenGL texture and pass the buffer containing the texture
-			id = IntBuffer.allocate(1);	// Make the buffer that will store the texture identifier
-			id.put(0, glGenTextures());
-			glBindTexture(GL_TEXTURE_2D, id.get(0));	
-			glPixelStorei(GL_UNPACK_ALIGNMENT, 1);		  	
-			glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, this.w, this.h, 0, GL_RGBA, GL_UNSIGNED_BYTE, buffer);	
-			glGenerateMipmap(GL_TEXTURE_2D);	
-			STBImage.stbi_image_free(buffer);	
-			
-		} catch(Exception e) 
-		{	
-			e.printStackTrace();
-		}	    
+			image.w = w.get();	
+			image.h = h.get();
+			return image;
+		}
+	}
+	
+	/**
+	 * Pass a decoded image to OpenGL and free its pixels. This needs to be
+	 * called on the thread that owns the OpenGL context.
+	 */
+	void upload(Image image)
+	{
+		this.w = image.w;
+		this.h = image.h;
+		
+		// Pass the buffer containing the image to the OpenGL texture
+		glBindTexture(GL_TEXTURE_2D, id.get(0));	
+		glPixelStorei(GL_UNPACK_ALIGNMENT, 1);		  	
+		glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, this.w, this.h, 0, GL_RGBA, GL_UNSIGNED_BYTE, image.pixels);	
+		glGenerateMipmap(GL_TEXTURE_2D);	
+		this.size = 4L * this.w * this.h * 4 / 3;	// Plus one third for the mipmaps
+		STBImage.stbi_image_free(image.pixels);
+		image.pixels = null;
+	}
+
+	/**
+	 * Pass all mipmap levels of a texture container to OpenGL. This needs to
+	 * be called on the thread that owns the OpenGL context.
+	 */
+	void upload(TextureContainer container)
+	{
+		this.w = container.getWidth(0);
+		this.h = container.getHeight(0);
+		this.size = 0;
+		int nLevels = container.getNumberOfLevels();
+		
+		glBindTexture(GL_TEXTURE_2D, id.get(0));
+		glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+		for(int l = 0; l < nLevels; l++)
+		{
+			ByteBuffer level = container.getLevel(l);
+			this.size += level.remaining();
+			switch(container.getFormat())
+			{
+				case TextureContainer.FORMAT_BC1:
+					glCompressedTexImage2D(GL_TEXTURE_2D, l, GL_COMPRESSED_RGB_S3TC_DXT1_EXT, 
+							container.getWidth(l), container.getHeight(l), 0, level);
+					break;
+				case TextureContainer.FORMAT_BC3:
+					glCompressedTexImage2D(GL_TEXTURE_2D, l, GL_COMPRESSED_RGBA_S3TC_DXT5_EXT, 
+							container.getWidth(l), container.getHeight(l), 0, level);
+					break;
+				default:
+					glTexImage2D(GL_TEXTURE_2D, l, GL_RGBA, container.getWidth(l), container.getHeight(l), 0, 
+							GL_RGBA, GL_UNSIGNED_BYTE, level);
+			}
+		}
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_BASE_LEVEL, 0);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, nLevels - 1);
 	}
 
 	public int getId()
 	{
 		return id.get(0);
 	}
+	
+	public int getWidth()
+	{
+		return w;
+	}
+	
+	public int getHeight()
+	{
+		return h;
+	}
+	
+	/**
+	 * Returns the bytes of OpenGL memory used by the texture, including all
+	 * mipmap levels.
+	 */
+	public long getSize()
+	{
+		return size;
+	}
+	
+	/**
+	 * Delete the OpenGL texture. The texture cannot be used afterwards.
+	 */
+	public void dispose()
+	{
+		glDeleteTextures(id.get(0));
+	}
 }
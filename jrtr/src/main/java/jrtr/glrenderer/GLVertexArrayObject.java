@@ -2,6 +2,11 @@ package jrtr.glrenderer;
 
 import java.nio.IntBuffer;
 
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryUtil;
+
+import jrtr.Meshlets;
+
 import static org.lwjgl.opengl.GL45.*;
 
 //import com.jogamp.opengl.GL3;
@@ -13,6 +18,46 @@ public class GLVertexArrayObject {
 
 	private IntBuffer vao;
 	private IntBuffer vbo;
+	
+	/**
+	 * The shader for which the attribute pointers stored in this VAO were
+	 * set up, or 0 if they have not been set up. Used for interleaved vertex
+	 * data, whose attribute pointers only change with the shader.
+	 */
+	int attributeShader;
+	
+	/**
+	 * For streaming vertex data, the frame in which it was last copied to a
+	 * streaming buffer, the offset of the copy, and the buffer, which the
+	 * attribute pointers refer to. The buffer is compared by identity,
+	 * since OpenGL may reuse the name of a deleted buffer.
+	 */
+	int streamFrame = -1;
+	long streamOffset;
+	GLStreamingBuffer streamBuffer;
+	
+	/**
+	 * The type of the indices in the element array buffer of this VAO,
+	 * GL_UNSIGNED_INT or GL_UNSIGNED_SHORT.
+	 */
+	int indexType = GL_UNSIGNED_INT;
+	
+	/**
+	 * The number of indices in the element array buffer of this VAO.
+	 */
+	int nIndices;
+	
+	/**
+	 * The meshlets the indices in the element array buffer are relative to,
+	 * or null, the offset of the indices of each meshlet in bytes, and the
+	 * counts, offsets and base vertices of the meshlets drawn by one
+	 * glMultiDrawElementsBaseVertex, with room for all meshlets.
+	 */
+	Meshlets meshlets;
+	long[] meshletByteOffsets;
+	IntBuffer meshletCounts;
+	PointerBuffer meshletOffsets;
+	IntBuffer meshletBaseVertices;
 
 //	private GL3 gl;
 
@@ -53,6 +98,13 @@ public class GLVertexArrayObject {
 		return vbo.get();
 	}
 
+	/**
+	 * Get reference to the VBO with the given number.
+	 */
+	public int getVBO(int i) {
+		return vbo.get(i);
+	}
+
 	/**
 	 * Bind the VAO. This means all the information associated
 	 * with the VAO becomes active in OpenGL.
@@ -61,13 +113,41 @@ public class GLVertexArrayObject {
 		glBindVertexArray(vao.get(0));
 	}
 
+	/**
+	 * Set the meshlets of the indices, and make room for drawing them.
+	 */
+	void setMeshlets(Meshlets meshlets) {
+		this.meshlets = meshlets;
+		int n = meshlets == null ? 0 : meshlets.getNumberOfMeshlets();
+		meshletByteOffsets = n == 0 ? null : new long[n];
+		if (meshletCounts != null && meshletCounts.capacity() >= n)
+			return;
+		freeMeshletBuffers();
+		if (n > 0) {
+			meshletCounts = MemoryUtil.memAllocInt(n);
+			meshletOffsets = MemoryUtil.memAllocPointer(n);
+			meshletBaseVertices = MemoryUtil.memAllocInt(n);
+		}
+	}
+	
+	private void freeMeshletBuffers() {
+		MemoryUtil.memFree(meshletCounts);
+		MemoryUtil.memFree(meshletOffsets);
+		MemoryUtil.memFree(meshletBaseVertices);
+		meshletCounts = meshletBaseVertices = null;
+		meshletOffsets = null;
+	}
+
 	/**
 	 * Deletes all vbos and the vertex array;
 	 */
 	public void dispose(){
+		freeMeshletBuffers();
 		glBindVertexArray(0);
-		glBindBuffer(0, 0);
-		glDeleteBuffers(vbo);
-		glDeleteVertexArrays(vao);
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+		// The buffers are not direct, so delete the names one by one
+		for(int i=0; i<vbo.capacity(); i++)
+			glDeleteBuffers(vbo.get(i));
+		glDeleteVertexArrays(vao.get(0));
 	}
 }
\ No newline at end of file
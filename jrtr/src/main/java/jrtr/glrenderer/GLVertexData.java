@@ -24,4 +24,16 @@ public class GLVertexData extends VertexData {
 	public void setVAO(GLVertexArrayObject vertexArrayObject) {
 		this.vertexArrayObject = vertexArrayObject;
 	}
+
+	/**
+	 * Delete the OpenGL VAO of this data, if it has one. The data is uploaded
+	 * again when it is drawn the next time.
+	 */
+	@Override
+	public void dispose() {
+		if (vertexArrayObject != null) {
+			vertexArrayObject.dispose();
+			vertexArrayObject = null;
+		}
+	}
 }
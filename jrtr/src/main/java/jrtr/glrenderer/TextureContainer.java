@@ -0,0 +1,441 @@
+package jrtr.glrenderer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+import org.lwjgl.stb.STBImage;
+
+/**
+ * A simple file format that stores a texture together with its complete
+ * chain of mipmap levels, ready to be passed to OpenGL. Containers are baked
+ * once from an image file with {@link #bake(String, String)}; the mipmap
+ * levels are computed on the CPU in parallel. At runtime a container is
+ * read with {@link #read(String)} and each level is uploaded as it is
+ * stored in the file, without decoding or mipmap generation.
+ * <p>
+ * A container consists of a header, a table of levels, and the texel data of
+ * all levels, in little endian byte order:
+ * <pre>
+ * "JRTRTEX1"                       magic (8 bytes)
+ * int version, int format, int nLevels
+ * nLevels x (int width, int height, int offset, int size)
+ * texel data
+ * </pre>
+ * The offsets are relative to the beginning of the file.
+ * <p>
+ * Besides uncompressed RGBA8 texels, containers can store the levels
+ * compressed to BC1 or BC3 blocks, see {@link #compress(int)}. This reduces
+ * the size of the texture in OpenGL memory, and of the data to upload, by a
+ * factor of eight or four, respectively.
+ */
+public class TextureContainer {
+
+	private static final byte[] MAGIC = { 'J', 'R', 'T', 'R', 'T', 'E', 'X', '1' };
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = MAGIC.length + 12;
+
+	/**
+	 * Texels are stored as four bytes, red, green, blue and alpha.
+	 */
+	public static final int FORMAT_RGBA8 = 0;
+
+	/**
+	 * Texels are compressed to BC1 (DXT1) blocks of 8 bytes per 4x4 texels.
+	 * Alpha is dropped.
+	 */
+	public static final int FORMAT_BC1 = BlockCompression.BC1;
+
+	/**
+	 * Texels are compressed to BC3 (DXT5) blocks of 16 bytes per 4x4 texels.
+	 */
+	public static final int FORMAT_BC3 = BlockCompression.BC3;
+
+	private static final String[] EXTENSIONS = { ".mips", ".bc1.mips", ".bc3.mips" };
+
+	private int format;
+	private int[] width, height;
+	private ByteBuffer[] levels;
+	private double psnr = Double.NaN;
+	private long uncompressedBytes, compressedBytes, encodeTime;
+
+	private TextureContainer(int nLevels) {
+		width = new int[nLevels];
+		height = new int[nLevels];
+		levels = new ByteBuffer[nLevels];
+	}
+
+	public int getFormat() {
+		return format;
+	}
+
+	public int getNumberOfLevels() {
+		return levels.length;
+	}
+
+	public int getWidth(int level) {
+		return width[level];
+	}
+
+	public int getHeight(int level) {
+		return height[level];
+	}
+
+	/**
+	 * Returns the texel data of a mipmap level. For containers read from a
+	 * file, this is a view of a direct buffer holding the whole file.
+	 */
+	public ByteBuffer getLevel(int level) {
+		return levels[level].duplicate();
+	}
+
+	/**
+	 * Returns the peak signal to noise ratio in dB of the largest level
+	 * compared to the uncompressed texels, for containers returned by
+	 * {@link #compress(int)}, and NaN otherwise.
+	 */
+	public double getPsnr() {
+		return psnr;
+	}
+
+	/**
+	 * Returns the size of all levels before compression in bytes, for
+	 * containers returned by {@link #compress(int)}, and 0 otherwise.
+	 */
+	public long getUncompressedBytes() {
+		return uncompressedBytes;
+	}
+
+	/**
+	 * Returns the size of all levels after compression in bytes, for
+	 * containers returned by {@link #compress(int)}, and 0 otherwise.
+	 */
+	public long getCompressedBytes() {
+		return compressedBytes;
+	}
+
+	/**
+	 * Returns the time spent compressing in nanoseconds, for containers
+	 * returned by {@link #compress(int)}, and 0 otherwise.
+	 */
+	public long getEncodeTime() {
+		return encodeTime;
+	}
+
+	/**
+	 * Decode an image file, compute its mipmap levels and write them to a
+	 * container file.
+	 *
+	 * @param imageFileName
+	 *            the image file, in any format supported by the STB library
+	 * @param containerFileName
+	 *            the container file to write
+	 */
+	public static void bake(String imageFileName, String containerFileName) throws IOException {
+		bake(imageFileName, containerFileName, FORMAT_RGBA8);
+	}
+
+	/**
+	 * Decode an image file, compute its mipmap levels, convert them to the
+	 * given format and write them to a container file.
+	 *
+	 * @param imageFileName
+	 *            the image file, in any format supported by the STB library
+	 * @param containerFileName
+	 *            the container file to write
+	 * @param format
+	 *            one of the FORMAT constants
+	 */
+	public static void bake(String imageFileName, String containerFileName, int format) throws IOException {
+		GLTexture.Image image = GLTexture.decode(imageFileName);
+		try {
+			TextureContainer c = fromImage(image.pixels, image.w, image.h);
+			if (format != FORMAT_RGBA8)
+				c = c.compress(format);
+			c.write(containerFileName);
+		} finally {
+			STBImage.stbi_image_free(image.pixels);
+			image.pixels = null;
+		}
+	}
+
+	/**
+	 * Read the baked container of an image file. The container is named
+	 * like the image file with the extension ".mips" appended. It is baked
+	 * first if it does not exist or is older than the image file. This does
+	 * not make any OpenGL calls, hence it can be called on any thread.
+	 *
+	 * @param imageFileName
+	 *            the image file
+	 */
+	public static TextureContainer readBaked(String imageFileName) throws IOException {
+		return readBaked(imageFileName, FORMAT_RGBA8);
+	}
+
+	/**
+	 * Read the baked container of an image file in the given format,
+	 * like {@link #readBaked(String)}. Compressed containers are named with the
+	 * extension ".bc1.mips" or ".bc3.mips".
+	 *
+	 * @param imageFileName
+	 *            the image file
+	 * @param format
+	 *            one of the FORMAT constants
+	 */
+	public static TextureContainer readBaked(String imageFileName, int format) throws IOException {
+		if (format < 0 || format >= EXTENSIONS.length)
+			throw new IllegalArgumentException("Unknown texture format " + format);
+		Path image = Paths.get(imageFileName);
+		Path container = image.resolveSibling(image.getFileName() + EXTENSIONS[format]);
+		if (!Files.isRegularFile(container)
+				|| Files.getLastModifiedTime(container).compareTo(Files.getLastModifiedTime(image)) < 0)
+			bake(imageFileName, container.toString(), format);
+		return read(container.toString());
+	}
+
+	/**
+	 * Make a container from RGBA pixels and compute its complete mipmap chain,
+	 * down to a size of one by one texel.
+	 */
+	static TextureContainer fromImage(ByteBuffer pixels, int w, int h) {
+		int nLevels = 1;
+		while ((w >> nLevels) > 0 || (h >> nLevels) > 0)
+			nLevels++;
+
+		TextureContainer c = new TextureContainer(nLevels);
+		c.format = FORMAT_RGBA8;
+		byte[] level = new byte[4 * w * h];
+		pixels.duplicate().get(level);
+		for (int l = 0; l < nLevels; l++) {
+			c.width[l] = w;
+			c.height[l] = h;
+			c.levels[l] = ByteBuffer.wrap(level);
+			if (l + 1 < nLevels) {
+				int dw = Math.max(1, w / 2);
+				int dh = Math.max(1, h / 2);
+				level = downsample(level, w, h, dw, dh);
+				w = dw;
+				h = dh;
+			}
+		}
+		return c;
+	}
+
+	/**
+	 * Compress the levels of an RGBA8 container to BC1 or BC3 blocks. The
+	 * returned container also records the size before and after
+	 * compression, the time spent and the peak signal to noise ratio of the
+	 * largest level compared to the uncompressed texels.
+	 *
+	 * @param format
+	 *            {@link #FORMAT_BC1} or {@link #FORMAT_BC3}
+	 * @return a new container with the compressed levels
+	 */
+	public TextureContainer compress(int format) {
+		if (this.format != FORMAT_RGBA8)
+			throw new IllegalStateException("Only RGBA8 textures can be compressed");
+		if (format != FORMAT_BC1 && format != FORMAT_BC3)
+			throw new IllegalArgumentException("Unknown compressed texture format " + format);
+
+		long start = System.nanoTime();
+		int nLevels = levels.length;
+		TextureContainer c = new TextureContainer(nLevels);
+		c.format = format;
+		for (int l = 0; l < nLevels; l++) {
+			byte[] texels = new byte[levels[l].remaining()];
+			getLevel(l).get(texels);
+			byte[] blocks = BlockCompression.encode(texels, width[l], height[l], format);
+			if (l == 0) {
+				byte[] decoded = BlockCompression.decode(blocks, width[l], height[l], format);
+				c.psnr = BlockCompression.psnr(texels, decoded, format == FORMAT_BC1 ? 3 : 4);
+			}
+			c.width[l] = width[l];
+			c.height[l] = height[l];
+			c.levels[l] = ByteBuffer.wrap(blocks);
+			c.uncompressedBytes += texels.length;
+			c.compressedBytes += blocks.length;
+		}
+		c.encodeTime = System.nanoTime() - start;
+		return c;
+	}
+
+	/**
+	 * Write the container to a file. The file is written under a temporary
+	 * name and then renamed, so readers never see a partial file.
+	 */
+	public void write(String fileName) throws IOException {
+		int nLevels = levels.length;
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 16 * nLevels).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(MAGIC).putInt(VERSION).putInt(format).putInt(nLevels);
+		int offset = header.capacity();
+		for (int l = 0; l < nLevels; l++) {
+			int size = levels[l].remaining();
+			header.putInt(width[l]).putInt(height[l]).putInt(offset).putInt(size);
+			offset += size;
+		}
+		header.flip();
+
+		Path path = Paths.get(fileName);
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			while (header.hasRemaining())
+				channel.write(header);
+			for (int l = 0; l < nLevels; l++) {
+				ByteBuffer level = getLevel(l);
+				while (level.hasRemaining())
+					channel.write(level);
+			}
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Read a container file into a direct buffer. The levels of the returned
+	 * container are views of the buffer. The file is not memory-mapped,
+	 * since a mapped file stays open until the mapping is garbage collected,
+	 * and on some platforms cannot be replaced when the container is baked
+	 * again.
+	 */
+	public static TextureContainer read(String fileName) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+			long fileSize = channel.size();
+			if (fileSize > Integer.MAX_VALUE)
+				throw new IOException("Texture container " + fileName + " is too large");
+			ByteBuffer buffer = ByteBuffer.allocateDirect((int) fileSize).order(ByteOrder.LITTLE_ENDIAN);
+			while (buffer.hasRemaining())
+				if (channel.read(buffer) < 0)
+					throw new IOException("Texture container " + fileName + " is too short");
+			buffer.flip();
+
+			if (fileSize < HEADER_SIZE)
+				throw new IOException("Texture container " + fileName + " is too short");
+			for (int k = 0; k < MAGIC.length; k++)
+				if (buffer.get() != MAGIC[k])
+					throw new IOException(fileName + " is not a texture container");
+			if (buffer.getInt() != VERSION)
+				throw new IOException("Unsupported version of texture container " + fileName);
+			int format = buffer.getInt();
+			if (format < 0 || format >= EXTENSIONS.length)
+				throw new IOException("Unknown format of texture container " + fileName);
+			int nLevels = buffer.getInt();
+			if (nLevels < 1 || nLevels > 32 || HEADER_SIZE + 16 * nLevels > fileSize)
+				throw new IOException("Invalid texture container " + fileName);
+
+			TextureContainer c = new TextureContainer(nLevels);
+			c.format = format;
+			for (int l = 0; l < nLevels; l++) {
+				c.width[l] = buffer.getInt();
+				c.height[l] = buffer.getInt();
+				int offset = buffer.getInt();
+				int size = buffer.getInt();
+				int expectedSize = format == FORMAT_RGBA8 ? 4 * c.width[l] * c.height[l]
+						: BlockCompression.size(format, c.width[l], c.height[l]);
+				if (offset < 0 || size != expectedSize || (long) offset + size > fileSize)
+					throw new IOException("Invalid texture container " + fileName);
+				ByteBuffer level = buffer.duplicate();
+				level.limit(offset + size);
+				level.position(offset);
+				c.levels[l] = level.slice();
+			}
+			return c;
+		}
+	}
+
+	/**
+	 * Downsample an RGBA image with a box filter. The color channels are
+	 * filtered in linear space, i.e., the sRGB encoding is removed before and
+	 * applied again after filtering. Odd sizes are handled with a three tap
+	 * polyphase box filter, so every source texel contributes with the same
+	 * total weight. Rows are processed in parallel.
+	 */
+	private static byte[] downsample(byte[] src, int sw, int sh, int dw, int dh) {
+		// Horizontal pass into linear floats
+		float[] tmp = new float[4 * dw * sh];
+		IntStream.range(0, sh).parallel().forEach(y -> {
+			int[] taps = new int[3];
+			float[] weights = new float[3];
+			for (int x = 0; x < dw; x++) {
+				int n = filter(sw, dw, x, taps, weights);
+				for (int c = 0; c < 4; c++) {
+					float sum = 0;
+					for (int t = 0; t < n; t++) {
+						int texel = src[4 * (y * sw + taps[t]) + c] & 0xff;
+						sum += weights[t] * (c < 3 ? SRGB_TO_LINEAR[texel] : texel / 255.f);
+					}
+					tmp[4 * (y * dw + x) + c] = sum;
+				}
+			}
+		});
+
+		// Vertical pass back to bytes
+		byte[] dst = new byte[4 * dw * dh];
+		IntStream.range(0, dh).parallel().forEach(y -> {
+			int[] taps = new int[3];
+			float[] weights = new float[3];
+			int n = filter(sh, dh, y, taps, weights);
+			for (int x = 0; x < dw; x++) {
+				for (int c = 0; c < 4; c++) {
+					float sum = 0;
+					for (int t = 0; t < n; t++)
+						sum += weights[t] * tmp[4 * (taps[t] * dw + x) + c];
+					dst[4 * (y * dw + x) + c] = (byte) (c < 3 ? linearToSrgb(sum) : Math.round(sum * 255));
+				}
+			}
+		});
+		return dst;
+	}
+
+	/**
+	 * Computes the source texels and weights of the box filter for a target
+	 * texel along one axis.
+	 *
+	 * @return the number of taps
+	 */
+	private static int filter(int srcSize, int dstSize, int x, int[] taps, float[] weights) {
+		if (srcSize == dstSize) {
+			taps[0] = x;
+			weights[0] = 1;
+			return 1;
+		}
+		if (srcSize % 2 == 0) {
+			taps[0] = 2 * x;
+			taps[1] = 2 * x + 1;
+			weights[0] = weights[1] = 0.5f;
+			return 2;
+		}
+		taps[0] = 2 * x;
+		taps[1] = 2 * x + 1;
+		taps[2] = 2 * x + 2;
+		weights[0] = (dstSize - x) / (float) srcSize;
+		weights[1] = dstSize / (float) srcSize;
+		weights[2] = (x + 1) / (float) srcSize;
+		return 3;
+	}
+
+	private static final float[] SRGB_TO_LINEAR = new float[256];
+	private static final byte[] LINEAR_TO_SRGB = new byte[4096];
+	static {
+		for (int i = 0; i < 256; i++) {
+			double c = i / 255.0;
+			SRGB_TO_LINEAR[i] = (float) (c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4));
+		}
+		for (int i = 0; i < LINEAR_TO_SRGB.length; i++) {
+			double c = i / (double) (LINEAR_TO_SRGB.length - 1);
+			double s = c <= 0.0031308 ? 12.92 * c : 1.055 * Math.pow(c, 1 / 2.4) - 0.055;
+			LINEAR_TO_SRGB[i] = (byte) Math.round(s * 255);
+		}
+	}
+
+	private static int linearToSrgb(float c) {
+		int i = Math.round(c * (LINEAR_TO_SRGB.length - 1));
+		return LINEAR_TO_SRGB[Math.max(0, Math.min(LINEAR_TO_SRGB.length - 1, i))];
+	}
+}
@@ -0,0 +1,37 @@
+package simple;
+
+import jrtr.RenderContext;
+import jrtr.SceneManagerInterface;
+import jrtr.Shader;
+import jrtr.Texture;
+import jrtr.VertexData;
+
+/**
+ * A {@link RenderContext} without a window or OpenGL context. It only makes
+ * {@link VertexData}, which is all the benchmarks in this package need to
+ * run the loaders and mesh processing code of {@link jrtr}.
+ */
+class BenchmarkRenderContext implements RenderContext {
+
+	public void setSceneManager(SceneManagerInterface sceneManager) {
+	}
+
+	public Shader makeShader() {
+		return null;
+	}
+
+	public void useDefaultShader() {
+	}
+
+	public void useShader(Shader s) {
+	}
+
+	public Texture makeTexture() {
+		return null;
+	}
+
+	public VertexData makeVertexData(int n) {
+		return new VertexData(n) {
+		};
+	}
+}
@@ -0,0 +1,118 @@
+package simple;
+
+import jrtr.HalfEdgeMesh;
+import jrtr.MeshData;
+import jrtr.RenderContext;
+import jrtr.VertexData;
+
+/**
+ * Measures how the construction of the winged edge structure of
+ * {@link MeshData} scales with the size of the mesh, sequentially and in
+ * parallel, and compares it to the {@link HalfEdgeMesh}. Builds closed torus
+ * meshes from 1K to 10M triangles and prints the time and the triangles per
+ * second, and the bytes per triangle of the half-edge mesh. The time of the
+ * winged edge structure includes converting the structure back into vertex
+ * data. Then subdivides a torus of 2K triangles with
+ * {@link HalfEdgeMesh#subdivide()} until it reaches the maximum number of
+ * triangles, and prints the time and memory of each level. Runs without
+ * opening a window. The largest mesh needs a heap of about 4.5 GB for the
+ * winged edge structure, pass a smaller maximum number of triangles as an
+ * argument to skip it.
+ */
+public class MeshDataBenchmark
+{
+	public static void main(String[] args)
+	{
+		long maxTriangles = args.length > 0 ? Long.parseLong(args[0]) : 10000000;
+		RenderContext renderContext = new BenchmarkRenderContext();
+
+		for(long triangles = 1000; triangles <= maxTriangles; triangles *= 10)
+		{
+			int n = (int)Math.round(Math.sqrt(triangles / 2.0));
+			StringBuilder line = new StringBuilder(String.format("%10d triangles", 2 * n * n));
+			for(boolean parallel : new boolean[] { false, true })
+			{
+				// Warm up on small meshes, then time enough runs for about
+				// a million triangles
+				int runs = (int)Math.max(1, 1000000 / triangles);
+				if(triangles < 1000000)
+					new MeshData(makeTorus(renderContext, n), renderContext, parallel);
+				double seconds = 0;
+				for(int i = 0; i < runs; i++)
+				{
+					VertexData vertexData = makeTorus(renderContext, n);
+					long t0 = System.nanoTime();
+					new MeshData(vertexData, renderContext, parallel);
+					seconds += (System.nanoTime() - t0) * 1e-9;
+				}
+				line.append(String.format("   %s: %9.1f ms %7.2f M triangles/s", parallel ? "parallel" : "sequential",
+						1000 * seconds / runs, runs * 2.0 * n * n / seconds / 1e6));
+			}
+
+			int runs = (int)Math.max(1, 1000000 / triangles);
+			if(triangles < 1000000)
+				new HalfEdgeMesh(makeTorus(renderContext, n));
+			double seconds = 0;
+			long bytes = 0;
+			for(int i = 0; i < runs; i++)
+			{
+				VertexData vertexData = makeTorus(renderContext, n);
+				long t0 = System.nanoTime();
+				HalfEdgeMesh mesh = new HalfEdgeMesh(vertexData);
+				seconds += (System.nanoTime() - t0) * 1e-9;
+				bytes = mesh.getMemoryBytes();
+			}
+			line.append(String.format("   half-edge: %9.1f ms %7.2f M triangles/s %5.1f bytes/triangle",
+					1000 * seconds / runs, runs * 2.0 * n * n / seconds / 1e6, bytes / (2.0 * n * n)));
+			System.out.print(line + "\n");
+		}
+
+		// Multi-level Loop subdivision, as in MeshData.loop(int)
+		HalfEdgeMesh mesh = new HalfEdgeMesh(makeTorus(renderContext, 32));
+		for(int level = 1; 4L * mesh.getNumberOfFaces() <= maxTriangles; level++)
+		{
+			long t0 = System.nanoTime();
+			mesh = mesh.subdivide();
+			double seconds = (System.nanoTime() - t0) * 1e-9;
+			System.out.print(String.format("Loop level %d: %10d triangles %9.1f ms %7.2f M triangles/s %8.1f MB\n",
+					level, mesh.getNumberOfFaces(), 1000 * seconds, mesh.getNumberOfFaces() / seconds / 1e6,
+					mesh.getMemoryBytes() / 1e6));
+		}
+	}
+
+	/**
+	 * Make a closed torus of n x n vertices and 2 n^2 triangles.
+	 */
+	static VertexData makeTorus(RenderContext renderContext, int n)
+	{
+		float[] v = new float[3*n*n];
+		for(int i = 0; i < n; i++)
+		{
+			for(int j = 0; j < n; j++)
+			{
+				double a = 2*Math.PI*i/n, b = 2*Math.PI*j/n;
+				int k = i*n + j;
+				v[3*k] = (float)((2 + Math.cos(b)) * Math.cos(a));
+				v[3*k+1] = (float)((2 + Math.cos(b)) * Math.sin(a));
+				v[3*k+2] = (float)Math.sin(b);
+			}
+		}
+
+		int[] indices = new int[6*n*n];
+		int t = 0;
+		for(int i = 0; i < n; i++)
+		{
+			for(int j = 0; j < n; j++)
+			{
+				int a = i*n + j, b = i*n + (j+1)%n, c = ((i+1)%n)*n + j, d = ((i+1)%n)*n + (j+1)%n;
+				indices[t++] = a; indices[t++] = c; indices[t++] = b;
+				indices[t++] = b; indices[t++] = c; indices[t++] = d;
+			}
+		}
+
+		VertexData vertexData = renderContext.makeVertexData(n*n);
+		vertexData.addElement(v, VertexData.Semantic.POSITION, 3);
+		vertexData.addIndices(indices);
+		return vertexData;
+	}
+}
@@ -0,0 +1,104 @@
+package simple;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.IntBuffer;
+
+import jrtr.AssimpReader;
+import jrtr.MeshCache;
+import jrtr.MeshOptimizer;
+import jrtr.ObjReader;
+import jrtr.RenderContext;
+import jrtr.VertexData;
+
+/**
+ * Measures the throughput of the different {@link ObjReader} modes, and of
+ * {@link AssimpReader}, on the .obj files in the "obj" folder and prints it
+ * in MB/s, and the face corners per vertex of
+ * {@link ObjReader#readIndexed(String, float, RenderContext)}. For the
+ * indexed mesh, also prints the time of {@link MeshOptimizer#optimize} and
+ * the ACMR and ATVR before and after. Runs without opening a window.
+ */
+public class ObjReaderBenchmark
+{
+	/**
+	 * One way of reading an .obj file.
+	 */
+	interface Reader
+	{
+		VertexData read(String fileName, float scale, RenderContext renderContext) throws IOException;
+	}
+
+	static final String[] names = { "read", "readMapped", "readParallel", "readIndexed", "cached", "assimp" };
+	static final Reader[] readers = { ObjReader::read, ObjReader::readMapped, ObjReader::readParallel, ObjReader::readIndexed,
+			new MeshCache(System.getProperty("java.io.tmpdir") + "/jrtr-mesh-cache")::read, AssimpReader::read };
+
+	public static void main(String[] args) throws IOException
+	{
+		String dir = args.length > 0 ? args[0] : "../obj";
+		RenderContext renderContext = new BenchmarkRenderContext();
+
+		File[] files = new File(dir).listFiles((d, name) -> name.endsWith(".obj"));
+		if(files == null)
+		{
+			System.out.print("No .obj files found in " + dir + "\n");
+			return;
+		}
+
+		// The readers report unknown tokens on System.out, silence them while timing
+		PrintStream out = System.out;
+		PrintStream silent = new PrintStream(new OutputStream() {
+			public void write(int b) {}
+		});
+
+		for(File file : files)
+		{
+			double mb = file.length() / (1024.0 * 1024.0);
+			StringBuilder line = new StringBuilder(String.format("%-24s %7.2f MB", file.getName(), mb));
+			String optimized = "";
+			for(int r = 0; r < readers.length; r++)
+			{
+				System.setOut(silent);
+				// Warm up, then time enough runs to read at least 50 MB
+				for(int i = 0; i < 3; i++)
+					readers[r].read(file.getPath(), 1, renderContext);
+				int runs = Math.max(3, (int)Math.ceil(50 / mb));
+				long t0 = System.nanoTime();
+				for(int i = 0; i < runs; i++)
+					readers[r].read(file.getPath(), 1, renderContext);
+				double seconds = (System.nanoTime() - t0) * 1e-9;
+				VertexData vertexData = readers[r].read(file.getPath(), 1, renderContext);
+				System.setOut(out);
+				line.append(String.format("   %s: %8.1f MB/s", names[r], runs * mb / seconds));
+				if(names[r].equals("readIndexed"))
+				{
+					int nVertices = vertexData.getNumberOfVertices();
+					line.append(String.format(" (%.2f corners/vertex)",
+							vertexData.getNumberOfIndices() / (float)Math.max(1, nVertices)));
+					int[] before = indices(vertexData);
+					t0 = System.nanoTime();
+					MeshOptimizer.optimize(vertexData);
+					double ms = (System.nanoTime() - t0) * 1e-6;
+					int[] after = indices(vertexData);
+					optimized = String.format("%-24s optimized %d triangles in %.1f ms: ACMR %.3f -> %.3f, ATVR %.3f -> %.3f\n",
+							"", before.length / 3, ms, MeshOptimizer.acmr(before), MeshOptimizer.acmr(after),
+							MeshOptimizer.atvr(before, nVertices), MeshOptimizer.atvr(after, nVertices));
+				}
+			}
+			System.out.print(line + "\n" + optimized);
+		}
+	}
+
+	/**
+	 * Returns a copy of the indices of vertex data.
+	 */
+	static int[] indices(VertexData vertexData)
+	{
+		IntBuffer buffer = vertexData.getIndexBuffer();
+		int[] indices = new int[buffer.remaining()];
+		buffer.get(indices);
+		return indices;
+	}
+}
@@ -0,0 +1,141 @@
+package simple;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import javax.vecmath.AxisAngle4f;
+import javax.vecmath.Matrix4f;
+import javax.vecmath.Vector3f;
+
+import jrtr.GraphSceneManager;
+import jrtr.RenderContext;
+import jrtr.RenderItem;
+import jrtr.SceneManagerIterator;
+import jrtr.SceneNode;
+import jrtr.Shape;
+import jrtr.ShapeNode;
+import jrtr.TransformGroup;
+import jrtr.VertexData;
+
+/**
+ * Measures the traversal of a {@link GraphSceneManager}. Builds a scene
+ * graph of about 100K nodes, chains of transform groups 50 deep below the
+ * root with a shape at every group, and prints the time per traversal, the
+ * shapes per second and the bytes allocated per traversal. For comparison,
+ * it also traverses the graph recursively with a new matrix and render
+ * item per shape, and checks that both visit the same shapes with the same
+ * transformations. Runs without opening a window. The number of nodes and
+ * the depth can be passed as arguments.
+ */
+public class SceneGraphBenchmark
+{
+	static final int FRAMES = 200;
+
+	public static void main(String[] args)
+	{
+		int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int depth = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		RenderContext renderContext = new BenchmarkRenderContext();
+
+		VertexData vertexData = renderContext.makeVertexData(3);
+		vertexData.addElement(new float[] { 0,0,0, 1,0,0, 0,1,0 }, VertexData.Semantic.POSITION, 3);
+		vertexData.addIndices(new int[] { 0, 1, 2 });
+		Shape shape = new Shape(vertexData);
+
+		// Each group below the root has a shape, so a chain of depth - 1
+		// groups has 2 (depth - 1) nodes
+		int chains = Math.max(1, (nodes - 1) / (2 * (depth - 1)));
+		Random random = new Random(0);
+		TransformGroup root = new TransformGroup();
+		for(int i = 0; i < chains; i++)
+		{
+			TransformGroup parent = root;
+			for(int j = 1; j < depth; j++)
+			{
+				TransformGroup group = new TransformGroup();
+				group.transformation.set(new AxisAngle4f(random.nextFloat(), random.nextFloat(), random.nextFloat(), 0.1f));
+				group.transformation.setTranslation(new Vector3f(random.nextFloat(), random.nextFloat(), random.nextFloat()));
+				group.children.add(new ShapeNode(shape));
+				parent.children.add(group);
+				parent = group;
+			}
+		}
+		int shapes = chains * (depth - 1);
+		System.out.print(String.format("%d nodes, depth %d, %d shapes\n", 1 + 2 * shapes, depth, shapes));
+
+		GraphSceneManager sceneManager = new GraphSceneManager(root);
+		Matrix4f identity = new Matrix4f();
+		identity.setIdentity();
+		double[] reference = new double[1];
+		recursive(root, identity, reference);
+		if(Math.abs(iterative(sceneManager) - reference[0]) > 1e-6 * Math.abs(reference[0]))
+			throw new IllegalStateException("Traversals visit different shapes");
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		for(boolean isIterative : new boolean[] { false, true, false, true })
+		{
+			// Warm up, then time
+			for(int i = 0; i < FRAMES / 4; i++)
+				traverse(isIterative, sceneManager, root, identity);
+			long bytes0 = threads.getThreadAllocatedBytes(thread);
+			long t0 = System.nanoTime();
+			for(int i = 0; i < FRAMES; i++)
+				traverse(isIterative, sceneManager, root, identity);
+			double seconds = (System.nanoTime() - t0) * 1e-9;
+			long bytes = threads.getThreadAllocatedBytes(thread) - bytes0;
+			System.out.print(String.format("%9s: %7.2f ms/frame %7.1f M shapes/s %11d bytes/frame\n",
+					isIterative ? "iterative" : "recursive", 1000 * seconds / FRAMES,
+					FRAMES * (double)shapes / seconds / 1e6, bytes / FRAMES));
+		}
+	}
+
+	private static double traverse(boolean isIterative, GraphSceneManager sceneManager, TransformGroup root, Matrix4f identity)
+	{
+		if(isIterative)
+			return iterative(sceneManager);
+		double[] sum = new double[1];
+		recursive(root, identity, sum);
+		return sum[0];
+	}
+
+	/**
+	 * Sum the translations of the shapes the scene manager returns, so the
+	 * traversal cannot be optimized away.
+	 */
+	private static double iterative(GraphSceneManager sceneManager)
+	{
+		double sum = 0;
+		SceneManagerIterator itr = sceneManager.iterator();
+		while(itr.hasNext())
+		{
+			Matrix4f t = itr.next().getT();
+			sum += t.m03 + t.m13 + t.m23;
+		}
+		return sum;
+	}
+
+	/**
+	 * The straightforward traversal, with a new matrix per group and a new
+	 * render item per shape.
+	 */
+	private static void recursive(SceneNode node, Matrix4f t, double[] sum)
+	{
+		if(node instanceof ShapeNode)
+		{
+			Shape shape = ((ShapeNode) node).getShape();
+			Matrix4f m = new Matrix4f();
+			m.mul(t, shape.getTransformation());
+			RenderItem item = new RenderItem(shape, m);
+			sum[0] += item.getT().m03 + item.getT().m13 + item.getT().m23;
+		}
+		else if(node instanceof TransformGroup)
+		{
+			TransformGroup group = (TransformGroup) node;
+			Matrix4f m = new Matrix4f();
+			m.mul(t, group.getTransformation());
+			for(SceneNode child : group.children)
+				recursive(child, m, sum);
+		}
+	}
+}
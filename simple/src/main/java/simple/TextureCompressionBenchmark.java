@@ -0,0 +1,46 @@
+package simple;
+
+import java.io.File;
+import java.io.IOException;
+
+import jrtr.glrenderer.TextureContainer;
+
+/**
+ * Measures the block compression of {@link TextureContainer}. Compresses
+ * the mipmap levels of the images in the "textures" folder to BC1 and BC3
+ * and prints the time, the size before and after compression and the peak
+ * signal to noise ratio of the largest level. Runs without opening a
+ * window. The folder can be passed as an argument.
+ */
+public class TextureCompressionBenchmark
+{
+	static final String[] names = { "BC1", "BC3" };
+	static final int[] formats = { TextureContainer.FORMAT_BC1, TextureContainer.FORMAT_BC3 };
+
+	public static void main(String[] args) throws IOException
+	{
+		String dir = args.length > 0 ? args[0] : "../textures";
+
+		File[] files = new File(dir).listFiles((d, name) -> !name.endsWith(".mips"));
+		if(files == null || files.length == 0)
+		{
+			System.out.print("No images found in " + dir + "\n");
+			return;
+		}
+
+		for(File file : files)
+		{
+			TextureContainer c = TextureContainer.readBaked(file.getPath());
+			for(int f = 0; f < formats.length; f++)
+			{
+				// Warm up once, then report the second run
+				c.compress(formats[f]);
+				TextureContainer compressed = c.compress(formats[f]);
+				System.out.print(String.format("%-24s %5dx%-5d %s: %8.1f ms %7d KB -> %6d KB   PSNR %6.2f dB\n",
+						file.getName(), c.getWidth(0), c.getHeight(0), names[f], compressed.getEncodeTime() / 1e6,
+						compressed.getUncompressedBytes() / 1024, compressed.getCompressedBytes() / 1024,
+						compressed.getPsnr()));
+			}
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package simple;
+
+import static org.lwjgl.glfw.GLFW.glfwSetWindowShouldClose;
+import static org.lwjgl.opengl.GL11.glFinish;
+
+import java.util.Random;
+
+import jrtr.RenderContext;
+import jrtr.SimpleSceneManager;
+import jrtr.Shape;
+import jrtr.VertexData;
+import jrtr.glrenderer.GLRenderContext;
+import jrtr.glrenderer.GLRenderPanel;
+
+/**
+ * Compares the vertex fetch throughput of the default layout, one buffer per
+ * vertex element, with the interleaved layout of
+ * {@link VertexData#setInterleaved(boolean)}, both with floats and with the
+ * compact encodings of {@link VertexData#quantize()}, and with the vertices
+ * copied to a streaming buffer every frame, see
+ * {@link VertexData#setStreaming(boolean)}. Draws a large grid with
+ * positions, normals, colors and texture coordinates, once with the
+ * triangles in grid order and once shuffled, which defeats the vertex
+ * cache, and prints the vertices processed per second and the bytes per
+ * vertex. The grid is small on
+ * the screen, so rasterization does not dominate. Opens a window and closes
+ * it when done.
+ */
+public class VertexLayoutBenchmark
+{
+	static final int GRID_SIZE = 1024;
+	static final int DRAWS_PER_FRAME = 8;
+	static final int FRAMES = 50;
+
+	public final static class BenchmarkRenderPanel extends GLRenderPanel
+	{
+		public void init(RenderContext renderContext)
+		{
+			for(boolean shuffled : new boolean[] { false, true })
+			{
+				for(boolean quantized : new boolean[] { false, true })
+				{
+					for(String layout : new String[] { "separate", "interleaved", "streaming" })
+					{
+						VertexData vertexData = makeGrid(renderContext, GRID_SIZE, shuffled);
+						vertexData.setInterleaved(layout.equals("interleaved"));
+						vertexData.setStreaming(layout.equals("streaming"));
+						if(quantized)
+							vertexData.quantize();
+						double rate = measure((GLRenderContext)renderContext, vertexData);
+						System.out.printf("%-12s %-12s %-10s %8.1f M vertices/s %3d bytes/vertex\n", 
+								shuffled ? "shuffled" : "grid order", layout, 
+								quantized ? "quantized" : "float", rate / 1e6, vertexData.getStride());
+						vertexData.dispose();
+					}
+				}
+			}
+			glfwSetWindowShouldClose(window, true);
+		}
+
+		public void executeStep()
+		{
+		}
+	}
+
+	/**
+	 * Draw the vertex data several times per frame and return the number of
+	 * vertices (indices) processed per second.
+	 */
+	static double measure(GLRenderContext renderContext, VertexData vertexData)
+	{
+		SimpleSceneManager sceneManager = new SimpleSceneManager();
+		Shape shape = new Shape(vertexData);
+		for(int i = 0; i < DRAWS_PER_FRAME; i++)
+			sceneManager.addShape(shape);
+		renderContext.setSceneManager(sceneManager);
+
+		// Warm up, which also uploads the data
+		for(int i = 0; i < 5; i++)
+			renderContext.display();
+		glFinish();
+
+		long t0 = System.nanoTime();
+		for(int i = 0; i < FRAMES; i++)
+			renderContext.display();
+		glFinish();
+		double seconds = (System.nanoTime() - t0) * 1e-9;
+		return (double)FRAMES * DRAWS_PER_FRAME * vertexData.getNumberOfIndices() / seconds;
+	}
+
+	/**
+	 * Make a grid of n x n vertices in [-1,1]^2 with all four kinds of
+	 * vertex elements.
+	 */
+	static VertexData makeGrid(RenderContext renderContext, int n, boolean shuffled)
+	{
+		float[] v = new float[3*n*n];
+		float[] nrm = new float[3*n*n];
+		float[] c = new float[3*n*n];
+		float[] uv = new float[2*n*n];
+		for(int i = 0; i < n; i++)
+		{
+			for(int j = 0; j < n; j++)
+			{
+				int k = i*n + j;
+				float x = i / (float)(n-1), y = j / (float)(n-1);
+				v[3*k] = 2*x - 1; v[3*k+1] = 2*y - 1; v[3*k+2] = 0;
+				nrm[3*k] = 0; nrm[3*k+1] = 0; nrm[3*k+2] = 1;
+				c[3*k] = x; c[3*k+1] = y; c[3*k+2] = 1 - x;
+				uv[2*k] = x; uv[2*k+1] = y;
+			}
+		}
+
+		int[] indices = new int[6*(n-1)*(n-1)];
+		int t = 0;
+		for(int i = 0; i < n-1; i++)
+		{
+			for(int j = 0; j < n-1; j++)
+			{
+				int a = i*n + j, b = a + 1, d = a + n, e = d + 1;
+				indices[t++] = a; indices[t++] = d; indices[t++] = b;
+				indices[t++] = b; indices[t++] = d; indices[t++] = e;
+			}
+		}
+		if(shuffled)
+		{
+			// Shuffle whole triangles
+			Random random = new Random(1);
+			for(int i = indices.length/3 - 1; i > 0; i--)
+			{
+				int r = random.nextInt(i+1);
+				for(int k = 0; k < 3; k++)
+				{
+					int tmp = indices[3*i+k];
+					indices[3*i+k] = indices[3*r+k];
+					indices[3*r+k] = tmp;
+				}
+			}
+		}
+
+		VertexData vertexData = renderContext.makeVertexData(n*n);
+		vertexData.addElement(c, VertexData.Semantic.COLOR, 3);
+		vertexData.addElement(v, VertexData.Semantic.POSITION, 3);
+		vertexData.addElement(nrm, VertexData.Semantic.NORMAL, 3);
+		vertexData.addElement(uv, VertexData.Semantic.TEXCOORD, 2);
+		vertexData.addIndices(indices);
+		return vertexData;
+	}
+
+	public static void main(String[] args)
+	{
+		new BenchmarkRenderPanel().showWindow();
+	}
+}
@@ -59,33 +59,39 @@ public class simple
 			// Add the scene to the renderer
 			renderContext.setSceneManager(sceneManager);
 			
-			// Load some more shaders
-		    normalShader = renderContext.makeShader();
-		    try {
-		    	normalShader.load("../jrtr/shaders/normal.vert", "../jrtr/shaders/normal.frag");
-		    } catch(Exception e) {
-		    	System.out.print("Problem with shader:\n");
-		    	System.out.print(e.getMessage());
-		    }
-	
-		    diffuseShader = renderContext.makeShader();
-		    try {
-		    	diffuseShader.load("../jrtr/shaders/diffuse.vert", "../jrtr/shaders/diffuse.frag");
-		    } catch(Exception e) {
-		    	System.out.print("Problem with shader:\n");
-		    	System.out.print(e.getMessage());
-		    }
-
-		    // Make a material that can be used for shading
+			// Load some more shaders and a texture in the background. The
+			// shaders and the texture become available once they are loaded,
+			// while the window already shows the cube.
+			GLAssetLoader loader = new GLAssetLoader((GLRenderContext)renderContext);
+			loader.loadShader("../jrtr/shaders/normal.vert", "../jrtr/shaders/normal.frag")
+				.whenComplete((s, e) -> {
+					if(e != null) {
+						System.out.print("Problem with shader:\n");
+						System.out.print(e.getMessage());
+					}
+					normalShader = s;
+				});
+			
+			// Make a material that can be used for shading
 			material = new Material();
-			material.shader = diffuseShader;
-			material.diffuseMap = renderContext.makeTexture();
-			try {
-				material.diffuseMap.load("../textures/plant.jpg");
-			} catch(Exception e) {				
-				System.out.print("Could not load texture.\n");
-				System.out.print(e.getMessage());
-			}
+			loader.loadShader("../jrtr/shaders/diffuse.vert", "../jrtr/shaders/diffuse.frag")
+				.whenComplete((s, e) -> {
+					if(e != null) {
+						System.out.print("Problem with shader:\n");
+						System.out.print(e.getMessage());
+					}
+					diffuseShader = s;
+					material.shader = s;
+				});
+			loader.loadTexture("../textures/plant.jpg")
+				.whenComplete((t, e) -> {
+					if(e != null) {
+						System.out.print("Could not load texture.\n");
+						System.out.print(e.getMessage());
+					}
+					material.diffuseMap = t;
+				});
+			loader.shutdown();
 
 			// Step size for rotating animation
 			currentstep = 0.01f;